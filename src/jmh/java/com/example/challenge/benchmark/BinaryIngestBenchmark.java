@@ -0,0 +1,150 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.ChallengeApplication;
+import com.example.challenge.services.BinaryIngestListener;
+import com.example.challenge.services.BulkImporter;
+import com.example.challenge.services.MetricsService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples per second stored end to end through the running application by one client:
+ * single {@code POST /api/linespeed}, {@code POST /api/linespeed/batch} of {@link #REST_BATCH}
+ * samples and the binary TCP ingest in writes of {@link #TCP_BATCH} records, waiting each
+ * time until the listener decoded them. The ops/s of every method are samples/s.
+ * <p>
+ * Samples go round robin to {@link #LINES} lines with a timestamp at least one millisecond past
+ * the previous one of the line, so every sample is the latest one of its line. Enough lines keep
+ * those timestamps at the wall clock, and a 5 second window bounds the retained samples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class BinaryIngestBenchmark {
+
+    private static final int LINES = 8192;
+    private static final int REST_BATCH = 500;
+    private static final int TCP_BATCH = 10_000;
+
+    private ConfigurableApplicationContext context;
+    private BinaryIngestListener listener;
+    private URL singleUrl;
+    private URL batchUrl;
+    private SocketChannel tcp;
+    private ByteBuffer records;
+    private long sent;
+    private final long[] lastTimestamps = new long[LINES];
+    private int nextLine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = new SpringApplicationBuilder(ChallengeApplication.class)
+                .properties("server.port=0", "metrics.ingest.binary.port=0", "metrics.windows=5s", "logging.level.root=WARN")
+                .run();
+        MetricsService metricsService = context.getBean(MetricsService.class);
+        for (int line = 0; line < LINES; line++) {
+            metricsService.registerLine(lineId(line));
+        }
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        singleUrl = new URL("http://localhost:" + port + "/api/linespeed");
+        batchUrl = new URL("http://localhost:" + port + "/api/linespeed/batch");
+        listener = context.getBean(BinaryIngestListener.class);
+        tcp = SocketChannel.open(new InetSocketAddress("localhost", listener.getPort()));
+        records = ByteBuffer.allocateDirect(TCP_BATCH * BulkImporter.BINARY_RECORD_BYTES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        tcp.close();
+        context.close();
+    }
+
+    @Benchmark
+    public int rest() throws Exception {
+        int line = nextLine();
+        return post(singleUrl, json(line, nextTimestamp(line), 120.0));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REST_BATCH)
+    public int restBatch() throws Exception {
+        StringBuilder body = new StringBuilder(REST_BATCH * 64).append('[');
+        for (int i = 0; i < REST_BATCH; i++) {
+            int line = nextLine();
+            body.append(i == 0 ? "" : ",").append(json(line, nextTimestamp(line), 120.0));
+        }
+        return post(batchUrl, body.append(']').toString());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TCP_BATCH)
+    public long tcp() throws Exception {
+        records.clear();
+        for (int i = 0; i < TCP_BATCH; i++) {
+            int line = nextLine();
+            records.putLong(lineId(line)).putLong(nextTimestamp(line)).putDouble(120.0);
+        }
+        records.flip();
+        while (records.hasRemaining()) {
+            tcp.write(records);
+        }
+        sent += TCP_BATCH;
+        while (listener.getReceived() < sent) {
+            Thread.onSpinWait();
+        }
+        return sent;
+    }
+
+    private int nextLine() {
+        int line = nextLine;
+        nextLine = (nextLine + 1) % LINES;
+        return line;
+    }
+
+    private long nextTimestamp(int line) {
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamps[line] + 1);
+        lastTimestamps[line] = timestamp;
+        return timestamp;
+    }
+
+    private static long lineId(int line) {
+        return 1000L + line;
+    }
+
+    private static String json(int line, long timestamp, double speed) {
+        return "{\"lineId\":" + lineId(line) + ",\"speed\":" + speed + ",\"timestamp\":" + timestamp + "}";
+    }
+
+    private static int post(URL url, String body) throws Exception {
+        byte[] bytes = body.getBytes(StandardCharsets.US_ASCII);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(bytes.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(bytes);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = connection.getInputStream()) {
+            in.readAllBytes();
+        }
+        return status;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.services.MetricsService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dashboard polling of GET /api/metrics while writers ingest on every line:
+ * fetching the cached JSON on every call against revalidating it with its ETag.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentReadBenchmark {
+
+    private static final long[] LINE_IDS = {10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L};
+
+    private MetricsService metricsService;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        metricsService = new MetricsService();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        private final MeasurementRequest request = new MeasurementRequest();
+        private long timestamp;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            request.setLineId(LINE_IDS[THREADS.getAndIncrement() % LINE_IDS.length]);
+            timestamp = System.currentTimeMillis() - 30 * 60 * 1000;
+        }
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(4)
+    public ResponseEntity<Void> ingest(Writer writer) {
+        writer.request.setTimestamp(++writer.timestamp);
+        writer.request.setSpeed(writer.timestamp % 200);
+        return metricsService.addSpeedMeasurement(writer.request);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(4)
+    public Object getAllMetrics() {
+        return metricsService.getAllMetricsJson(null);
+    }
+
+    @Benchmark
+    @Group("readWriteCached")
+    @GroupThreads(4)
+    public ResponseEntity<Void> ingestCached(Writer writer) {
+        return ingest(writer);
+    }
+
+    @Benchmark
+    @Group("readWriteCached")
+    @GroupThreads(4)
+    public Object getAllMetricsCached(Poller poller) {
+        ResponseEntity<byte[]> response = metricsService.getAllMetricsJson(poller.etag);
+        if (response.getStatusCode() == HttpStatus.OK) {
+            poller.etag = response.getHeaders().getETag();
+        }
+        return response;
+    }
+
+    @State(Scope.Thread)
+    public static class Poller {
+        private String etag;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.services.MetricsArchive;
+import com.example.challenge.services.MetricsService;
+import com.example.challenge.services.MetricsServiceFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * One run of the scheduled expiry with every line holding expired samples, with or without
+ * rolling them into the long-term archive (written by its own thread, not measured).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+public class ExpiryBenchmark {
+
+    private static final long[] LINE_IDS = {10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L};
+
+    @Param({"1000", "100000"})
+    private int windowSize;
+
+    @Param({"10"})
+    private int expiredPercent;
+
+    @Param({"false", "true"})
+    private boolean archived;
+
+    private MetricsService metricsService;
+    private MetricsArchive archive;
+    private Path archiveDirectory;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        metricsService = new MetricsService();
+        if (archived) {
+            archiveDirectory = Files.createTempDirectory("archive-benchmark");
+            archive = new MetricsArchive(metricsService, archiveDirectory.toString(), "30d", "365d", 60_000);
+            archive.start();
+        }
+        long now = System.currentTimeMillis();
+        long windowStart = now - 60 * 60 * 1000;
+        long from = windowStart - (60L * 60 * 1000 * expiredPercent / 100);
+        for (long lineId : LINE_IDS) {
+            MetricsServiceFixtures.preload(metricsService, lineId, from, now, windowSize);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException, InterruptedException {
+        if (archive != null) {
+            archive.stop();
+            archive = null;
+            try (Stream<Path> paths = Files.walk(archiveDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public MetricsService removeOldEntriesSheduled() {
+        metricsService.removeOldEntriesSheduled();
+        return metricsService;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.ChallengeApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End to end load test of {@code POST /api/linespeed} over HTTP against the embedded
+ * Tomcat with its platform worker pool or with virtual threads. Every benchmark thread
+ * is one client connection; raise their number past {@code server.tomcat.threads.max}
+ * (200) to compare connection capacity and tail latency, e.g.
+ * {@code -Djmh.args="HttpLoadBenchmark -t 512 -p threads=PLATFORM,VIRTUAL"}.
+ * With {@code lines=1} every request contends for the same line lock.
+ * <p>
+ * VIRTUAL needs a JDK 21 runtime, the trial fails on older ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(64)
+// keeps one idle connection per client thread for reuse
+@Fork(value = 1, jvmArgs = {"-Xmx1g", "-Dhttp.maxConnections=4096"})
+public class HttpLoadBenchmark {
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private String threads;
+
+    @Param({"1", "8"})
+    private int lines;
+
+    private ConfigurableApplicationContext context;
+    private URL ingestUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = new SpringApplicationBuilder(ChallengeApplication.class)
+                .properties("server.port=0",
+                        "metrics.server.virtual-threads=" + "VIRTUAL".equals(threads),
+                        "logging.level.root=WARN")
+                .run();
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        ingestUrl = new URL("http://localhost:" + port + "/api/linespeed");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private static final AtomicInteger CLIENTS = new AtomicInteger();
+
+        private long lineId;
+        private double speed;
+
+        @Setup(Level.Trial)
+        public void setUp(HttpLoadBenchmark benchmark) {
+            lineId = 10L * (1 + CLIENTS.getAndIncrement() % benchmark.lines);
+        }
+
+        byte[] next() {
+            speed = (speed + 1.5) % 300;
+            return ("{\"lineId\":" + lineId + ",\"speed\":" + speed + ",\"timestamp\":" + System.currentTimeMillis() + "}")
+                    .getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Benchmark
+    public int addSpeedMeasurement(Client client) throws Exception {
+        byte[] body = client.next();
+        HttpURLConnection connection = (HttpURLConnection) ingestUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        int status = connection.getResponseCode();
+        // drain the body so the connection goes back to the keep-alive cache
+        try (InputStream in = connection.getInputStream()) {
+            in.readAllBytes();
+        }
+        if (status != 201) {
+            throw new IllegalStateException("Unexpected status " + status);
+        }
+        return status;
+    }
+}
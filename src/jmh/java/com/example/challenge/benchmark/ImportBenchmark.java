@@ -0,0 +1,83 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.dto.ImportResponse;
+import com.example.challenge.services.BulkImporter;
+import com.example.challenge.services.MetricsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to ready of a bulk import: from the first byte of a binary dump of the last
+ * hour, interleaved across lines, to the metrics of every line being published.
+ * The 100M samples dump is a 2.4 GB file and needs about 8 GB of heap, it is run
+ * with {@code -p samples=100000000 -jvmArgsAppend -Xmx10g}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ImportBenchmark {
+
+    private static final int LINES = 64;
+    private static final long FIRST_LINE_ID = 1000L;
+
+    @Param({"10000000"})
+    private long samples;
+
+    private Path dump;
+    private MetricsService metricsService;
+
+    @Setup(Level.Trial)
+    public void writeDump() throws IOException {
+        dump = Files.createTempFile("import-benchmark", ".bin");
+        // starts well inside the window so no sample expires while the dump is written
+        long from = System.currentTimeMillis() - 50 * 60 * 1000;
+        double step = 45.0 * 60 * 1000 / samples;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dump), 1 << 20))) {
+            for (long i = 0; i < samples; i++) {
+                out.writeLong(FIRST_LINE_ID + i % LINES);
+                out.writeLong(from + (long) (i * step));
+                out.writeDouble(100 + i % 50);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDump() throws IOException {
+        Files.deleteIfExists(dump);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        metricsService = new MetricsService();
+        for (int i = 0; i < LINES; i++) {
+            metricsService.registerLine(FIRST_LINE_ID + i);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        metricsService = null;
+    }
+
+    @Benchmark
+    public ImportResponse importBinary() throws IOException {
+        try (InputStream in = Files.newInputStream(dump)) {
+            ImportResponse response = metricsService.importMeasurements(in, false).getBody();
+            if (response.getImported() != samples) {
+                throw new IllegalStateException("Imported " + response.getImported() + " of " + samples
+                        + " samples, record size " + BulkImporter.BINARY_RECORD_BYTES);
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.services.MetricsService;
+import com.example.challenge.services.ShardedIngestService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ingest throughput of the locked mode (request thread stores the measurement)
+ * against the sharded mode (request thread enqueues, shard worker stores).
+ * Compare the "accepted" counters: in sharded mode rejected offers (429) are
+ * cheap and would otherwise inflate the raw ops/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class IngestModeBenchmark {
+
+    private static final long[] LINE_IDS = {10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L};
+
+    @Param({"LOCKED", "SHARDED"})
+    private String mode;
+
+    private MetricsService metricsService;
+    private ShardedIngestService shardedIngestService;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        metricsService = new MetricsService();
+        if ("SHARDED".equals(mode)) {
+            shardedIngestService = new ShardedIngestService(metricsService, 0, 8192, 512);
+            shardedIngestService.start();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        if (shardedIngestService != null) {
+            shardedIngestService.stop();
+            shardedIngestService = null;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Producer {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        public long accepted;
+        public long rejected;
+
+        private final MeasurementRequest request = new MeasurementRequest();
+        private long timestamp;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            // each thread writes its own line with increasing timestamps, like a PLC would
+            request.setLineId(LINE_IDS[THREADS.getAndIncrement() % LINE_IDS.length]);
+            timestamp = System.currentTimeMillis() - 30 * 60 * 1000;
+        }
+
+        MeasurementRequest next() {
+            MeasurementRequest measurement = new MeasurementRequest();
+            measurement.setLineId(request.getLineId());
+            measurement.setTimestamp(++timestamp);
+            measurement.setSpeed(timestamp % 200);
+            return measurement;
+        }
+    }
+
+    @Benchmark
+    public HttpStatus ingest(Producer producer) {
+        MeasurementRequest request = producer.next();
+        HttpStatus status = shardedIngestService != null
+                ? shardedIngestService.addSpeedMeasurement(request).getStatusCode()
+                : metricsService.addSpeedMeasurement(request).getStatusCode();
+        if (status == HttpStatus.TOO_MANY_REQUESTS) {
+            producer.rejected++;
+        } else {
+            producer.accepted++;
+        }
+        return status;
+    }
+}
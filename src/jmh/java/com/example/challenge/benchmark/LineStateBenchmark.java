@@ -0,0 +1,67 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.services.MetricsService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest and query throughput round robin over many lines, dominated by resolving the
+ * state of the line rather than by its window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineStateBenchmark {
+
+    @Param({"8", "10000"})
+    private int lines;
+
+    private MetricsService metricsService;
+    private MeasurementRequest request;
+    private long timestamp;
+    private int nextLine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metricsService = new MetricsService();
+        metricsService.setTimeWindows("1m");
+        request = new MeasurementRequest();
+        timestamp = System.currentTimeMillis();
+        for (int line = 0; line < lines; line++) {
+            metricsService.registerLine(lineId(line));
+            request.setLineId(lineId(line));
+            request.setTimestamp(timestamp);
+            request.setSpeed(100);
+            metricsService.addSpeedMeasurement(request);
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<Void> addSpeedMeasurement() {
+        request.setLineId(lineId(nextLine()));
+        request.setTimestamp(++timestamp);
+        request.setSpeed(timestamp % 200);
+        return metricsService.addSpeedMeasurement(request);
+    }
+
+    @Benchmark
+    public Object getMetrics() {
+        return metricsService.getMetrics(lineId(nextLine()));
+    }
+
+    private int nextLine() {
+        int line = nextLine;
+        nextLine = line + 1 == lines ? 0 : line + 1;
+        return line;
+    }
+
+    private static Long lineId(int line) {
+        return 1000L + line;
+    }
+}
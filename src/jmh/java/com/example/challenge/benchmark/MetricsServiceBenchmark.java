@@ -0,0 +1,53 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.services.MetricsService;
+import com.example.challenge.services.MetricsServiceFixtures;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest cost of a single line as a function of the samples already in its window.
+ * Run with the gc profiler (default jmh.args) for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsServiceBenchmark {
+
+    private static final Long LINE_ID = 10L;
+
+    @Param({"1000", "100000", "1000000"})
+    private int windowSize;
+
+    private MetricsService metricsService;
+    private MeasurementRequest request;
+    private long timestamp;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        metricsService = new MetricsService();
+        long now = System.currentTimeMillis();
+        MetricsServiceFixtures.preload(metricsService, LINE_ID, now - 55 * 60 * 1000, now, windowSize);
+        request = new MeasurementRequest();
+        request.setLineId(LINE_ID);
+        timestamp = now;
+    }
+
+    @Benchmark
+    public ResponseEntity<Void> addSpeedMeasurement() {
+        request.setTimestamp(++timestamp);
+        request.setSpeed(timestamp % 200);
+        return metricsService.addSpeedMeasurement(request);
+    }
+
+    @Benchmark
+    public Object getMetrics() {
+        return metricsService.getMetrics(LINE_ID);
+    }
+}
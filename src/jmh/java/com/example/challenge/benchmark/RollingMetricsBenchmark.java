@@ -0,0 +1,40 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.domain.RingBufferMeasurementWindow;
+import com.example.challenge.domain.RollingMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full rebuild of the metrics, still used for out of order inserts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollingMetricsBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int windowSize;
+
+    private final RollingMetrics metrics = new RollingMetrics();
+    private RingBufferMeasurementWindow measurements;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        measurements = new RingBufferMeasurementWindow(windowSize);
+        long timestamp = System.currentTimeMillis() - 55 * 60 * 1000;
+        for (int i = 0; i < windowSize; i++) {
+            measurements.put(timestamp + i, 100 + i % 50);
+        }
+    }
+
+    @Benchmark
+    public double recalculateMetrics() {
+        metrics.recalculateMetrics(measurements);
+        return metrics.getWeightedAverage();
+    }
+}
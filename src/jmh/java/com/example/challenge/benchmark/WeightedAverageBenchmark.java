@@ -0,0 +1,43 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.domain.RollingMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read of the rounded weighted average of a window, against the former rounding of a
+ * value through {@code BigDecimal}. Run with {@code -prof gc}: {@code gc.alloc.rate.norm} is the bytes
+ * allocated per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeightedAverageBenchmark {
+
+    private final RollingMetrics metrics = new RollingMetrics();
+    private double unrounded = 137.45678;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long timestamp = System.currentTimeMillis() - 55 * 60 * 1000;
+        for (int i = 0; i < 1000; i++) {
+            metrics.addLatest(timestamp + i * 1000, 100 + (i * 37 % 500) / 7.0);
+        }
+    }
+
+    @Benchmark
+    public double getWeightedAverage() {
+        return metrics.getWeightedAverage();
+    }
+
+    @Benchmark
+    public double bigDecimalRounding() {
+        return new BigDecimal(Double.toString(unrounded)).setScale(1, RoundingMode.HALF_UP).doubleValue();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.challenge.benchmark;
+
+import com.example.challenge.domain.BucketedMeasurementWindow;
+import com.example.challenge.domain.CompressedMeasurementWindow;
+import com.example.challenge.domain.MeasurementWindow;
+import com.example.challenge.domain.RingBufferMeasurementWindow;
+import com.example.challenge.domain.RollingMetrics;
+import com.example.challenge.domain.SpeedMeasurement;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per line storage of a full window: the former TreeMap of
+ * SpeedMeasurement against the primitive ring buffer, the compressed blocks and
+ * the 1 second buckets (samples are 1 ms apart, so a bucket holds 1000 samples).
+ * The retained bytes per sample are printed at the end of each trial,
+ * gc.alloc.rate.norm / samples gives the allocated bytes per sample.
+ * {@code scan} rebuilds the rolling metrics from the stored window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowStorageBenchmark {
+
+    @Param({"1000", "100000"})
+    private int samples;
+
+    @Param({"TREE_MAP", "RING_BUFFER", "COMPRESSED", "BUCKETED"})
+    private String storage;
+
+    private Object stored;
+    private RollingMetrics metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stored = build();
+        metrics = new RollingMetrics(samples);
+    }
+
+    @Benchmark
+    public Object fill() {
+        return build();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public double scan() {
+        if (stored instanceof NavigableMap) {
+            // the former rebuild, a fresh metrics fed from the map values
+            RollingMetrics rebuilt = new RollingMetrics(samples);
+            for (SpeedMeasurement measurement : ((NavigableMap<Long, SpeedMeasurement>) stored).values()) {
+                rebuilt.addLatest(measurement.getTimestamp(), measurement.getSpeed());
+            }
+            return rebuilt.getWeightedAverage();
+        }
+        metrics.recalculateMetrics((MeasurementWindow) stored);
+        return metrics.getWeightedAverage();
+    }
+
+    @TearDown(Level.Trial)
+    public void reportFootprint() {
+        long bytes = GraphLayout.parseInstance(stored).totalSize();
+        System.out.printf("%n%s retained %.1f bytes/sample (%d samples)%n", storage, (double) bytes / samples, samples);
+    }
+
+    private Object build() {
+        long timestamp = 1_700_000_000_000L;
+        if ("TREE_MAP".equals(storage)) {
+            NavigableMap<Long, SpeedMeasurement> measurements = new TreeMap<>();
+            for (int i = 0; i < samples; i++) {
+                measurements.put(timestamp + i, new SpeedMeasurement(timestamp + i, i));
+            }
+            return measurements;
+        }
+        MeasurementWindow measurements;
+        if ("BUCKETED".equals(storage)) {
+            measurements = new BucketedMeasurementWindow(1000);
+        } else if ("COMPRESSED".equals(storage)) {
+            measurements = new CompressedMeasurementWindow();
+        } else {
+            measurements = new RingBufferMeasurementWindow();
+        }
+        for (int i = 0; i < samples; i++) {
+            measurements.put(timestamp + i, i);
+        }
+        return measurements;
+    }
+}
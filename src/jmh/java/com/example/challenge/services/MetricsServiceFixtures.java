@@ -0,0 +1,32 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.MeasurementRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark helpers needing package access to MetricsService, e.g. to load
+ * samples the request validation would reject as outdated.
+ */
+public final class MetricsServiceFixtures {
+
+    private MetricsServiceFixtures() {
+    }
+
+    /**
+     * Stores {@code samples} measurements evenly spaced between {@code from} and {@code to}.
+     */
+    public static void preload(MetricsService metricsService, Long lineId, long from, long to, int samples) {
+        List<MeasurementRequest> requests = new ArrayList<>(samples);
+        double step = (double) (to - from) / samples;
+        for (int i = 0; i < samples; i++) {
+            MeasurementRequest request = new MeasurementRequest();
+            request.setLineId(lineId);
+            request.setTimestamp(from + (long) (i * step));
+            request.setSpeed(100 + i % 50);
+            requests.add(request);
+        }
+        metricsService.addToLineWindow(lineId, requests);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.challenge.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import com.example.challenge.services.ClusterService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
+
+
+
+@RestController
+@RequestMapping("/api/cluster")
+@ConditionalOnProperty(name = "metrics.cluster.enabled", havingValue = "true")
+class ClusterController {
+
+	@Autowired
+	private ClusterService clusterService;
+
+    @GetMapping("/nodes")
+    public ResponseEntity<List<String>> getNodes() {
+    	return clusterService.getNodes();
+    }
+
+    @PutMapping("/nodes")
+    public ResponseEntity<List<String>> setNodes(@RequestBody List<String> nodes,
+    		@RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy) {
+    	return clusterService.setNodes(nodes, forwardedBy != null);
+    }
+
+    @PutMapping("/lines")
+    public ResponseEntity<Void> setLines(@RequestBody List<Long> lineIds) {
+    	return clusterService.setLines(lineIds);
+    }
+
+    @PostMapping(value = "/lines", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<List<Long>> adoptLines(HttpServletRequest request) throws IOException {
+    	return clusterService.adoptLines(request.getInputStream(), request.getContentLengthLong());
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.challenge.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.services.ClusterService;
+import com.example.challenge.services.MetricsService;
+import com.example.challenge.services.ShardedIngestService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+
+/**
+ * Routes the line requests of a cluster node (see {@link ClusterService}) before they reach
+ * the controllers: measurements and metrics of a line owned by another node are forwarded
+ * to it, batches are split by owner, {@code GET /api/metrics} merges the cached lines of
+ * every node and line registrations are applied on every node. Forwarded requests and
+ * everything else are served locally, including {@code /api/metrics/stream}: a subscriber
+ * only receives the lines owned by the node it is connected to.
+ */
+@Component
+@ConditionalOnProperty(name = "metrics.cluster.enabled", havingValue = "true")
+class ClusterRoutingFilter extends OncePerRequestFilter {
+
+	private static final Pattern LINE_METRICS = Pattern.compile("/api/metrics/(-?\\d+)(/windows|/history)?");
+	private static final Pattern LINE = Pattern.compile("/api/lines/(-?\\d+)");
+
+	private final ClusterService clusterService;
+	private final MetricsService metricService;
+	private final ObjectMapper objectMapper;
+	// only present when metrics.ingest.mode=sharded
+	@Autowired(required = false)
+	private ShardedIngestService shardedIngestService;
+
+	ClusterRoutingFilter(ClusterService clusterService, MetricsService metricService, ObjectMapper objectMapper) {
+		this.clusterService = clusterService;
+		this.metricService = metricService;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return request.getHeader(ClusterService.FORWARDED_HEADER) != null;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		String method = request.getMethod();
+		Matcher lineMetrics = LINE_METRICS.matcher(path);
+		Matcher line = LINE.matcher(path);
+		if ("POST".equals(method) && "/api/linespeed".equals(path)) {
+			addSpeedMeasurement(request, response, chain);
+		} else if ("POST".equals(method) && "/api/linespeed/batch".equals(path)) {
+			addSpeedMeasurements(request, response, chain);
+		} else if ("GET".equals(method) && "/api/metrics".equals(path)) {
+			getAllMetrics(request, response, chain);
+		} else if ("GET".equals(method) && lineMetrics.matches()) {
+			route(Long.parseLong(lineMetrics.group(1)), request, null, response, chain);
+		} else if (("PUT".equals(method) || "DELETE".equals(method)) && line.matches()) {
+			changeRegistration(Long.parseLong(line.group(1)), request, response);
+		} else {
+			chain.doFilter(request, response);
+		}
+	}
+
+	private void addSpeedMeasurement(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		byte[] body = request.getInputStream().readAllBytes();
+		Long lineId = null;
+		try {
+			lineId = objectMapper.readValue(body, MeasurementRequest.class).getLineId();
+		} catch (JsonProcessingException e) {
+			//answered by the controller
+		}
+		route(lineId, request, body, response, chain);
+	}
+
+	private void route(Long lineId, HttpServletRequest request, byte[] body, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		String owner = lineId == null ? null : clusterService.remoteOwnerOf(lineId);
+		if (owner == null) {
+			chain.doFilter(body == null ? request : new CachedBodyRequest(request, body), response);
+			return;
+		}
+		relay(clusterService.send(owner, request.getMethod(), pathAndQuery(request), body, request.getContentType()), response);
+	}
+
+	/**
+	 * Forwards the measurements of each remote owner in parallel and stores the local ones,
+	 * measurements of an unreachable node get BAD_GATEWAY.
+	 */
+	private void addSpeedMeasurements(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		byte[] body = request.getInputStream().readAllBytes();
+		List<MeasurementRequest> requests;
+		try {
+			requests = objectMapper.readValue(body, new TypeReference<List<MeasurementRequest>>() { });
+		} catch (JsonProcessingException e) {
+			chain.doFilter(new CachedBodyRequest(request, body), response);
+			return;
+		}
+		List<Integer> localIndexes = new ArrayList<>();
+		Map<String, List<Integer>> indexesByOwner = new HashMap<>();
+		for (int i = 0; i < requests.size(); i++) {
+			Long lineId = requests.get(i) == null ? null : requests.get(i).getLineId();
+			String owner = lineId == null ? null : clusterService.remoteOwnerOf(lineId);
+			if (owner == null) {
+				localIndexes.add(i);
+			} else {
+				indexesByOwner.computeIfAbsent(owner, k -> new ArrayList<>()).add(i);
+			}
+		}
+		if (indexesByOwner.isEmpty()) {
+			chain.doFilter(new CachedBodyRequest(request, body), response);
+			return;
+		}
+
+		Map<String, CompletableFuture<HttpResponse<byte[]>>> forwarded = new HashMap<>();
+		for (Map.Entry<String, List<Integer>> entry : indexesByOwner.entrySet()) {
+			byte[] part = objectMapper.writeValueAsBytes(select(requests, entry.getValue()));
+			forwarded.put(entry.getKey(), clusterService.send(entry.getKey(), "POST", pathAndQuery(request), part, MediaType.APPLICATION_JSON_VALUE));
+		}
+		int[] statuses = new int[requests.size()];
+		if (!localIndexes.isEmpty()) {
+			List<MeasurementRequest> localRequests = select(requests, localIndexes);
+			ResponseEntity<BatchMeasurementResponse> local = shardedIngestService != null
+					? shardedIngestService.addSpeedMeasurements(localRequests)
+					: metricService.addSpeedMeasurements(localRequests);
+			merge(statuses, localIndexes, local.getBody().getStatuses());
+		}
+		for (Map.Entry<String, List<Integer>> entry : indexesByOwner.entrySet()) {
+			int[] remote = null;
+			try {
+				HttpResponse<byte[]> answer = forwarded.get(entry.getKey()).join();
+				if (answer.statusCode() == HttpStatus.OK.value()) {
+					remote = objectMapper.treeToValue(objectMapper.readTree(answer.body()).get("statuses"), int[].class);
+				}
+			} catch (CompletionException | IOException e) {
+				logger.warn("Batch forwarding to " + entry.getKey() + " failed", e);
+			}
+			if (remote == null) {
+				remote = new int[entry.getValue().size()];
+				Arrays.fill(remote, HttpStatus.BAD_GATEWAY.value());
+			}
+			merge(statuses, entry.getValue(), remote);
+		}
+		write(response, HttpStatus.OK.value(), MediaType.APPLICATION_JSON_VALUE,
+				objectMapper.writeValueAsBytes(new BatchMeasurementResponse(statuses)));
+	}
+
+	/**
+	 * Lines of every node, see {@link ClusterService#getAllMetricsJson(String)}.
+	 */
+	private void getAllMetrics(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		if (clusterService.otherNodes().isEmpty()) {
+			chain.doFilter(request, response);
+			return;
+		}
+		ResponseEntity<byte[]> merged = clusterService.getAllMetricsJson(request.getHeader(HttpHeaders.IF_NONE_MATCH));
+		HttpHeaders headers = merged.getHeaders();
+		if (headers.getETag() != null) {
+			response.setHeader(HttpHeaders.ETAG, headers.getETag());
+			response.setHeader(HttpHeaders.CACHE_CONTROL, headers.getCacheControl());
+		}
+		MediaType contentType = headers.getContentType();
+		write(response, merged.getStatusCodeValue(), contentType == null ? null : contentType.toString(), merged.getBody());
+	}
+
+	/**
+	 * Every node knows every line, BAD_GATEWAY tells the change should be sent again.
+	 */
+	private void changeRegistration(long lineId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		boolean reached = clusterService.broadcast(clusterService.otherNodes(), request.getMethod(), pathAndQuery(request), null, null);
+		ResponseEntity<Void> local = "PUT".equals(request.getMethod())
+				? metricService.registerLine(lineId)
+				: metricService.deregisterLine(lineId);
+		int status = reached ? local.getStatusCodeValue() : HttpStatus.BAD_GATEWAY.value();
+		write(response, status, null, null);
+	}
+
+	private void relay(CompletableFuture<HttpResponse<byte[]>> forwarded, HttpServletResponse response) throws IOException {
+		HttpResponse<byte[]> answer;
+		try {
+			answer = forwarded.join();
+		} catch (CompletionException e) {
+			logger.warn("Forwarding failed", e.getCause());
+			write(response, HttpStatus.BAD_GATEWAY.value(), null, null);
+			return;
+		}
+		answer.headers().firstValue(HttpHeaders.ETAG).ifPresent(etag -> response.setHeader(HttpHeaders.ETAG, etag));
+		write(response, answer.statusCode(), answer.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null), answer.body());
+	}
+
+	private static void write(HttpServletResponse response, int status, String contentType, byte[] body) throws IOException {
+		response.setStatus(status);
+		if (contentType != null) {
+			response.setContentType(contentType);
+		}
+		if (body != null && body.length > 0) {
+			response.setContentLength(body.length);
+			response.getOutputStream().write(body);
+		}
+	}
+
+	private static String pathAndQuery(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return request.getQueryString() == null ? path : path + "?" + request.getQueryString();
+	}
+
+	private static List<MeasurementRequest> select(List<MeasurementRequest> requests, List<Integer> indexes) {
+		List<MeasurementRequest> selected = new ArrayList<>(indexes.size());
+		for (int index : indexes) {
+			selected.add(requests.get(index));
+		}
+		return selected;
+	}
+
+	private static void merge(int[] statuses, List<Integer> indexes, int[] partStatuses) {
+		for (int i = 0; i < indexes.size(); i++) {
+			statuses[indexes.get(i)] = partStatuses[i];
+		}
+	}
+
+	/**
+	 * Request whose body was already read by the filter.
+	 */
+	private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+		private final byte[] body;
+
+		CachedBodyRequest(HttpServletRequest request, byte[] body) {
+			super(request);
+			this.body = body;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+			ByteArrayInputStream in = new ByteArrayInputStream(body);
+			return new ServletInputStream() {
+				@Override
+				public int read() {
+					return in.read();
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) {
+					return in.read(buffer, offset, length);
+				}
+
+				@Override
+				public boolean isFinished() {
+					return in.available() == 0;
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setReadListener(ReadListener listener) {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public BufferedReader getReader() {
+			return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -1,14 +1,24 @@
 package com.example.challenge.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import com.example.challenge.dto.AggregatedMetricsResponse;
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.HistoryPointResponse;
+import com.example.challenge.dto.ImportResponse;
 import com.example.challenge.dto.MeasurementRequest;
 import com.example.challenge.dto.SpeedMetricsResponse;
 import com.example.challenge.services.MetricsService;
+import com.example.challenge.services.MetricsStreamService;
+import com.example.challenge.services.ShardedIngestService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 
@@ -20,19 +30,98 @@ class ControllerRest {
 	@Autowired
 	private MetricsService metricService;
 
+	@Autowired
+	private MetricsStreamService metricsStreamService;
+
+	// only present when metrics.ingest.mode=sharded
+	@Autowired(required = false)
+	private ShardedIngestService shardedIngestService;
+
     @PostMapping("/linespeed")
     public ResponseEntity<Void> addSpeedMeasurement(@RequestBody MeasurementRequest request) {
+    	if (shardedIngestService != null) {
+    		return shardedIngestService.addSpeedMeasurement(request);
+    	}
     	return metricService.addSpeedMeasurement(request);
     }
 
+    @PostMapping("/linespeed/batch")
+    public ResponseEntity<BatchMeasurementResponse> addSpeedMeasurements(@RequestBody List<MeasurementRequest> requests) {
+    	if (shardedIngestService != null) {
+    		return shardedIngestService.addSpeedMeasurements(requests);
+    	}
+    	return metricService.addSpeedMeasurements(requests);
+    }
+
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<ImportResponse> importCsv(InputStream body) throws IOException {
+    	return metricService.importMeasurements(body, true);
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<ImportResponse> importBinary(InputStream body) throws IOException {
+    	return metricService.importMeasurements(body, false);
+    }
+
+    @GetMapping(value = "/metrics/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamMetrics(@RequestParam(value = "lines", required = false) List<Long> lineIds,
+    		@RequestParam(value = "interval", required = false) String interval) {
+    	return metricsStreamService.subscribe(lineIds, interval);
+    }
+
 	@GetMapping("/metrics/{lineid}")
-    public ResponseEntity<SpeedMetricsResponse> getMetrics(@PathVariable("lineid") Long lineId) {
+    public ResponseEntity<SpeedMetricsResponse> getMetrics(@PathVariable("lineid") Long lineId,
+    		@RequestParam(value = "window", required = false) String window,
+    		@RequestParam(value = "percentiles", required = false) String percentiles,
+    		@RequestParam(value = "from", required = false) String from,
+    		@RequestParam(value = "to", required = false) String to) {
+		if (from != null || to != null) {
+			if (window != null || percentiles != null) {
+				//a range has no window and no percentiles
+				return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+			}
+			return metricService.getRangeMetrics(lineId, from, to);
+		}
+		if (percentiles != null) {
+			return metricService.getMetrics(lineId, window, percentiles);
+		}
+		if (window != null) {
+			return metricService.getMetrics(lineId, window);
+		}
 		return metricService.getMetrics(lineId);
     }
+
+	@GetMapping("/metrics/{lineid}/windows")
+    public ResponseEntity<Map<String, SpeedMetricsResponse>> getWindowMetrics(@PathVariable("lineid") Long lineId) {
+		return metricService.getWindowMetrics(lineId);
+    }
+
+	@GetMapping("/metrics/{lineid}/history")
+    public ResponseEntity<List<HistoryPointResponse>> getHistory(@PathVariable("lineid") Long lineId,
+    		@RequestParam(value = "from", required = false) String from,
+    		@RequestParam(value = "to", required = false) String to,
+    		@RequestParam(value = "resolution", required = false) String resolution) {
+		return metricService.getHistory(lineId, from, to, resolution);
+    }
 	
     @GetMapping("/metrics")
-    public ResponseEntity<List<AggregatedMetricsResponse>> getAllMetrics() {
-    	return metricService.getAllMetrics();
+    public ResponseEntity<byte[]> getAllMetrics(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    	return metricService.getAllMetricsJson(ifNoneMatch);
+    }
+
+    @GetMapping("/lines")
+    public ResponseEntity<List<Long>> getLines() {
+    	return metricService.getLines();
+    }
+
+    @PutMapping("/lines/{lineid}")
+    public ResponseEntity<Void> registerLine(@PathVariable("lineid") Long lineId) {
+    	return metricService.registerLine(lineId);
+    }
+
+    @DeleteMapping("/lines/{lineid}")
+    public ResponseEntity<Void> deregisterLine(@PathVariable("lineid") Long lineId) {
+    	return metricService.deregisterLine(lineId);
     }
     
 
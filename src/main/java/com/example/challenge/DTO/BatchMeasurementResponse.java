@@ -0,0 +1,65 @@
+package com.example.challenge.dto;
+
+import java.util.Arrays;
+
+public class BatchMeasurementResponse {
+    private final int created;
+    // queued for storage with metrics.ingest.mode=sharded
+    private final int accepted;
+    private final int outdated;
+    private final int unknownLine;
+    // status of each measurement in request order, same codes as POST /api/linespeed
+    private final int[] statuses;
+
+    public BatchMeasurementResponse(int[] statuses) {
+        this.statuses = statuses;
+        int created = 0;
+        int accepted = 0;
+        int outdated = 0;
+        int unknownLine = 0;
+        for (int status : statuses) {
+            if (status == 201) {
+                created++;
+            } else if (status == 202) {
+                accepted++;
+            } else if (status == 204) {
+                outdated++;
+            } else if (status == 404) {
+                unknownLine++;
+            }
+        }
+        this.created = created;
+        this.accepted = accepted;
+        this.outdated = outdated;
+        this.unknownLine = unknownLine;
+    }
+
+    public int getCreated() {
+    	return created;
+    }
+    public int getAccepted() {
+    	return accepted;
+    }
+    public int getOutdated() {
+    	return outdated;
+    }
+    public int getUnknownLine() {
+    	return unknownLine;
+    }
+    public int[] getStatuses() {
+    	return statuses;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BatchMeasurementResponse that = (BatchMeasurementResponse) o;
+        return Arrays.equals(statuses, that.statuses);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(statuses);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.challenge.dto;
+
+import java.util.Objects;
+
+public class HistoryPointResponse {
+    private final long timestamp;
+    private final double avg;
+    private final double max;
+    private final double min;
+
+    public HistoryPointResponse(long timestamp, double avg, double max, double min) {
+        this.timestamp = timestamp;
+        this.avg = avg;
+        this.max = max;
+        this.min = min;
+    }
+
+    public long getTimestamp() {
+    	return timestamp;
+    }
+    public double getAvg() {
+    	return avg;
+    }
+    public double getMax() {
+    	return max;
+    }
+    public double getMin() {
+    	return min;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HistoryPointResponse that = (HistoryPointResponse) o;
+        return timestamp == that.timestamp &&
+                Double.compare(that.avg, avg) == 0 &&
+                Double.compare(that.max, max) == 0 &&
+                Double.compare(that.min, min) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timestamp, avg, max, min);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.challenge.dto;
+
+import java.util.Objects;
+
+public class ImportResponse {
+    private final long imported;
+    private final long outdated;
+    private final long unknownLine;
+    private final long malformed;
+    // refused by the reorder tolerance or the duplicate policy
+    private final long rejected;
+    private final int lines;
+    // time from the first byte read to the metrics of every line being published
+    private final long durationMillis;
+
+    public ImportResponse(long imported, long outdated, long unknownLine, long malformed, long rejected, int lines, long durationMillis) {
+        this.imported = imported;
+        this.outdated = outdated;
+        this.unknownLine = unknownLine;
+        this.malformed = malformed;
+        this.rejected = rejected;
+        this.lines = lines;
+        this.durationMillis = durationMillis;
+    }
+
+    public long getImported() {
+    	return imported;
+    }
+    public long getOutdated() {
+    	return outdated;
+    }
+    public long getUnknownLine() {
+    	return unknownLine;
+    }
+    public long getMalformed() {
+    	return malformed;
+    }
+    public long getRejected() {
+    	return rejected;
+    }
+    public int getLines() {
+    	return lines;
+    }
+    public long getDurationMillis() {
+    	return durationMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ImportResponse that = (ImportResponse) o;
+        return imported == that.imported && outdated == that.outdated && unknownLine == that.unknownLine
+                && malformed == that.malformed && rejected == that.rejected && lines == that.lines;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(imported, outdated, unknownLine, malformed, rejected, lines);
+    }
+}
@@ -1,16 +1,27 @@
 package com.example.challenge.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
 import java.util.Objects;
 
 public class SpeedMetricsResponse {
     private final double avg;
     private final double max;
     private final double min;
+    // e.g. p50, p99.9, only when requested
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Map<String, Double> percentiles;
 
     public SpeedMetricsResponse(double avg, double max, double min) {
+        this(avg, max, min, null);
+    }
+
+    public SpeedMetricsResponse(double avg, double max, double min, Map<String, Double> percentiles) {
         this.avg = avg;
         this.max = max;
         this.min = min;
+        this.percentiles = percentiles;
     }
 
     // Getters
@@ -23,6 +34,9 @@ public class SpeedMetricsResponse {
     public double getMin() {
     	return min; 
     }
+    public Map<String, Double> getPercentiles() {
+    	return percentiles;
+    }
     
     @Override
     public boolean equals(Object o) {
@@ -31,11 +45,12 @@ public class SpeedMetricsResponse {
         SpeedMetricsResponse that = (SpeedMetricsResponse) o;
         return Double.compare(that.avg, avg) == 0 &&
                 Double.compare(that.max, max) == 0 &&
-                Double.compare(that.min, min) == 0;
+                Double.compare(that.min, min) == 0 &&
+                Objects.equals(that.percentiles, percentiles);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(avg, max, min);
+        return Objects.hash(avg, max, min, percentiles);
     }
 }
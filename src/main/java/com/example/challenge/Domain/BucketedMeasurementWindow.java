@@ -0,0 +1,230 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * {@link MeasurementWindow} pre-aggregating the samples of a line into fixed width
+ * time buckets, so memory and rebuild cost depend on the window length instead of
+ * the ingest rate (3600 entries for a 60 minute window of 1 second buckets).
+ * <p>
+ * A bucket is stored as one entry at the timestamp of its newest sample, with the
+ * time weighted mean speed of its samples and their min and max. The mean weights
+ * each sample by the time elapsed since the previous sample, the previous bucket
+ * included, so the weighted sum of every entry but the oldest one matches the raw
+ * samples exactly. The difference with the raw samples is limited to the oldest
+ * bucket of a window:
+ * <ul>
+ * <li>the interval between the window start and that bucket is weighted with the
+ * bucket mean instead of its first covered sample, so the average differs by at most
+ * {@code (bucketMax - bucketMin) * (bucketTimestamp - windowStart) / window}; when the
+ * line reported at least once per bucket over the whole window that is
+ * {@code 2 * bucket / window} of the bucket speed range (0.06% of it for 1 second
+ * buckets over 60 minutes);</li>
+ * <li>min and max may include samples of that bucket up to one bucket older than the window.</li>
+ * </ul>
+ * Late samples falling in a stored bucket only update its min and max.
+ */
+public class BucketedMeasurementWindow implements MeasurementWindow {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long bucketMillis;
+    private long[] timestamps;
+    private double[] speeds;
+    private double[] mins;
+    private double[] maxs;
+    private int head = 0;
+    private int size = 0;
+    // time covered by the mean of the newest bucket
+    private long lastDuration = 0;
+
+    public BucketedMeasurementWindow(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive: " + bucketMillis);
+        }
+        this.bucketMillis = bucketMillis;
+        timestamps = new long[INITIAL_CAPACITY];
+        speeds = new double[INITIAL_CAPACITY];
+        mins = new double[INITIAL_CAPACITY];
+        maxs = new double[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return timestamps[physical(index)];
+    }
+
+    @Override
+    public double speedAt(int index) {
+        return speeds[physical(index)];
+    }
+
+    @Override
+    public double minAt(int index) {
+        return mins[physical(index)];
+    }
+
+    @Override
+    public double maxAt(int index) {
+        return maxs[physical(index)];
+    }
+
+    /**
+     * Merges the sample into its bucket. A sample newer than every stored one moves
+     * the newest bucket to its timestamp, or opens a new bucket.
+     */
+    @Override
+    public void put(long timestamp, double speed) {
+        long bucket = bucketOf(timestamp);
+        if (size == 0) {
+            append(timestamp, speed);
+            lastDuration = 0;
+            return;
+        }
+        long last = lastTimestamp();
+        if (timestamp > last) {
+            long gap = timestamp - last;
+            if (bucketOf(last) == bucket) {
+                int tail = physical(size - 1);
+                speeds[tail] = (speeds[tail] * lastDuration + speed * gap) / (lastDuration + gap);
+                timestamps[tail] = timestamp;
+                fold(tail, speed);
+                lastDuration += gap;
+            } else {
+                append(timestamp, speed);
+                lastDuration = gap;
+            }
+            return;
+        }
+        int index = search(bucket);
+        if (index >= 0) {
+            fold(physical(index), speed);
+            return;
+        }
+        insertAt(-(index + 1), timestamp, speed);
+    }
+
+    @Override
+    public void restore(long timestamp, double speed, double min, double max) {
+        if (size > 0 && timestamp <= lastTimestamp()) {
+            put(timestamp, speed);
+            return;
+        }
+        long previous = size == 0 ? timestamp : lastTimestamp();
+        append(timestamp, speed);
+        int tail = physical(size - 1);
+        mins[tail] = min;
+        maxs[tail] = max;
+        lastDuration = timestamp - previous;
+    }
+
+    @Override
+    public void removeFirst() {
+        if (size == 0) {
+            return;
+        }
+        head = physical(1);
+        size--;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    private long bucketOf(long timestamp) {
+        return Math.floorDiv(timestamp, bucketMillis);
+    }
+
+    private void fold(int slot, double speed) {
+        mins[slot] = Math.min(mins[slot], speed);
+        maxs[slot] = Math.max(maxs[slot], speed);
+    }
+
+    private void append(long timestamp, double speed) {
+        if (size == timestamps.length) {
+            grow();
+        }
+        set(physical(size), timestamp, speed);
+        size++;
+    }
+
+    private void insertAt(int index, long timestamp, double speed) {
+        if (size == timestamps.length) {
+            grow();
+        }
+        for (int i = size; i > index; i--) {
+            int to = physical(i);
+            int from = physical(i - 1);
+            timestamps[to] = timestamps[from];
+            speeds[to] = speeds[from];
+            mins[to] = mins[from];
+            maxs[to] = maxs[from];
+        }
+        set(physical(index), timestamp, speed);
+        size++;
+    }
+
+    private void set(int slot, long timestamp, double speed) {
+        timestamps[slot] = timestamp;
+        speeds[slot] = speed;
+        mins[slot] = speed;
+        maxs[slot] = speed;
+    }
+
+    // same contract as Arrays.binarySearch over the logical indexes, by bucket
+    private int search(long bucket) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midBucket = bucketOf(timestampAt(mid));
+            if (midBucket < bucket) {
+                low = mid + 1;
+            } else if (midBucket > bucket) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int physical(int index) {
+        int position = head + index;
+        return position < timestamps.length ? position : position - timestamps.length;
+    }
+
+    private void grow() {
+        timestamps = unwrap(timestamps);
+        speeds = unwrap(speeds);
+        mins = unwrap(mins);
+        maxs = unwrap(maxs);
+    }
+
+    private long[] unwrap(long[] array) {
+        long[] grown = Arrays.copyOf(array, array.length * 2);
+        // move the part of the ring that sits before the head after the end
+        int wrapped = head + size - array.length;
+        if (wrapped > 0) {
+            System.arraycopy(array, 0, grown, array.length, wrapped);
+        }
+        return grown;
+    }
+
+    private double[] unwrap(double[] array) {
+        double[] grown = Arrays.copyOf(array, array.length * 2);
+        int wrapped = head + size - array.length;
+        if (wrapped > 0) {
+            System.arraycopy(array, 0, grown, array.length, wrapped);
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * Immutable run of samples encoded like the Gorilla time series store: each timestamp as the
+ * change of its delta to the previous one with a variable length prefix, each speed as the
+ * XOR with the previous speed keeping only its meaningful bits. A steady sampling rate costs
+ * one bit per timestamp and an unchanged speed one bit; decoding is sequential.
+ */
+final class CompressedBlock {
+
+    final long firstTimestamp;
+    final long lastTimestamp;
+    final int count;
+    private final long[] bits;
+
+    private CompressedBlock(long firstTimestamp, long lastTimestamp, int count, long[] bits) {
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.count = count;
+        this.bits = bits;
+    }
+
+    /**
+     * Encodes {@code count} samples from {@code from}, in timestamp order.
+     */
+    static CompressedBlock encode(long[] timestamps, double[] speeds, int from, int count) {
+        BitWriter writer = new BitWriter(count);
+        long previousTimestamp = timestamps[from];
+        long previousDelta = 0;
+        long previousSpeed = Double.doubleToRawLongBits(speeds[from]);
+        int leading = -1;
+        int trailing = 0;
+        writer.write(previousSpeed, 64);
+        for (int i = from + 1; i < from + count; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                writer.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                writer.write(0b10, 2);
+                writer.write(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                writer.write(0b110, 3);
+                writer.write(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                writer.write(0b1110, 4);
+                writer.write(deltaOfDelta + 2047, 12);
+            } else {
+                writer.write(0b1111, 4);
+                writer.write(deltaOfDelta, 64);
+            }
+            previousTimestamp = timestamps[i];
+            previousDelta = delta;
+
+            long speed = Double.doubleToRawLongBits(speeds[i]);
+            long xor = speed ^ previousSpeed;
+            if (xor == 0) {
+                writer.write(0, 1);
+            } else {
+                int xorLeading = Long.numberOfLeadingZeros(xor);
+                int xorTrailing = Long.numberOfTrailingZeros(xor);
+                if (leading >= 0 && xorLeading >= leading && xorTrailing >= trailing) {
+                    // fits the meaningful bits of the previous XOR
+                    writer.write(0b10, 2);
+                    writer.write(xor >>> trailing, 64 - leading - trailing);
+                } else {
+                    leading = xorLeading;
+                    trailing = xorTrailing;
+                    int meaningful = 64 - leading - trailing;
+                    writer.write(0b11, 2);
+                    writer.write(leading, 6);
+                    writer.write(meaningful - 1, 6);
+                    writer.write(xor >>> trailing, meaningful);
+                }
+            }
+            previousSpeed = speed;
+        }
+        return new CompressedBlock(timestamps[from], previousTimestamp, count, writer.toArray());
+    }
+
+    /**
+     * Decodes the samples into {@code [0, count)} of the arrays.
+     */
+    void decode(long[] timestamps, double[] speeds) {
+        BitReader reader = new BitReader(bits);
+        long timestamp = firstTimestamp;
+        long delta = 0;
+        long speed = reader.read(64);
+        int leading = 0;
+        int trailing = 0;
+        timestamps[0] = timestamp;
+        speeds[0] = Double.longBitsToDouble(speed);
+        for (int i = 1; i < count; i++) {
+            if (reader.read(1) != 0) {
+                if (reader.read(1) == 0) {
+                    delta += reader.read(7) - 63;
+                } else if (reader.read(1) == 0) {
+                    delta += reader.read(9) - 255;
+                } else if (reader.read(1) == 0) {
+                    delta += reader.read(12) - 2047;
+                } else {
+                    delta += reader.read(64);
+                }
+            }
+            timestamp += delta;
+            timestamps[i] = timestamp;
+
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    leading = (int) reader.read(6);
+                    trailing = 64 - leading - ((int) reader.read(6) + 1);
+                }
+                speed ^= reader.read(64 - leading - trailing) << trailing;
+            }
+            speeds[i] = Double.longBitsToDouble(speed);
+        }
+    }
+
+    /**
+     * Retained bytes of the encoded samples, without the object headers.
+     */
+    int encodedBytes() {
+        return bits.length * Long.BYTES;
+    }
+
+    private static final class BitWriter {
+        private long[] words;
+        private int position = 0;
+
+        BitWriter(int samples) {
+            // about two bits per steady sample
+            words = new long[2 + samples / 32];
+        }
+
+        void write(long value, int length) {
+            int word = position >>> 6;
+            int free = 64 - (position & 63);
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            if (length < 64) {
+                value &= (1L << length) - 1;
+            }
+            if (length <= free) {
+                words[word] |= value << (free - length);
+            } else {
+                words[word] |= value >>> (length - free);
+                words[word + 1] |= value << (64 - (length - free));
+            }
+            position += length;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private int position = 0;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int length) {
+            int word = position >>> 6;
+            int free = 64 - (position & 63);
+            long value;
+            if (length <= free) {
+                value = words[word] >>> (free - length);
+            } else {
+                value = words[word] << (length - free) | words[word + 1] >>> (64 - (length - free));
+            }
+            position += length;
+            return length < 64 ? value & ((1L << length) - 1) : value;
+        }
+    }
+}
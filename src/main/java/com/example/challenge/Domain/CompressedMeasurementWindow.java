@@ -0,0 +1,307 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * {@link MeasurementWindow} keeping its samples in sealed {@link CompressedBlock}s of
+ * {@link #BLOCK_SIZE} samples plus an uncompressed head with the newest ones, sealed once full.
+ * <p>
+ * Indexed reads decode a whole block into a small per thread cache of decoded blocks, keyed by
+ * identity since a sealed block never changes, so the sequential accesses of the metrics
+ * (eviction cursors, rebuilds) decode each block once. {@link #forEach} decodes block by block
+ * without the cache. Evictions drop whole blocks once every sample of the oldest one is gone;
+ * a late sample re-encodes the block it falls in.
+ */
+public class CompressedMeasurementWindow implements MeasurementWindow {
+    static final int BLOCK_SIZE = 128;
+    private static final int INITIAL_HEAD_CAPACITY = 8;
+    private static final ThreadLocal<DecodedBlocks> DECODED = ThreadLocal.withInitial(DecodedBlocks::new);
+
+    private CompressedBlock[] blocks = new CompressedBlock[4];
+    // entries of blocks[0..k] included, counted from the start of blocks[0]
+    private int[] ends = new int[4];
+    private int blockCount = 0;
+    // entries of blocks[0] already removed
+    private int removed = 0;
+    private long[] headTimestamps = new long[INITIAL_HEAD_CAPACITY];
+    private double[] headSpeeds = new double[INITIAL_HEAD_CAPACITY];
+    private int headSize = 0;
+
+    @Override
+    public int size() {
+        return sealedSize() + headSize;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        int sealed = sealedSize();
+        if (index >= sealed) {
+            return headTimestamps[index - sealed];
+        }
+        int position = index + removed;
+        int block = blockOf(position);
+        return DECODED.get().timestamps(blocks[block], position - start(block));
+    }
+
+    @Override
+    public double speedAt(int index) {
+        int sealed = sealedSize();
+        if (index >= sealed) {
+            return headSpeeds[index - sealed];
+        }
+        int position = index + removed;
+        int block = blockOf(position);
+        return DECODED.get().speeds(blocks[block], position - start(block));
+    }
+
+    @Override
+    public long lastTimestamp() {
+        return headSize > 0 ? headTimestamps[headSize - 1] : blocks[blockCount - 1].lastTimestamp;
+    }
+
+    @Override
+    public int indexOf(long timestamp) {
+        int sealed = sealedSize();
+        if (headSize > 0 && (sealed == 0 || timestamp > blocks[blockCount - 1].lastTimestamp)) {
+            int index = Arrays.binarySearch(headTimestamps, 0, headSize, timestamp);
+            return index >= 0 ? sealed + index : index - sealed;
+        }
+        if (sealed == 0) {
+            return -1;
+        }
+        // first block ending at or after the timestamp, the last one if none does
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blocks[mid].lastTimestamp < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int first = low == 0 ? removed : 0;
+        long[] timestamps = DECODED.get().decoded(blocks[low]).timestamps;
+        int index = Arrays.binarySearch(timestamps, first, blocks[low].count, timestamp);
+        int offset = start(low) - removed;
+        return index >= 0 ? offset + index : index - offset;
+    }
+
+    @Override
+    public void put(long timestamp, double speed) {
+        if (headSize == BLOCK_SIZE) {
+            seal();
+        }
+        if (size() == 0 || timestamp > lastTimestamp()) {
+            insertInHead(headSize, timestamp, speed);
+            return;
+        }
+        int index = indexOf(timestamp);
+        int sealed = sealedSize();
+        int position = index >= 0 ? index : -(index + 1);
+        if (position > sealed || position == sealed && headSize > 0) {
+            if (index >= 0) {
+                headSpeeds[index - sealed] = speed;
+            } else {
+                insertInHead(position - sealed, timestamp, speed);
+            }
+            return;
+        }
+        // before the head: re-encode the block holding the position
+        rewrite(blockOf(position + removed), timestamp, speed, index >= 0);
+    }
+
+    @Override
+    public void removeFirst() {
+        if (blockCount == 0) {
+            System.arraycopy(headTimestamps, 1, headTimestamps, 0, headSize - 1);
+            System.arraycopy(headSpeeds, 1, headSpeeds, 0, headSize - 1);
+            headSize--;
+            return;
+        }
+        removed++;
+        if (removed == blocks[0].count) {
+            removeBlock(0);
+            removed = 0;
+        }
+    }
+
+    /**
+     * Passes every entry from {@code from} on to the consumer, decoding each block once.
+     */
+    @Override
+    public void forEach(int from, EntryConsumer consumer) {
+        DecodedBlocks decoded = DECODED.get();
+        int position = from + removed;
+        for (int block = blockCount == 0 ? 0 : blockOf(Math.min(position, ends[blockCount - 1] - 1));
+                block < blockCount && position < ends[block]; block++) {
+            blocks[block].decode(decoded.scanTimestamps, decoded.scanSpeeds);
+            for (int i = position - start(block); i < blocks[block].count; i++) {
+                double speed = decoded.scanSpeeds[i];
+                consumer.accept(decoded.scanTimestamps[i], speed, speed, speed);
+            }
+            position = ends[block];
+        }
+        for (int i = Math.max(0, from - sealedSize()); i < headSize; i++) {
+            consumer.accept(headTimestamps[i], headSpeeds[i], headSpeeds[i], headSpeeds[i]);
+        }
+    }
+
+    /**
+     * Retained bytes of the encoded blocks and of the head arrays, without object headers.
+     */
+    public long encodedBytes() {
+        long bytes = (long) headTimestamps.length * (Long.BYTES + Double.BYTES);
+        for (int i = 0; i < blockCount; i++) {
+            bytes += blocks[i].encodedBytes();
+        }
+        return bytes;
+    }
+
+    private int sealedSize() {
+        return blockCount == 0 ? 0 : ends[blockCount - 1] - removed;
+    }
+
+    private int start(int block) {
+        return block == 0 ? 0 : ends[block - 1];
+    }
+
+    // block holding the position counted from the start of blocks[0]
+    private int blockOf(int position) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void insertInHead(int index, long timestamp, double speed) {
+        if (headSize == headTimestamps.length) {
+            headTimestamps = Arrays.copyOf(headTimestamps, Math.min(BLOCK_SIZE, headSize * 2));
+            headSpeeds = Arrays.copyOf(headSpeeds, headTimestamps.length);
+        }
+        System.arraycopy(headTimestamps, index, headTimestamps, index + 1, headSize - index);
+        System.arraycopy(headSpeeds, index, headSpeeds, index + 1, headSize - index);
+        headTimestamps[index] = timestamp;
+        headSpeeds[index] = speed;
+        headSize++;
+    }
+
+    private void seal() {
+        insertBlock(blockCount, CompressedBlock.encode(headTimestamps, headSpeeds, 0, headSize));
+        headSize = 0;
+    }
+
+    /**
+     * Re-encodes a block with a sample stored or replaced, in two blocks if it overflows.
+     * The removed entries of the oldest block are dropped on the way.
+     */
+    private void rewrite(int block, long timestamp, double speed, boolean replace) {
+        CompressedBlock old = blocks[block];
+        long[] timestamps = new long[old.count + 1];
+        double[] speeds = new double[old.count + 1];
+        old.decode(timestamps, speeds);
+        int first = block == 0 ? removed : 0;
+        int index = Arrays.binarySearch(timestamps, first, old.count, timestamp);
+        int count = old.count;
+        if (replace) {
+            speeds[index] = speed;
+        } else {
+            index = -(index + 1);
+            System.arraycopy(timestamps, index, timestamps, index + 1, count - index);
+            System.arraycopy(speeds, index, speeds, index + 1, count - index);
+            timestamps[index] = timestamp;
+            speeds[index] = speed;
+            count++;
+        }
+        removeBlock(block);
+        if (block == 0) {
+            removed = 0;
+        }
+        int live = count - first;
+        int split = Math.min(live, BLOCK_SIZE);
+        insertBlock(block, CompressedBlock.encode(timestamps, speeds, first, split));
+        if (live > split) {
+            insertBlock(block + 1, CompressedBlock.encode(timestamps, speeds, first + split, live - split));
+        }
+    }
+
+    private void insertBlock(int index, CompressedBlock block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            ends = Arrays.copyOf(ends, blockCount * 2);
+        }
+        System.arraycopy(blocks, index, blocks, index + 1, blockCount - index);
+        System.arraycopy(ends, index, ends, index + 1, blockCount - index);
+        blocks[index] = block;
+        blockCount++;
+        for (int i = index; i < blockCount; i++) {
+            ends[i] = start(i) + blocks[i].count;
+        }
+    }
+
+    private void removeBlock(int index) {
+        int count = blocks[index].count;
+        System.arraycopy(blocks, index + 1, blocks, index, blockCount - index - 1);
+        System.arraycopy(ends, index + 1, ends, index, blockCount - index - 1);
+        blockCount--;
+        blocks[blockCount] = null;
+        for (int i = index; i < blockCount; i++) {
+            ends[i] -= count;
+        }
+    }
+
+    /**
+     * Least recently used decoded blocks of a thread.
+     */
+    private static final class DecodedBlocks {
+        private static final int SLOTS = 8;
+
+        private final CompressedBlock[] keys = new CompressedBlock[SLOTS];
+        private final Decoded[] values = new Decoded[SLOTS];
+        private final long[] used = new long[SLOTS];
+        private long clock = 0;
+        // decoded by forEach, outside the cache
+        final long[] scanTimestamps = new long[BLOCK_SIZE];
+        final double[] scanSpeeds = new double[BLOCK_SIZE];
+
+        long timestamps(CompressedBlock block, int index) {
+            return decoded(block).timestamps[index];
+        }
+
+        double speeds(CompressedBlock block, int index) {
+            return decoded(block).speeds[index];
+        }
+
+        Decoded decoded(CompressedBlock block) {
+            int victim = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (keys[slot] == block) {
+                    used[slot] = ++clock;
+                    return values[slot];
+                }
+                if (used[slot] < used[victim]) {
+                    victim = slot;
+                }
+            }
+            if (values[victim] == null) {
+                values[victim] = new Decoded();
+            }
+            block.decode(values[victim].timestamps, values[victim].speeds);
+            keys[victim] = block;
+            used[victim] = ++clock;
+            return values[victim];
+        }
+    }
+
+    private static final class Decoded {
+        final long[] timestamps = new long[BLOCK_SIZE];
+        final double[] speeds = new double[BLOCK_SIZE];
+    }
+}
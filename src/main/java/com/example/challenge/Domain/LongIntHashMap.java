@@ -0,0 +1,122 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to int values, so lookups
+ * do not box the key. {@link Long#MIN_VALUE} is reserved to mark free buckets.
+ */
+public class LongIntHashMap {
+    public static final long FREE_KEY = Long.MIN_VALUE;
+    public static final int NO_VALUE = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE_KEY);
+    }
+
+    public LongIntHashMap(LongIntHashMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(long key) {
+        if (key == FREE_KEY) {
+            return NO_VALUE;
+        }
+        int mask = keys.length - 1;
+        for (int i = bucket(key, mask); ; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == key) {
+                return values[i];
+            }
+            if (current == FREE_KEY) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    public void put(long key, int value) {
+        if (key == FREE_KEY) {
+            throw new IllegalArgumentException("Key " + key + " is reserved");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        for (int i = bucket(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            if (keys[i] == FREE_KEY) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return;
+            }
+        }
+    }
+
+    public int remove(long key) {
+        if (key == FREE_KEY) {
+            return NO_VALUE;
+        }
+        int mask = keys.length - 1;
+        int i = bucket(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == FREE_KEY) {
+                return NO_VALUE;
+            }
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+        // backward shift deletion keeps probe sequences intact without tombstones
+        int free = i;
+        for (int j = (i + 1) & mask; keys[j] != FREE_KEY; j = (j + 1) & mask) {
+            int home = bucket(keys[j], mask);
+            if (((j - home) & mask) >= ((j - free) & mask)) {
+                keys[free] = keys[j];
+                values[free] = values[j];
+                free = j;
+            }
+        }
+        keys[free] = FREE_KEY;
+        size--;
+        return removed;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int bucket(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
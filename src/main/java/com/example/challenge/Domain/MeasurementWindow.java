@@ -0,0 +1,88 @@
+package com.example.challenge.domain;
+
+/**
+ * Time ordered storage of the speed measurements of a line.
+ * Index 0 is always the oldest sample and {@code size() - 1} the latest one.
+ */
+public interface MeasurementWindow {
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    long timestampAt(int index);
+
+    double speedAt(int index);
+
+    /**
+     * Lowest speed folded into the entry, the entry speed unless samples are pre-aggregated.
+     */
+    default double minAt(int index) {
+        return speedAt(index);
+    }
+
+    default double maxAt(int index) {
+        return speedAt(index);
+    }
+
+    /**
+     * Binary search of a stored timestamp.
+     * @return its index, or {@code -(insertion point) - 1} like {@link java.util.Arrays#binarySearch}
+     */
+    default int indexOf(long timestamp) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midTimestamp = timestampAt(mid);
+            if (midTimestamp < timestamp) {
+                low = mid + 1;
+            } else if (midTimestamp > timestamp) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    default long firstTimestamp() {
+        return timestampAt(0);
+    }
+
+    default long lastTimestamp() {
+        return timestampAt(size() - 1);
+    }
+
+    /**
+     * Stores the measurement keeping the window ordered by timestamp.
+     * A measurement with an already stored timestamp replaces the previous one.
+     */
+    void put(long timestamp, double speed);
+
+    /**
+     * Stores an entry read back from a snapshot, entries are restored in timestamp order.
+     */
+    default void restore(long timestamp, double speed, double min, double max) {
+        put(timestamp, speed);
+    }
+
+    void removeFirst();
+
+    /**
+     * Passes the entries from {@code from} on to the consumer in order, the sequential
+     * alternative to indexed reads for storages that decode their entries.
+     */
+    default void forEach(int from, EntryConsumer consumer) {
+        for (int i = from; i < size(); i++) {
+            consumer.accept(timestampAt(i), speedAt(i), minAt(i), maxAt(i));
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long timestamp, double speed, double min, double max);
+    }
+}
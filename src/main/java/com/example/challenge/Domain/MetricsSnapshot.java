@@ -0,0 +1,124 @@
+package com.example.challenge.domain;
+
+/**
+ * Immutable view of the metrics of a line, published by writers after every
+ * update so readers never have to take the line lock. Holds one entry per
+ * time window, sorted from the shortest to the longest (retention) window;
+ * the plain getters refer to the retention window.
+ */
+public final class MetricsSnapshot {
+    private final long[] timeWindows;
+    private final double[] avg;
+    private final double[] max;
+    private final double[] min;
+    private final int[] sampleCounts;
+    private final long[] oldestTimestamps;
+    private final long latestTimestamp;
+
+    private MetricsSnapshot(int windowCount, long latestTimestamp) {
+        this.timeWindows = new long[windowCount];
+        this.avg = new double[windowCount];
+        this.max = new double[windowCount];
+        this.min = new double[windowCount];
+        this.sampleCounts = new int[windowCount];
+        this.oldestTimestamps = new long[windowCount];
+        this.latestTimestamp = latestTimestamp;
+    }
+
+    public static MetricsSnapshot of(MultiWindowMetrics metrics, MeasurementWindow measurements) {
+        MetricsSnapshot snapshot = new MetricsSnapshot(metrics.windowCount(), measurements.lastTimestamp());
+        for (int i = 0; i < metrics.windowCount(); i++) {
+            snapshot.set(i, metrics.window(i));
+        }
+        return snapshot;
+    }
+
+    private void set(int index, RollingMetrics metrics) {
+        timeWindows[index] = metrics.getTimeWindow();
+        avg[index] = metrics.getWeightedAverage();
+        max[index] = metrics.getMax();
+        min[index] = metrics.getMin();
+        sampleCounts[index] = metrics.getSampleCount();
+        oldestTimestamps[index] = metrics.getOldestTimestamp();
+    }
+
+    public double getAvg() {
+    	return avg[retention()];
+    }
+
+    public double getMax() {
+    	return max[retention()];
+    }
+
+    public double getMin() {
+    	return min[retention()];
+    }
+
+    public long getOldestTimestamp() {
+    	return oldestTimestamps[retention()];
+    }
+
+    public long getLatestTimestamp() {
+    	return latestTimestamp;
+    }
+
+    public int windowCount() {
+    	return timeWindows.length;
+    }
+
+    public long getTimeWindow(int window) {
+    	return timeWindows[window];
+    }
+
+    /**
+     * @return the index of the window of the given length or -1
+     */
+    public int indexOf(long timeWindow) {
+        for (int i = 0; i < timeWindows.length; i++) {
+            if (timeWindows[i] == timeWindow) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isEmpty(int window) {
+    	return sampleCounts[window] == 0;
+    }
+
+    public double getAvg(int window) {
+    	return avg[window];
+    }
+
+    public double getMax(int window) {
+    	return max[window];
+    }
+
+    public double getMin(int window) {
+    	return min[window];
+    }
+
+    /**
+     * Time at which the oldest sample of some window leaves it.
+     */
+    public long nextExpiry() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < timeWindows.length; i++) {
+            if (sampleCounts[i] > 0) {
+                next = Math.min(next, oldestTimestamps[i] + timeWindows[i]);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * True when the oldest sample some window was computed with left that window.
+     */
+    public boolean isStale(long now) {
+        return now > nextExpiry();
+    }
+
+    private int retention() {
+        return timeWindows.length - 1;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.challenge.domain;
+
+/**
+ * Sliding window extremum tracker. Samples are offered in timestamp order and
+ * evicted from the front; the head always holds the window min (or max). A late
+ * sample can be inserted, shifting the newer elements.
+ * Backed by primitive ring buffers so it does not allocate per sample.
+ */
+public class MonotonicDeque {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean keepMin;
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] speeds = new double[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+
+    public MonotonicDeque(boolean keepMin) {
+        this.keepMin = keepMin;
+    }
+
+    public void offer(long timestamp, double speed) {
+        // drop every tail element that can never be the extremum again
+        while (size > 0 && dominates(speed, speeds[index(size - 1)])) {
+            size--;
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+        int tail = index(size);
+        timestamps[tail] = timestamp;
+        speeds[tail] = speed;
+        size++;
+    }
+
+    /**
+     * Adds a sample older than the newest offered one.
+     */
+    public void insert(long timestamp, double speed) {
+        int next = 0;
+        while (next < size && timestamps[index(next)] < timestamp) {
+            next++;
+        }
+        // a newer element at least as extreme is kept instead
+        if (next < size && dominates(speeds[index(next)], speed)) {
+            return;
+        }
+        // older elements it dominates are contiguous right before it
+        int from = next;
+        while (from > 0 && dominates(speed, speeds[index(from - 1)])) {
+            from--;
+        }
+        if (from == next) {
+            if (size == timestamps.length) {
+                grow();
+            }
+            for (int i = size; i > next; i--) {
+                timestamps[index(i)] = timestamps[index(i - 1)];
+                speeds[index(i)] = speeds[index(i - 1)];
+            }
+            size++;
+        } else {
+            int removed = next - from - 1;
+            for (int i = next; i < size; i++) {
+                timestamps[index(i - removed)] = timestamps[index(i)];
+                speeds[index(i - removed)] = speeds[index(i)];
+            }
+            size -= removed;
+        }
+        timestamps[index(from)] = timestamp;
+        speeds[index(from)] = speed;
+    }
+
+    /**
+     * Changes the value of the sample stored at {@code index} of the measurements, formerly
+     * {@code previous}; {@code from} is the index of the oldest covered sample. A sample that
+     * becomes less extreme may let the older ones it dominated back in, only the samples
+     * after the previous element are walked again.
+     */
+    public void replace(MeasurementWindow measurements, int from, int index, double previous) {
+        long timestamp = measurements.timestampAt(index);
+        double value = valueAt(measurements, index);
+        int position = 0;
+        while (position < size && timestamps[index(position)] < timestamp) {
+            position++;
+        }
+        boolean present = position < size && timestamps[index(position)] == timestamp;
+        if (!present || dominates(value, previous)) {
+            if (present) {
+                for (int i = position; i < size - 1; i++) {
+                    timestamps[index(i)] = timestamps[index(i + 1)];
+                    speeds[index(i)] = speeds[index(i + 1)];
+                }
+                size--;
+            }
+            insert(timestamp, value);
+            return;
+        }
+        long previousTimestamp = position == 0 ? Long.MIN_VALUE : timestamps[index(position - 1)];
+        int first = index;
+        while (first > from && measurements.timestampAt(first - 1) > previousTimestamp) {
+            first--;
+        }
+        // walked from the newest, a sample stays unless a newer one is at least as extreme
+        int newer = size - position - 1;
+        int kept = 0;
+        boolean bounded = newer > 0;
+        double bound = bounded ? speeds[index(position + 1)] : 0;
+        for (int i = index; i >= first; i--) {
+            double candidate = valueAt(measurements, i);
+            if (!bounded || !dominates(bound, candidate)) {
+                bound = candidate;
+                bounded = true;
+                kept++;
+            }
+        }
+        while (position + kept + newer > timestamps.length) {
+            grow();
+        }
+        int shift = kept - 1;
+        if (shift > 0) {
+            for (int i = size - 1; i > position; i--) {
+                timestamps[index(i + shift)] = timestamps[index(i)];
+                speeds[index(i + shift)] = speeds[index(i)];
+            }
+        } else if (shift < 0) {
+            for (int i = position + 1; i < size; i++) {
+                timestamps[index(i + shift)] = timestamps[index(i)];
+                speeds[index(i + shift)] = speeds[index(i)];
+            }
+        }
+        size += shift;
+        int slot = position + kept - 1;
+        bounded = newer > 0;
+        bound = bounded ? speeds[index(position + kept)] : 0;
+        for (int i = index; i >= first; i--) {
+            double candidate = valueAt(measurements, i);
+            if (!bounded || !dominates(bound, candidate)) {
+                bound = candidate;
+                bounded = true;
+                timestamps[index(slot)] = measurements.timestampAt(i);
+                speeds[index(slot)] = candidate;
+                slot--;
+            }
+        }
+    }
+
+    public void evict(long timestamp) {
+        if (size > 0 && timestamps[head] == timestamp) {
+            head = index(1);
+            size--;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double peek() {
+        return speeds[head];
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private double valueAt(MeasurementWindow measurements, int index) {
+        return keepMin ? measurements.minAt(index) : measurements.maxAt(index);
+    }
+
+    private boolean dominates(double candidate, double current) {
+        return keepMin ? candidate <= current : candidate >= current;
+    }
+
+    private int index(int offset) {
+        return (head + offset) % timestamps.length;
+    }
+
+    private void grow() {
+        long[] newTimestamps = new long[timestamps.length * 2];
+        double[] newSpeeds = new double[speeds.length * 2];
+        for (int i = 0; i < size; i++) {
+            newTimestamps[i] = timestamps[index(i)];
+            newSpeeds[i] = speeds[index(i)];
+        }
+        timestamps = newTimestamps;
+        speeds = newSpeeds;
+        head = 0;
+    }
+}
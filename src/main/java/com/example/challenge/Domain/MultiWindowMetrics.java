@@ -0,0 +1,99 @@
+package com.example.challenge.domain;
+
+/**
+ * Rolling metrics of a line for several time windows computed from the same
+ * stored samples. Windows are sorted from the shortest to the longest, the
+ * longest one being the retention window of the samples.
+ */
+public class MultiWindowMetrics {
+    private final RollingMetrics[] windows;
+
+    public MultiWindowMetrics(long[] timeWindows) {
+        windows = new RollingMetrics[timeWindows.length];
+        for (int i = 0; i < timeWindows.length; i++) {
+            windows[i] = new RollingMetrics(timeWindows[i]);
+        }
+    }
+
+    public int windowCount() {
+        return windows.length;
+    }
+
+    public RollingMetrics window(int index) {
+        return windows[index];
+    }
+
+    public RollingMetrics retentionWindow() {
+        return windows[windows.length - 1];
+    }
+
+    public boolean isLatest(long timestamp) {
+        return retentionWindow().isLatest(timestamp);
+    }
+
+    /**
+     * Adds a sample newer than every stored one to the windows covering it at {@code now}.
+     */
+    public void addLatest(long timestamp, double speed, long now) {
+        for (RollingMetrics window : windows) {
+            if (window.covers(timestamp, now)) {
+                window.addLatest(timestamp, speed);
+            }
+        }
+    }
+
+    /**
+     * Moves the newest entry, stored at {@code previousTimestamp}, to {@code timestamp}
+     * after a sample was merged into the newest bucket.
+     */
+    public void updateLatest(long previousTimestamp, long timestamp, double speed, double min, double max, long now) {
+        for (RollingMetrics window : windows) {
+            if (window.getSampleCount() > 0 && window.getLatestTimestamp() == previousTimestamp) {
+                window.updateLatest(timestamp, speed, min, max);
+            } else if (window.covers(timestamp, now)) {
+                // the bucket was older than this window before the merge
+                window.addLatest(timestamp, speed, min, max);
+            }
+        }
+    }
+
+    /**
+     * Adds the entry just stored at {@code index} of the measurements, older than the newest
+     * one, to the windows covering it at {@code now}.
+     */
+    public void insert(MeasurementWindow measurements, int index, long now) {
+        for (RollingMetrics window : windows) {
+            if (window.covers(measurements.timestampAt(index), now)) {
+                window.insert(measurements, index);
+            }
+        }
+    }
+
+    /**
+     * Updates the windows covering the raw sample at {@code index} of the measurements after
+     * a duplicate replaced its speed, formerly {@code previousSpeed}.
+     */
+    public void replace(MeasurementWindow measurements, int index, double previousSpeed) {
+        for (RollingMetrics window : windows) {
+            window.replace(measurements, index, previousSpeed);
+        }
+    }
+
+    /**
+     * Must be called before the expired samples are removed from the measurements.
+     * @return true if any window dropped a sample
+     */
+    public boolean evictExpired(MeasurementWindow measurements, long now) {
+        boolean evicted = false;
+        for (RollingMetrics window : windows) {
+            evicted |= window.evictExpired(measurements, now);
+        }
+        return evicted;
+    }
+
+    public void recalculateMetrics(MeasurementWindow measurements, long now) {
+        for (RollingMetrics window : windows) {
+            window.recalculateMetrics(measurements, now);
+        }
+    }
+}
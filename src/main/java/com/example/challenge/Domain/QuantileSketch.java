@@ -0,0 +1,217 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * Quantile sketch with a relative accuracy guarantee (DDSketch): values are counted in
+ * logarithmic buckets {@code (gamma^(i-1), gamma^i]} with {@code gamma = (1 + a) / (1 - a)},
+ * so any quantile is answered within a relative error {@code a} of the exact value without
+ * sorting the samples.
+ * <p>
+ * The bucket of a value does not depend on the other values, which makes the sketch
+ * mergeable and lets {@link #remove(double)} take an expired sample out exactly. Memory is
+ * bounded by {@code maxBuckets} counters per sign; past that the lowest buckets are
+ * collapsed, only affecting the accuracy of the lowest quantiles.
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+    // smaller magnitudes are counted as zero
+    private static final double MIN_INDEXABLE = 1e-9;
+
+    private final double gamma;
+    private final double logGamma;
+    private final Store positive;
+    private final Store negative;
+    private long zeroCount = 0;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0, 1): " + relativeAccuracy);
+        }
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.positive = new Store(maxBuckets);
+        this.negative = new Store(maxBuckets);
+    }
+
+    public void add(double value) {
+        update(value, 1);
+    }
+
+    /**
+     * Takes out a value previously added, e.g. a sample leaving the time window.
+     */
+    public void remove(double value) {
+        update(value, -1);
+    }
+
+    /**
+     * Adds the counts of a sketch of the same accuracy.
+     */
+    public void mergeWith(QuantileSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Cannot merge sketches of different accuracies");
+        }
+        positive.mergeWith(other.positive);
+        negative.mergeWith(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    public void clear() {
+        positive.clear();
+        negative.clear();
+        zeroCount = 0;
+    }
+
+    public long count() {
+        return positive.total + negative.total + zeroCount;
+    }
+
+    public boolean isEmpty() {
+        return count() == 0;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the estimated value of the quantile, NaN when the sketch is empty
+     */
+    public double quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1]: " + quantile);
+        }
+        long count = count();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        if (rank < negative.total) {
+            // the most negative values sit in the highest buckets of the negative store
+            return -value(negative.indexAtRank(negative.total - 1 - rank));
+        }
+        rank -= negative.total;
+        if (rank < zeroCount) {
+            return 0;
+        }
+        return value(positive.indexAtRank(rank - zeroCount));
+    }
+
+    private void update(double value, int delta) {
+        if (value > MIN_INDEXABLE) {
+            positive.add(index(value), delta);
+        } else if (value < -MIN_INDEXABLE) {
+            negative.add(index(-value), delta);
+        } else {
+            zeroCount += delta;
+        }
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        // within the relative accuracy of every value of the bucket
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Counters of a contiguous range of bucket indexes, grown on demand up to maxBuckets.
+     */
+    private static final class Store {
+        private final int maxBuckets;
+        private int[] counts = new int[0];
+        // bucket index of counts[0]
+        private int offset = 0;
+        // lower indexes are counted in this bucket, it only ever moves up so a removal
+        // finds the count of its add
+        private int collapseFloor = Integer.MIN_VALUE;
+        private long total = 0;
+
+        Store(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        void add(int index, int delta) {
+            index = Math.max(index, collapseFloor);
+            if (counts.length == 0) {
+                counts = new int[Math.min(16, maxBuckets)];
+                offset = index - counts.length / 2;
+            } else if (index < offset) {
+                extendDown(index);
+                index = Math.max(index, collapseFloor);
+            } else if (index >= offset + counts.length) {
+                extendUp(index);
+                index = Math.max(index, collapseFloor);
+            }
+            counts[index - offset] += delta;
+            total += delta;
+        }
+
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return offset + i;
+                }
+            }
+            return offset + counts.length - 1;
+        }
+
+        void mergeWith(Store other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            collapseFloor = Integer.MIN_VALUE;
+            total = 0;
+        }
+
+        private void extendDown(int index) {
+            int top = offset + counts.length - 1;
+            if (top - index + 1 > maxBuckets) {
+                if (counts.length < maxBuckets) {
+                    resize(top - maxBuckets + 1, maxBuckets);
+                }
+                // full range, the lowest bucket takes every lower value
+                collapseFloor = offset;
+                return;
+            }
+            int length = Math.min(maxBuckets, Math.max(top - index + 1, counts.length * 2));
+            resize(top - length + 1, length);
+        }
+
+        private void extendUp(int index) {
+            if (index - offset + 1 <= maxBuckets) {
+                resize(offset, Math.min(maxBuckets, Math.max(index - offset + 1, counts.length * 2)));
+                return;
+            }
+            // collapse the lowest buckets into the new lowest one
+            int newOffset = index - maxBuckets + 1;
+            int[] shifted = new int[maxBuckets];
+            for (int i = 0; i < counts.length; i++) {
+                shifted[Math.max(offset + i, newOffset) - newOffset] += counts[i];
+            }
+            counts = shifted;
+            offset = newOffset;
+            collapseFloor = newOffset;
+        }
+
+        private void resize(int newOffset, int length) {
+            int[] resized = new int[length];
+            System.arraycopy(counts, 0, resized, offset - newOffset, counts.length);
+            counts = resized;
+            offset = newOffset;
+        }
+    }
+}
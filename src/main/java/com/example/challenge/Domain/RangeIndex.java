@@ -0,0 +1,236 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * Index of the entries of a line window answering the time weighted average, min and max
+ * of any sub-range in O(log n). Weights follow {@link RollingMetrics}: an entry holds its
+ * speed since the previous entry, and the oldest one back to the start of the range.
+ * <p>
+ * Entries sit in a ring like {@link RingBufferMeasurementWindow}, each with the running
+ * integral of speed x duration up to its timestamp, so the integral between two instants
+ * is a difference of two interpolated prefix sums. Min and max come from two segment trees
+ * over the ring slots. Appends, updates of the newest entry and evictions are O(log n);
+ * any other change of the window marks the index stale until it is rebuilt.
+ */
+public class RangeIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] timestamps;
+    private double[] speeds;
+    // integral of the speed from the oldest entry ever indexed up to each timestamp
+    private double[] prefix;
+    // leaves at capacity + slot, free slots hold the neutral value
+    private double[] minTree;
+    private double[] maxTree;
+    private int head = 0;
+    private int size = 0;
+    private boolean stale = false;
+
+    public RangeIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Marks the index out of date, it must be rebuilt before its next query.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    public void rebuild(MeasurementWindow measurements) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < measurements.size()) {
+            capacity *= 2;
+        }
+        if (capacity > timestamps.length) {
+            allocate(capacity);
+        } else {
+            clear();
+        }
+        measurements.forEach(0, this::append);
+        stale = false;
+    }
+
+    public void append(long timestamp, double speed, double min, double max) {
+        if (size == timestamps.length) {
+            grow();
+        }
+        int slot = physical(size);
+        prefix[slot] = size == 0 ? 0 : prefix[physical(size - 1)] + speed * (timestamp - timestamps[physical(size - 1)]);
+        timestamps[slot] = timestamp;
+        speeds[slot] = speed;
+        set(slot, min, max);
+        size++;
+    }
+
+    /**
+     * Replaces the newest entry, e.g. a bucket a sample was merged into.
+     */
+    public void updateLatest(long timestamp, double speed, double min, double max) {
+        int slot = physical(size - 1);
+        if (size > 1) {
+            int previous = physical(size - 2);
+            prefix[slot] = prefix[previous] + speed * (timestamp - timestamps[previous]);
+        }
+        timestamps[slot] = timestamp;
+        speeds[slot] = speed;
+        set(slot, min, max);
+    }
+
+    public void removeFirst() {
+        if (size == 0) {
+            return;
+        }
+        set(head, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        head = physical(1);
+        size--;
+    }
+
+    /**
+     * @return true if an entry covers part of the range, i.e. it does not start after the newest entry
+     */
+    public boolean covers(long from, long to) {
+        return size > 0 && from <= to && from <= timestamps[physical(size - 1)];
+    }
+
+    /**
+     * Time weighted average between {@code from} and {@code to} (capped to the newest entry),
+     * rounded like {@link RollingMetrics#getWeightedAverage()}. Must be {@link #covers covered}.
+     */
+    public double getWeightedAverage(long from, long to) {
+        long end = Math.min(to, timestamps[physical(size - 1)]);
+        if (end == from) {
+            return RollingMetrics.roundToTenth(speeds[physical(lowerBound(from))]);
+        }
+        return RollingMetrics.roundToTenth((integral(end) - integral(from)) / (end - from));
+    }
+
+    public double getMin(long from, long to) {
+        return query(minTree, from, to, true);
+    }
+
+    public double getMax(long from, long to) {
+        return query(maxTree, from, to, false);
+    }
+
+    // integral of the speed from the oldest entry ever indexed up to the instant
+    private double integral(long instant) {
+        int index = lowerBound(instant);
+        int slot = physical(index);
+        if (index == 0) {
+            // the oldest entry extends back to the start of the range
+            return prefix[slot] - speeds[slot] * (timestamps[slot] - instant);
+        }
+        int previous = physical(index - 1);
+        return prefix[previous] + speeds[slot] * (instant - timestamps[previous]);
+    }
+
+    private double query(double[] tree, long from, long to, boolean min) {
+        long end = Math.min(to, timestamps[physical(size - 1)]);
+        // entries whose duration overlaps the range
+        int first = physical(lowerBound(from));
+        int last = physical(lowerBound(end));
+        if (first <= last) {
+            return query(tree, first, last, min);
+        }
+        double wrapped = query(tree, first, timestamps.length - 1, min);
+        double start = query(tree, 0, last, min);
+        return min ? Math.min(wrapped, start) : Math.max(wrapped, start);
+    }
+
+    private static double query(double[] tree, int firstSlot, int lastSlot, boolean min) {
+        double result = min ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        int capacity = tree.length / 2;
+        for (int low = firstSlot + capacity, high = lastSlot + capacity + 1; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                result = min ? Math.min(result, tree[low++]) : Math.max(result, tree[low++]);
+            }
+            if ((high & 1) == 1) {
+                result = min ? Math.min(result, tree[--high]) : Math.max(result, tree[--high]);
+            }
+        }
+        return result;
+    }
+
+    // first logical index whose timestamp is at or after the instant, the newest one past it
+    private int lowerBound(long instant) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] < instant) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void set(int slot, double min, double max) {
+        int capacity = timestamps.length;
+        int node = slot + capacity;
+        minTree[node] = min;
+        maxTree[node] = max;
+        for (node >>= 1; node > 0; node >>= 1) {
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+            maxTree[node] = Math.max(maxTree[2 * node], maxTree[2 * node + 1]);
+        }
+    }
+
+    private int physical(int index) {
+        return (head + index) & (timestamps.length - 1);
+    }
+
+    private void grow() {
+        long[] oldTimestamps = timestamps;
+        double[] oldSpeeds = speeds;
+        double[] oldPrefix = prefix;
+        double[] oldMinTree = minTree;
+        double[] oldMaxTree = maxTree;
+        int oldCapacity = oldTimestamps.length;
+        int oldHead = head;
+        int count = size;
+        allocate(oldCapacity * 2);
+        int capacity = timestamps.length;
+        // unwrapped to slot 0, leaves first then every parent once
+        for (int i = 0; i < count; i++) {
+            int from = (oldHead + i) & (oldCapacity - 1);
+            timestamps[i] = oldTimestamps[from];
+            speeds[i] = oldSpeeds[from];
+            prefix[i] = oldPrefix[from];
+            minTree[capacity + i] = oldMinTree[oldCapacity + from];
+            maxTree[capacity + i] = oldMaxTree[oldCapacity + from];
+        }
+        for (int node = capacity - 1; node > 0; node--) {
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+            maxTree[node] = Math.max(maxTree[2 * node], maxTree[2 * node + 1]);
+        }
+        size = count;
+    }
+
+    private void allocate(int capacity) {
+        timestamps = new long[capacity];
+        speeds = new double[capacity];
+        prefix = new double[capacity];
+        minTree = new double[2 * capacity];
+        maxTree = new double[2 * capacity];
+        clear();
+    }
+
+    private void clear() {
+        Arrays.fill(minTree, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxTree, Double.NEGATIVE_INFINITY);
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.challenge.domain;
+
+import java.util.Arrays;
+
+/**
+ * {@link MeasurementWindow} backed by parallel primitive ring buffers.
+ * Appends and evictions are O(1); late samples are placed by binary search,
+ * shifting only the samples newer than them. Costs 16 bytes per stored sample
+ * (plus spare capacity) instead of a boxed key, a measurement and a tree node.
+ */
+public class RingBufferMeasurementWindow implements MeasurementWindow {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] timestamps;
+    private double[] speeds;
+    private int head = 0;
+    private int size = 0;
+
+    public RingBufferMeasurementWindow() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public RingBufferMeasurementWindow(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        timestamps = new long[capacity];
+        speeds = new double[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return timestamps[physical(index)];
+    }
+
+    @Override
+    public double speedAt(int index) {
+        return speeds[physical(index)];
+    }
+
+    @Override
+    public void put(long timestamp, double speed) {
+        if (size == 0 || timestamp > lastTimestamp()) {
+            append(timestamp, speed);
+            return;
+        }
+        int index = search(timestamp);
+        if (index >= 0) {
+            speeds[physical(index)] = speed;
+            return;
+        }
+        insertAt(-(index + 1), timestamp, speed);
+    }
+
+    @Override
+    public int indexOf(long timestamp) {
+        return search(timestamp);
+    }
+
+    @Override
+    public void removeFirst() {
+        if (size == 0) {
+            return;
+        }
+        head = physical(1);
+        size--;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    private void append(long timestamp, double speed) {
+        if (size == timestamps.length) {
+            grow();
+        }
+        int tail = physical(size);
+        timestamps[tail] = timestamp;
+        speeds[tail] = speed;
+        size++;
+    }
+
+    private void insertAt(int index, long timestamp, double speed) {
+        if (size == timestamps.length) {
+            grow();
+        }
+        // late samples are usually close to the tail, so shift the newer samples one slot right
+        for (int i = size; i > index; i--) {
+            int to = physical(i);
+            int from = physical(i - 1);
+            timestamps[to] = timestamps[from];
+            speeds[to] = speeds[from];
+        }
+        int slot = physical(index);
+        timestamps[slot] = timestamp;
+        speeds[slot] = speed;
+        size++;
+    }
+
+    // same contract as Arrays.binarySearch over the logical indexes
+    private int search(long timestamp) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midTimestamp = timestampAt(mid);
+            if (midTimestamp < timestamp) {
+                low = mid + 1;
+            } else if (midTimestamp > timestamp) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int physical(int index) {
+        int position = head + index;
+        return position < timestamps.length ? position : position - timestamps.length;
+    }
+
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        long[] newTimestamps = Arrays.copyOf(timestamps, capacity);
+        double[] newSpeeds = Arrays.copyOf(speeds, capacity);
+        // unwrap the part of the ring that sits before the head
+        int wrapped = head + size - timestamps.length;
+        if (wrapped > 0) {
+            System.arraycopy(timestamps, 0, newTimestamps, timestamps.length, wrapped);
+            System.arraycopy(speeds, 0, newSpeeds, speeds.length, wrapped);
+        }
+        timestamps = newTimestamps;
+        speeds = newSpeeds;
+    }
+}
@@ -2,51 +2,281 @@ package com.example.challenge.domain;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Map;
-import java.util.NavigableMap;
 
+/**
+ * Time weighted metrics over the most recent samples of a line that fall in a time window.
+ * Each sample is weighted by the time elapsed since the previous sample, the
+ * oldest one by the time elapsed since the window start (latest timestamp - time window).
+ * The covered samples are always the newest {@link #getSampleCount()} samples of the
+ * line's {@link MeasurementWindow}, so several windows can share the same storage.
+ * The state is kept incrementally so appends and evictions are amortized O(1);
+ * a full rebuild is only needed for out of order inserts. Entries may be
+ * pre-aggregated buckets, see {@link #updateLatest}.
+ * <p>
+ * Percentiles count every covered entry once (not time weighted), through a
+ * {@link QuantileSketch} the evicted entries are removed from.
+ */
 public class RollingMetrics {
-    private double weightedSum = 0;
-    private double min = Double.MAX_VALUE;
-    private double max = Double.MIN_VALUE;
-    private long totalDuration = 0;
+    public static final long DEFAULT_TIME_WINDOW = 60 * 60 * 1000; // 60 minutes in milliseconds
+    private static final double MAX_EXACT_ROUNDING = 0x1p46;
 
-    public void addMeasurement(double speed, long duration) {
-        weightedSum += speed * duration;
-        totalDuration += duration;
-        min = Math.min(min, speed);
-        max = Math.max(max, speed);
+    private final long timeWindow;
+    // weighted sum of every sample except the oldest, whose weight depends on the latest timestamp
+    private double tailWeightedSum = 0;
+    private long firstTimestamp;
+    private double firstSpeed;
+    private long lastTimestamp;
+    private double lastSpeed;
+    private long previousTimestamp;
+    private int sampleCount = 0;
+    private final MonotonicDeque minDeque = new MonotonicDeque(true);
+    private final MonotonicDeque maxDeque = new MonotonicDeque(false);
+    private final QuantileSketch sketch = new QuantileSketch();
+
+    public RollingMetrics() {
+        this(DEFAULT_TIME_WINDOW);
+    }
+
+    public RollingMetrics(long timeWindow) {
+        this.timeWindow = timeWindow;
+    }
+
+    public void addLatest(long timestamp, double speed) {
+        addLatest(timestamp, speed, speed, speed);
+    }
+
+    public void addLatest(long timestamp, double speed, double min, double max) {
+        if (sampleCount == 0) {
+            firstTimestamp = timestamp;
+            firstSpeed = speed;
+        } else {
+            tailWeightedSum += speed * (timestamp - lastTimestamp);
+        }
+        previousTimestamp = lastTimestamp;
+        lastTimestamp = timestamp;
+        lastSpeed = speed;
+        sampleCount++;
+        sketch.add(speed);
+        minDeque.offer(timestamp, min);
+        maxDeque.offer(timestamp, max);
+    }
+
+    /**
+     * Replaces the newest covered entry, used when a sample is merged into the newest
+     * bucket of a {@link BucketedMeasurementWindow}: the bucket moves to {@code timestamp}
+     * and its mean speed, min and max change. The min and max of a bucket never grow
+     * less extreme, so offering them again replaces the previous entry of the bucket.
+     */
+    public void updateLatest(long timestamp, double speed, double min, double max) {
+        if (sampleCount == 1) {
+            firstTimestamp = timestamp;
+            firstSpeed = speed;
+        } else {
+            tailWeightedSum += speed * (timestamp - previousTimestamp) - lastSpeed * (lastTimestamp - previousTimestamp);
+        }
+        sketch.remove(lastSpeed);
+        sketch.add(speed);
+        lastTimestamp = timestamp;
+        lastSpeed = speed;
+        minDeque.offer(timestamp, min);
+        maxDeque.offer(timestamp, max);
+    }
+
+    /**
+     * Adds a late entry, stored at {@code index} of the measurements before a newer covered
+     * one. Only the weight of the covered entry following it changes: part of its duration
+     * now belongs to the late entry.
+     */
+    public void insert(MeasurementWindow measurements, int index) {
+        long timestamp = measurements.timestampAt(index);
+        double speed = measurements.speedAt(index);
+        if (sampleCount == 0) {
+            addLatest(timestamp, speed, measurements.minAt(index), measurements.maxAt(index));
+            return;
+        }
+        if (index == measurements.size() - 1 - sampleCount) {
+            // older than every covered entry
+            tailWeightedSum += firstSpeed * (firstTimestamp - timestamp);
+            firstTimestamp = timestamp;
+            firstSpeed = speed;
+        } else {
+            tailWeightedSum += (speed - measurements.speedAt(index + 1)) * (timestamp - measurements.timestampAt(index - 1));
+        }
+        if (index == measurements.size() - 2) {
+            previousTimestamp = timestamp;
+        }
+        sampleCount++;
+        sketch.add(speed);
+        minDeque.insert(timestamp, measurements.minAt(index));
+        maxDeque.insert(timestamp, measurements.maxAt(index));
+    }
+
+    /**
+     * Changes the speed of the entry stored at {@code index} of the measurements, formerly
+     * {@code previousSpeed}, when a duplicate replaced it. Only the weight of that entry
+     * changes; nothing is done if it is not covered.
+     */
+    public void replace(MeasurementWindow measurements, int index, double previousSpeed) {
+        int from = measurements.size() - sampleCount;
+        if (sampleCount == 0 || index < from) {
+            return;
+        }
+        double speed = measurements.speedAt(index);
+        if (index == from) {
+            firstSpeed = speed;
+        } else {
+            tailWeightedSum += (speed - previousSpeed) * (measurements.timestampAt(index) - measurements.timestampAt(index - 1));
+        }
+        if (index == measurements.size() - 1) {
+            lastSpeed = speed;
+        }
+        sketch.remove(previousSpeed);
+        sketch.add(speed);
+        minDeque.replace(measurements, from, index, previousSpeed);
+        maxDeque.replace(measurements, from, index, previousSpeed);
+    }
+
+    /**
+     * Drops the oldest covered sample. Must be called while the sample is still in the measurements.
+     */
+    public void evictOldest(MeasurementWindow measurements) {
+        if (sampleCount == 0) {
+            return;
+        }
+        minDeque.evict(firstTimestamp);
+        maxDeque.evict(firstTimestamp);
+        sketch.remove(firstSpeed);
+        if (sampleCount == 1) {
+            reset();
+            return;
+        }
+        int next = measurements.size() - sampleCount + 1;
+        long nextTimestamp = measurements.timestampAt(next);
+        double nextSpeed = measurements.speedAt(next);
+        tailWeightedSum -= nextSpeed * (nextTimestamp - firstTimestamp);
+        firstTimestamp = nextTimestamp;
+        firstSpeed = nextSpeed;
+        sampleCount--;
+    }
+
+    /**
+     * Drops every covered sample older than the time window.
+     * @return true if a sample was dropped
+     */
+    public boolean evictExpired(MeasurementWindow measurements, long now) {
+        boolean evicted = false;
+        while (sampleCount > 0 && now - firstTimestamp > timeWindow) {
+            evictOldest(measurements);
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    public boolean isLatest(long timestamp) {
+        return sampleCount == 0 || timestamp > lastTimestamp;
+    }
+
+    public boolean covers(long timestamp, long now) {
+        return now - timestamp <= timeWindow;
     }
 
     public double getWeightedAverage() {
-    	double value = totalDuration > 0 ? weightedSum / totalDuration : 0;
+        long totalDuration = sampleCount == 0 ? 0 : timeWindow;
+        double weightedSum = sampleCount == 0 ? 0 : tailWeightedSum + firstSpeed * (firstTimestamp - (lastTimestamp - timeWindow));
+        double value = totalDuration > 0 ? weightedSum / totalDuration : 0;
+
+        return roundToTenth(value);
+    }
 
-        BigDecimal bd = new BigDecimal(Double.toString(value));
-        bd = bd.setScale(1, RoundingMode.HALF_UP);
-        return bd.doubleValue();
+    /**
+     * Estimated speed below which the given fraction of the covered entries fall, within
+     * 1% of the exact value and clamped to the min and max.
+     * @param quantile between 0 and 1
+     * @return NaN without samples
+     */
+    public double getPercentile(double quantile) {
+        if (sampleCount == 0) {
+            return Double.NaN;
+        }
+        double value = sketch.quantile(quantile);
+        return roundToTenth(Math.max(getMin(), Math.min(getMax(), value)));
     }
 
     public double getMin() {
-    	return min;
+    	return minDeque.isEmpty() ? Double.MAX_VALUE : minDeque.peek();
     }
-    
+
     public double getMax() {
-    	return max;
+    	return maxDeque.isEmpty() ? Double.MIN_VALUE : maxDeque.peek();
     }
 
-    public void recalculateMetrics(NavigableMap<Long, SpeedMeasurement> measurements) {
-        weightedSum = 0;
-        min = Double.MAX_VALUE;
-        max = Double.MIN_VALUE;
-        totalDuration = 0;
+    public long getTimeWindow() {
+    	return timeWindow;
+    }
 
-        Long previousTimestamp = measurements.lastKey() - 60 * 60 * 1000;
-        for (Map.Entry<Long, SpeedMeasurement> entry : measurements.entrySet()) {
-            long timestamp = entry.getKey();
-            double speed = entry.getValue().getSpeed();
-            long duration = previousTimestamp != null ? timestamp - previousTimestamp : 0;
-            addMeasurement(speed, duration);
-            previousTimestamp = timestamp;
+    public int getSampleCount() {
+    	return sampleCount;
+    }
+
+    public long getOldestTimestamp() {
+    	return firstTimestamp;
+    }
+
+    public long getLatestTimestamp() {
+    	return lastTimestamp;
+    }
+
+    public void recalculateMetrics(MeasurementWindow measurements) {
+        rebuildFrom(measurements, 0);
+    }
+
+    /**
+     * Rebuilds the metrics from the samples still in the time window at {@code now}.
+     */
+    public void recalculateMetrics(MeasurementWindow measurements, long now) {
+        // first sample covered at now
+        int from = measurements.indexOf(now - timeWindow);
+        rebuildFrom(measurements, from >= 0 ? from : -(from + 1));
+    }
+
+    private void rebuildFrom(MeasurementWindow measurements, int from) {
+        reset();
+        measurements.forEach(from, this::addLatest);
+    }
+
+    /**
+     * Rounds to one decimal HALF_UP like {@code new BigDecimal(Double.toString(value)).setScale(1, HALF_UP)}
+     * without allocating. The decimal string of a double rounds to the same side of a tie
+     * {@code (2k + 1) / 20} as the double itself, except for the double closest to the tie whose
+     * string is the tie and rounds up. Past 2^46 a rounding interval can hold two hundredths, those
+     * magnitudes, NaN and the infinities keep the {@code BigDecimal} path.
+     */
+    public static double roundToTenth(double value) {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < MAX_EXACT_ROUNDING)) {
+            BigDecimal bd = new BigDecimal(Double.toString(value));
+            bd = bd.setScale(1, RoundingMode.HALF_UP);
+            return bd.doubleValue();
+        }
+        long tenths = Math.round(magnitude * 10);
+        if (magnitude >= (2 * tenths + 1) / 20.0) {
+            tenths++;
+        } else if (tenths > 0 && magnitude < (2 * tenths - 1) / 20.0) {
+            tenths--;
         }
+        if (tenths == 0) {
+            // BigDecimal has no negative zero
+            return 0.0;
+        }
+        double rounded = tenths / 10.0;
+        return value < 0 ? -rounded : rounded;
+    }
+
+    private void reset() {
+        tailWeightedSum = 0;
+        sampleCount = 0;
+        sketch.clear();
+        minDeque.clear();
+        maxDeque.clear();
     }
 }
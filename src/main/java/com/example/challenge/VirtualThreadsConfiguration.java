@@ -0,0 +1,43 @@
+package com.example.challenge;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional server mode (metrics.server.virtual-threads=true) where Tomcat runs each
+ * request on its own virtual thread instead of the fixed worker pool, so requests
+ * waiting for a line lock no longer hold a platform thread. Needs a JDK 21 runtime,
+ * the executor is looked up reflectively to keep the Java 11 build.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "metrics.server.virtual-threads", havingValue = "true")
+public class VirtualThreadsConfiguration {
+
+	private static final Logger LOG = LogManager.getLogger(VirtualThreadsConfiguration.class);
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		LOG.info("Tomcat requests run on virtual threads");
+		return protocolHandler -> protocolHandler.setExecutor(executor);
+	}
+
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("metrics.server.virtual-threads needs Java 21 or later, running on "
+					+ System.getProperty("java.version"), e);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Cannot create the virtual thread executor", e);
+		}
+	}
+}
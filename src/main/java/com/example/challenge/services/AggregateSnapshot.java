@@ -0,0 +1,57 @@
+package com.example.challenge.services;
+
+/**
+ * Serialized GET /api/metrics body for one version of the line snapshots. It is
+ * reused until a line snapshot is published or removed, or until the oldest
+ * sample of some line leaves its window.
+ */
+final class AggregateSnapshot {
+
+	private final long version;
+	private final long nextExpiry;
+	private final byte[] json;
+	private final String etag;
+
+	AggregateSnapshot(String instance, long version, long nextExpiry, byte[] json) {
+		this.version = version;
+		this.nextExpiry = nextExpiry;
+		this.json = json;
+		// the instance part keeps a restarted service from matching tags of the previous one
+		this.etag = "\"" + instance + "-" + Long.toHexString(version) + "\"";
+	}
+
+	boolean isCurrent(long version, long now) {
+		return this.version == version && now <= nextExpiry;
+	}
+
+	byte[] getJson() {
+		return json;
+	}
+
+	String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @param ifNoneMatch value of the If-None-Match header, may list several tags
+	 */
+	boolean matches(String ifNoneMatch) {
+		return matches(ifNoneMatch, etag);
+	}
+
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,179 @@
+package com.example.challenge.services;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * One resolution of the {@link MetricsArchive}: fixed-width slots of equal duration, each
+ * holding the weighted sum, duration, min and max of the samples that fell in it.
+ * <p>
+ * A file covers a fixed number of slots. It holds one row of slots per archived line, so a
+ * line and slot are found by offset and a time range of a line is a contiguous read. Rows
+ * are memory mapped by chunks and the files are sparse, rows of lines without samples in a
+ * file take no disk space. Whole files are deleted once they leave the retention.
+ * <p>
+ * Slot layout (32 bytes): weighted sum (speed x milliseconds), duration in milliseconds,
+ * min, max. A zero duration marks an empty slot. Not thread safe.
+ */
+final class ArchiveTier {
+
+	static final int SLOT_BYTES = 32;
+	private static final int ROWS_PER_CHUNK = 256;
+	private static final String SUFFIX = ".bin";
+
+	private final Path directory;
+	private final String name;
+	private final long slotMillis;
+	private final int slotsPerFile;
+	private final long retentionMillis;
+	private final long rowBytes;
+	// mapped chunks of the open files by file index, null for chunks not mapped yet
+	private final Map<Long, List<MappedByteBuffer>> files = new HashMap<>();
+
+	ArchiveTier(Path directory, String name, long slotMillis, int slotsPerFile, long retentionMillis) {
+		this.directory = directory;
+		this.name = name;
+		this.slotMillis = slotMillis;
+		this.slotsPerFile = slotsPerFile;
+		this.retentionMillis = retentionMillis;
+		this.rowBytes = (long) slotsPerFile * SLOT_BYTES;
+	}
+
+	long slotMillis() {
+		return slotMillis;
+	}
+
+	long retentionMillis() {
+		return retentionMillis;
+	}
+
+	/**
+	 * Merges an aggregate into the slot of the timestamp.
+	 */
+	void add(int row, long timestamp, double weightedSum, long duration, double min, double max) throws IOException {
+		long slot = Math.floorDiv(timestamp, slotMillis);
+		MappedByteBuffer chunk = chunk(Math.floorDiv(slot, slotsPerFile), row, true);
+		int offset = offset(slot, row);
+		long stored = chunk.getLong(offset + 8);
+		if (stored != 0) {
+			weightedSum += chunk.getDouble(offset);
+			duration += stored;
+			min = Math.min(min, chunk.getDouble(offset + 16));
+			max = Math.max(max, chunk.getDouble(offset + 24));
+		}
+		chunk.putDouble(offset, weightedSum);
+		chunk.putLong(offset + 8, duration);
+		chunk.putDouble(offset + 16, min);
+		chunk.putDouble(offset + 24, max);
+	}
+
+	/**
+	 * Reads the slots of a row starting between {@code from} and {@code to}, in time order.
+	 */
+	void read(int row, long from, long to, SlotConsumer consumer) throws IOException {
+		long firstSlot = Math.floorDiv(from, slotMillis);
+		long lastSlot = Math.floorDiv(to, slotMillis);
+		for (long slot = firstSlot; slot <= lastSlot; ) {
+			long file = Math.floorDiv(slot, slotsPerFile);
+			long fileEnd = Math.min(lastSlot, (file + 1) * slotsPerFile - 1);
+			MappedByteBuffer chunk = chunk(file, row, false);
+			for (; chunk != null && slot <= fileEnd; slot++) {
+				int offset = offset(slot, row);
+				long duration = chunk.getLong(offset + 8);
+				if (duration != 0) {
+					consumer.accept(slot * slotMillis, chunk.getDouble(offset), duration,
+							chunk.getDouble(offset + 16), chunk.getDouble(offset + 24));
+				}
+			}
+			slot = fileEnd + 1;
+		}
+	}
+
+	/**
+	 * Deletes the files whose slots all left the retention.
+	 */
+	void deleteExpired(long now) throws IOException {
+		long fileMillis = slotsPerFile * slotMillis;
+		List<Path> expired = new ArrayList<>();
+		try (Stream<Path> paths = Files.list(directory)) {
+			paths.filter(path -> {
+				String fileName = path.getFileName().toString();
+				if (!fileName.startsWith(name + "-") || !fileName.endsWith(SUFFIX)) {
+					return false;
+				}
+				long file = Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length()));
+				return (file + 1) * fileMillis <= now - retentionMillis;
+			}).forEach(expired::add);
+		}
+		for (Path path : expired) {
+			Files.deleteIfExists(path);
+		}
+		// the mappings of deleted files are dropped, they stay valid until collected
+		long oldest = Math.floorDiv(now - retentionMillis, fileMillis);
+		for (Iterator<Long> open = files.keySet().iterator(); open.hasNext(); ) {
+			if (open.next() < oldest) {
+				open.remove();
+			}
+		}
+	}
+
+	void force() {
+		for (List<MappedByteBuffer> chunks : files.values()) {
+			for (MappedByteBuffer chunk : chunks) {
+				if (chunk != null) {
+					chunk.force();
+				}
+			}
+		}
+	}
+
+	private int offset(long slot, int row) {
+		return (int) ((row % ROWS_PER_CHUNK) * rowBytes + Math.floorMod(slot, slotsPerFile) * SLOT_BYTES);
+	}
+
+	/**
+	 * @return the chunk holding the row, null if it was never written and {@code create} is false
+	 */
+	private MappedByteBuffer chunk(long file, int row, boolean create) throws IOException {
+		List<MappedByteBuffer> chunks = files.get(file);
+		int index = row / ROWS_PER_CHUNK;
+		if (chunks != null && index < chunks.size() && chunks.get(index) != null) {
+			return chunks.get(index);
+		}
+		Path path = directory.resolve(String.format("%s-%08d%s", name, file, SUFFIX));
+		long position = index * ROWS_PER_CHUNK * rowBytes;
+		long size = ROWS_PER_CHUNK * rowBytes;
+		if (!create && (!Files.exists(path) || Files.size(path) < position + size)) {
+			return null;
+		}
+		MappedByteBuffer chunk;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// extends the sparse file, the mapping stays valid after the channel is closed
+			chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+		}
+		if (chunks == null) {
+			chunks = new ArrayList<>();
+			files.put(file, chunks);
+		}
+		while (chunks.size() <= index) {
+			chunks.add(null);
+		}
+		chunks.set(index, chunk);
+		return chunk;
+	}
+
+	@FunctionalInterface
+	interface SlotConsumer {
+		void accept(long start, double weightedSum, long duration, double min, double max);
+	}
+}
@@ -0,0 +1,216 @@
+package com.example.challenge.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * Optional binary ingest (metrics.ingest.binary.port) next to the REST API. Measurements
+ * are sent as the big endian records of the binary bulk import ({@link BulkImporter#BINARY_RECORD_BYTES}
+ * bytes: line ID, timestamp, speed), either as a TCP stream or as UDP datagrams of whole
+ * records. Nothing is answered; rejected records are only counted.
+ * <p>
+ * A single thread multiplexes every channel with a selector and decodes the records from
+ * one direct buffer per connection straight into the reused primitive line buffers of a
+ * {@link BulkImporter}, so no object is allocated per sample. After each read the
+ * samples of every line are stored as one batch, like {@code POST /api/linespeed/batch}.
+ * A slow store delays reads, TCP senders are then throttled by their socket buffers.
+ */
+@Service
+@ConditionalOnProperty(name = "metrics.ingest.binary.port")
+public class BinaryIngestListener {
+
+	private static final Logger LOG = LogManager.getLogger(BinaryIngestListener.class);
+	// bounds the records buffered between two stores and lets the TCP connections be read in between
+	private static final int DATAGRAMS_PER_WAKEUP = 64;
+
+	private final MetricsService metricService;
+	private final int configuredPort;
+	private final int bufferBytes;
+	private final BulkImporter importer;
+	private Selector selector;
+	private ServerSocketChannel server;
+	private DatagramChannel datagrams;
+	private ByteBuffer datagramBuffer;
+	private Thread worker;
+	private volatile boolean running = false;
+	private volatile long received = 0;
+	private volatile long accepted = 0;
+
+	public BinaryIngestListener(MetricsService metricService,
+			@Value("${metrics.ingest.binary.port}") int port,
+			@Value("${metrics.ingest.binary.buffer-bytes:65536}") int bufferBytes) {
+		this.metricService = metricService;
+		this.configuredPort = port;
+		this.bufferBytes = Math.max(BulkImporter.BINARY_RECORD_BYTES, bufferBytes);
+		this.importer = metricService.newStreamImporter();
+	}
+
+	@Autowired(required = false)
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		FunctionCounter.builder("linespeed.ingest.binary", this, BinaryIngestListener::getAccepted)
+				.description("Binary ingest records by result")
+				.tag("result", "accepted")
+				.register(meterRegistry);
+		// decoded for a registered line in the window but refused when stored
+		FunctionCounter.builder("linespeed.ingest.binary", this, listener -> listener.importer.getImported() - listener.accepted)
+				.description("Binary ingest records by result")
+				.tag("result", "rejected")
+				.register(meterRegistry);
+		counter(meterRegistry, "outdated", BulkImporter::getOutdated);
+		counter(meterRegistry, "unknown_line", BulkImporter::getUnknownLine);
+		counter(meterRegistry, "malformed", BulkImporter::getMalformed);
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(configuredPort));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		// same port number for both protocols, also when the TCP one was picked by the system
+		datagrams = DatagramChannel.open();
+		datagrams.bind(new InetSocketAddress(getPort()));
+		datagrams.configureBlocking(false);
+		datagrams.register(selector, SelectionKey.OP_READ);
+		datagramBuffer = ByteBuffer.allocateDirect(1 << 16);
+
+		running = true;
+		worker = new Thread(this::run, "binary-ingest");
+		worker.setDaemon(true);
+		worker.start();
+		LOG.info("Binary ingest listening on TCP and UDP port " + getPort());
+	}
+
+	@PreDestroy
+	public void stop() throws IOException, InterruptedException {
+		running = false;
+		selector.wakeup();
+		worker.join(TimeUnit.SECONDS.toMillis(5));
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+	}
+
+	public int getPort() {
+		return ((InetSocketAddress) server.socket().getLocalSocketAddress()).getPort();
+	}
+
+	/**
+	 * Records decoded so far, stored or rejected.
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Records stored, without the ones refused by the reorder tolerance, the duplicate
+	 * policy or because their line was deregistered meanwhile.
+	 */
+	public long getAccepted() {
+		return accepted;
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				selector.select(this::handle);
+			} catch (IOException | RuntimeException e) {
+				LOG.error("Binary ingest failed", e);
+			}
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		try {
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isAcceptable()) {
+				accept();
+			} else if (key.channel() == datagrams) {
+				receive();
+			} else {
+				read(key);
+			}
+		} catch (IOException e) {
+			// a broken connection only affects its own records
+			LOG.debug("Binary ingest connection closed", e);
+			close(key);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel connection = server.accept();
+		if (connection == null) {
+			return;
+		}
+		connection.configureBlocking(false);
+		connection.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(bufferBytes));
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel connection = (SocketChannel) key.channel();
+		ByteBuffer buffer = (ByteBuffer) key.attachment();
+		int read = connection.read(buffer);
+		buffer.flip();
+		// a closed connection may leave a truncated last record, counted as malformed
+		importer.parse(buffer, false, read < 0);
+		buffer.compact();
+		store();
+		if (read < 0) {
+			close(key);
+		}
+	}
+
+	private void receive() throws IOException {
+		// each datagram holds whole records, the ones still queued are read on the next wakeup
+		for (int i = 0; i < DATAGRAMS_PER_WAKEUP; i++) {
+			datagramBuffer.clear();
+			if (datagrams.receive(datagramBuffer) == null) {
+				break;
+			}
+			datagramBuffer.flip();
+			importer.parse(datagramBuffer, false, true);
+		}
+		store();
+	}
+
+	private void store() {
+		accepted += metricService.ingest(importer);
+		received = importer.getImported() + importer.getOutdated() + importer.getUnknownLine() + importer.getMalformed();
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			LOG.debug("Cannot close a binary ingest connection", e);
+		}
+	}
+
+	private void counter(MeterRegistry registry, String result, ToDoubleFunction<BulkImporter> count) {
+		FunctionCounter.builder("linespeed.ingest.binary", importer, count)
+				.description("Binary ingest records by result")
+				.tag("result", result)
+				.register(registry);
+	}
+}
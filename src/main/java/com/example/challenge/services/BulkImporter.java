@@ -0,0 +1,382 @@
+package com.example.challenge.services;
+
+import com.example.challenge.domain.LongIntHashMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Parses a bulk import into per line primitive buffers without allocating per row.
+ * Two formats are read:
+ * <ul>
+ * <li>CSV, one {@code lineId,timestamp,speed} row per line, rows not starting with a
+ * digit (e.g. a header) are skipped;</li>
+ * <li>binary, big endian records of {@link #BINARY_RECORD_BYTES} bytes: line ID (long),
+ * timestamp (long) and speed (double).</li>
+ * </ul>
+ * Rows of unknown lines and rows older than {@code oldestTimestamp} are only counted.
+ * An importer is used by a single thread.
+ */
+public final class BulkImporter {
+
+	public static final int BINARY_RECORD_BYTES = 24;
+	private static final int CHUNK_BYTES = 1 << 16;
+	// doubles with up to 15 significant digits divided by an exact power of ten are correctly rounded
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private final LongPredicate knownLine;
+	private long oldestTimestamp;
+	private final LongIntHashMap lineIndexes = new LongIntHashMap(64);
+	private final List<LineBuffer> lines = new ArrayList<>();
+	private long imported = 0;
+	private long outdated = 0;
+	private long unknownLine = 0;
+	private long malformed = 0;
+	// CSV parse position and last parsed values, shared by the field parsers
+	private int cursor;
+	private long parsedLong;
+	private double parsedDouble;
+
+	public BulkImporter(LongPredicate knownLine, long oldestTimestamp) {
+		this.knownLine = knownLine;
+		this.oldestTimestamp = oldestTimestamp;
+	}
+
+	public void read(InputStream in, boolean csv) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+		byte[] array = buffer.array();
+		int read;
+		while ((read = in.read(array, buffer.position(), buffer.remaining())) >= 0) {
+			buffer.position(buffer.position() + read);
+			buffer.flip();
+			parse(buffer, csv, false);
+			buffer.compact();
+			if (!buffer.hasRemaining()) {
+				throw new IllegalArgumentException("CSV row longer than " + CHUNK_BYTES + " bytes");
+			}
+		}
+		buffer.flip();
+		parse(buffer, csv, true);
+	}
+
+	/**
+	 * Parses the complete rows of the buffer, leaving its position at the first incomplete one.
+	 * @param endOfInput true if no more bytes follow, a last CSV row may then miss its line feed
+	 */
+	public void parse(ByteBuffer buffer, boolean csv, boolean endOfInput) {
+		if (csv) {
+			parseCsv(buffer, endOfInput);
+		} else {
+			parseBinary(buffer, endOfInput);
+		}
+	}
+
+	/**
+	 * Empties the line buffers to parse the next rows into them, the counters keep adding up.
+	 */
+	public void clearLines(long oldestTimestamp) {
+		this.oldestTimestamp = oldestTimestamp;
+		for (LineBuffer line : lines) {
+			line.clear();
+		}
+	}
+
+	public List<LineBuffer> lines() {
+		return lines;
+	}
+
+	public long getImported() {
+		return imported;
+	}
+
+	public long getOutdated() {
+		return outdated;
+	}
+
+	public long getUnknownLine() {
+		return unknownLine;
+	}
+
+	public long getMalformed() {
+		return malformed;
+	}
+
+	private void parseBinary(ByteBuffer buffer, boolean endOfInput) {
+		while (buffer.remaining() >= BINARY_RECORD_BYTES) {
+			long lineId = buffer.getLong();
+			long timestamp = buffer.getLong();
+			double speed = buffer.getDouble();
+			add(lineId, timestamp, speed);
+		}
+		if (endOfInput && buffer.hasRemaining()) {
+			// truncated last record
+			malformed++;
+			buffer.position(buffer.limit());
+		}
+	}
+
+	private void parseCsv(ByteBuffer buffer, boolean endOfInput) {
+		int position = buffer.position();
+		int limit = buffer.limit();
+		while (position < limit) {
+			int end = position;
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			if (end == limit && !endOfInput) {
+				break;
+			}
+			parseRow(buffer, position, end);
+			position = Math.min(end + 1, limit);
+		}
+		buffer.position(position);
+	}
+
+	private void parseRow(ByteBuffer buffer, int start, int end) {
+		if (end > start && buffer.get(end - 1) == '\r') {
+			end--;
+		}
+		cursor = skipSpaces(buffer, start, end);
+		if (cursor == end) {
+			return;
+		}
+		byte first = buffer.get(cursor);
+		if (first != '-' && (first < '0' || first > '9')) {
+			return;
+		}
+		if (!parseLong(buffer, end)) {
+			malformed++;
+			return;
+		}
+		long lineId = parsedLong;
+		if (!separator(buffer, end) || !parseLong(buffer, end)) {
+			malformed++;
+			return;
+		}
+		long timestamp = parsedLong;
+		if (!separator(buffer, end) || !parseDouble(buffer, end) || skipSpaces(buffer, cursor, end) != end) {
+			malformed++;
+			return;
+		}
+		add(lineId, timestamp, parsedDouble);
+	}
+
+	private boolean separator(ByteBuffer buffer, int end) {
+		cursor = skipSpaces(buffer, cursor, end);
+		if (cursor == end || buffer.get(cursor) != ',') {
+			return false;
+		}
+		cursor = skipSpaces(buffer, cursor + 1, end);
+		return true;
+	}
+
+	private boolean parseLong(ByteBuffer buffer, int end) {
+		boolean negative = cursor < end && buffer.get(cursor) == '-';
+		int i = negative ? cursor + 1 : cursor;
+		int digitsStart = i;
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				return false;
+			}
+			value = value * 10 + digit;
+		}
+		if (i == digitsStart) {
+			return false;
+		}
+		parsedLong = negative ? -value : value;
+		cursor = i;
+		return true;
+	}
+
+	private boolean parseDouble(ByteBuffer buffer, int end) {
+		int start = cursor;
+		boolean negative = cursor < end && buffer.get(cursor) == '-';
+		int i = negative ? cursor + 1 : cursor;
+		long mantissa = 0;
+		int digits = 0;
+		boolean anyDigit = false;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		boolean fast = true;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (b >= '0' && b <= '9') {
+				anyDigit = true;
+				if (digits > 0 || b != '0') {
+					digits++;
+				}
+				if (digits > MAX_FAST_DIGITS) {
+					fast = false;
+				} else {
+					mantissa = mantissa * 10 + (b - '0');
+					if (fraction) {
+						fractionDigits++;
+					}
+				}
+			} else if (b == 'e' || b == 'E' || b == '+' || (b == '-' && i > start)) {
+				fast = false;
+			} else {
+				break;
+			}
+		}
+		if (!anyDigit) {
+			return false;
+		}
+		cursor = i;
+		if (fast && fractionDigits < POWERS_OF_TEN.length) {
+			double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			parsedDouble = negative ? -value : value;
+			return true;
+		}
+		// rare long or exponent notation, falls back to the JDK parser
+		byte[] text = new byte[i - start];
+		for (int j = 0; j < text.length; j++) {
+			text[j] = buffer.get(start + j);
+		}
+		try {
+			parsedDouble = Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static int skipSpaces(ByteBuffer buffer, int from, int end) {
+		while (from < end && (buffer.get(from) == ' ' || buffer.get(from) == '\t')) {
+			from++;
+		}
+		return from;
+	}
+
+	private void add(long lineId, long timestamp, double speed) {
+		int index = lineIndexes.get(lineId);
+		if (index == LongIntHashMap.NO_VALUE) {
+			if (lineId == LongIntHashMap.FREE_KEY || !knownLine.test(lineId)) {
+				unknownLine++;
+				return;
+			}
+			index = lines.size();
+			lines.add(new LineBuffer(lineId));
+			lineIndexes.put(lineId, index);
+		}
+		if (timestamp < oldestTimestamp) {
+			outdated++;
+			return;
+		}
+		lines.get(index).add(timestamp, speed);
+		imported++;
+	}
+
+	/**
+	 * Imported samples of one line, in input order until {@link #sort()}.
+	 */
+	public static final class LineBuffer implements MeasurementBatch {
+		private final long lineId;
+		private long[] timestamps = new long[1024];
+		private double[] speeds = new double[1024];
+		private int size = 0;
+		private boolean sorted = true;
+
+		LineBuffer(long lineId) {
+			this.lineId = lineId;
+		}
+
+		public long getLineId() {
+			return lineId;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public long timestampAt(int index) {
+			return timestamps[index];
+		}
+
+		@Override
+		public double speedAt(int index) {
+			return speeds[index];
+		}
+
+		void add(long timestamp, double speed) {
+			if (size == timestamps.length) {
+				timestamps = Arrays.copyOf(timestamps, size * 2);
+				speeds = Arrays.copyOf(speeds, size * 2);
+			}
+			if (size > 0 && timestamp < timestamps[size - 1]) {
+				sorted = false;
+			}
+			timestamps[size] = timestamp;
+			speeds[size] = speed;
+			size++;
+		}
+
+		void clear() {
+			size = 0;
+			sorted = true;
+		}
+
+		/**
+		 * Orders the samples by timestamp, keeping the input order of equal timestamps.
+		 */
+		public void sort() {
+			if (sorted) {
+				return;
+			}
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (int i = 0; i < size; i++) {
+				min = Math.min(min, timestamps[i]);
+				max = Math.max(max, timestamps[i]);
+			}
+			int[] order = new int[size];
+			if (max - min < Integer.MAX_VALUE) {
+				// pack the timestamp offset and the input index in one long to sort primitives
+				long[] keys = new long[size];
+				for (int i = 0; i < size; i++) {
+					keys[i] = (timestamps[i] - min) << 32 | i;
+				}
+				Arrays.sort(keys);
+				for (int i = 0; i < size; i++) {
+					order[i] = (int) keys[i];
+				}
+			} else {
+				Integer[] boxed = new Integer[size];
+				for (int i = 0; i < size; i++) {
+					boxed[i] = i;
+				}
+				Arrays.sort(boxed, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+				for (int i = 0; i < size; i++) {
+					order[i] = boxed[i];
+				}
+			}
+			long[] sortedTimestamps = new long[size];
+			double[] sortedSpeeds = new double[size];
+			for (int i = 0; i < size; i++) {
+				sortedTimestamps[i] = timestamps[order[i]];
+				sortedSpeeds[i] = speeds[order[i]];
+			}
+			timestamps = sortedTimestamps;
+			speeds = sortedSpeeds;
+			sorted = true;
+		}
+	}
+}
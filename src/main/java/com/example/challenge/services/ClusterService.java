@@ -0,0 +1,624 @@
+package com.example.challenge.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Optional partitioning of the lines across several instances (metrics.cluster.enabled).
+ * Every node knows the same members and registered lines; a {@link HashRing} of the member
+ * URLs gives the single node holding the window of each line. Requests reaching another
+ * node are forwarded to the owner with the {@link #FORWARDED_HEADER}, which is always
+ * served locally so nodes briefly disagreeing on the members never loop.
+ * <p>
+ * A membership change ({@code PUT /api/cluster/nodes}) is sent on to every old and new
+ * member. Each node then moves the windows of the lines it no longer owns to their owner,
+ * in batches of the snapshot format: the entries are released under the line lock and
+ * merged into the window of the owner, or merged back here if the owner cannot be
+ * reached. The owner refuses the lines it does not know, deregistered while moving, and
+ * they are dropped. The same pass runs every {@code rebalance-interval-ms}, moving samples
+ * that reached a node without forwarding (binary ingest, import) or with an outdated
+ * member list.
+ * A node leaving on shutdown hands its lines over first. Windows are not replicated, the
+ * lines of a node that crashed restart empty on their new owner.
+ * <p>
+ * {@code GET /api/metrics} merges the cached aggregate of every member, each one revalidated
+ * with the ETag it last answered so an unchanged member sends no body.
+ */
+@Service
+@ConditionalOnProperty(name = "metrics.cluster.enabled", havingValue = "true")
+public class ClusterService {
+
+	private static final Logger LOG = LogManager.getLogger(ClusterService.class);
+
+	public static final String FORWARDED_HEADER = "X-Linespeed-Forwarded";
+	static final String NODES_PATH = "/api/cluster/nodes";
+	static final String LINES_PATH = "/api/cluster/lines";
+	static final String METRICS_PATH = "/api/metrics";
+	static final String REGISTERED_LINES_PATH = "/api/lines";
+	// released lines are sent to their owner in requests of about this size
+	private static final int TRANSFER_BATCH_BYTES = 1 << 20;
+	// line ID and entry count, then timestamp, speed, min and max per entry
+	private static final int LINE_HEADER_BYTES = 12;
+	private static final int ENTRY_BYTES = 32;
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	// FNV-1a, combines the member ETags
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final MetricsService metricService;
+	private final List<String> configuredNodes;
+	private final int virtualNodes;
+	private final Duration timeout;
+	private final long rebalanceIntervalMillis;
+	private final HttpClient client;
+	private final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "cluster-rebalance");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile String self;
+	// null until the URL of this node is known
+	private volatile HashRing ring;
+	private volatile long movedLines = 0;
+	// last GET /api/metrics answer of each other member
+	private final Map<String, MemberMetrics> memberMetrics = new ConcurrentHashMap<>();
+	private volatile MemberMetrics mergedMetrics;
+
+	public ClusterService(MetricsService metricService,
+			@Value("${metrics.cluster.nodes:}") List<String> nodes,
+			@Value("${metrics.cluster.self:}") String self,
+			@Value("${metrics.cluster.virtual-nodes:128}") int virtualNodes,
+			@Value("${metrics.cluster.timeout-ms:2000}") long timeoutMillis,
+			@Value("${metrics.cluster.rebalance-interval-ms:5000}") long rebalanceIntervalMillis) {
+		this.metricService = metricService;
+		this.configuredNodes = normalize(nodes);
+		this.virtualNodes = virtualNodes;
+		this.timeout = Duration.ofMillis(timeoutMillis);
+		this.rebalanceIntervalMillis = rebalanceIntervalMillis;
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(timeout)
+				.build();
+		if (!self.isBlank()) {
+			join(normalize(self));
+		}
+	}
+
+	@Autowired(required = false)
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		FunctionCounter.builder("linespeed.cluster.lines.moved", this, ClusterService::getMovedLines)
+				.description("Line windows moved to their owner node")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Without metrics.cluster.self this node is http://localhost:{port}, known once the server started.
+	 */
+	@EventListener
+	public void onWebServerInitialized(WebServerInitializedEvent event) {
+		if (self == null && event.getApplicationContext().getServerNamespace() == null) {
+			join("http://localhost:" + event.getWebServer().getPort());
+		}
+	}
+
+	private void join(String url) {
+		self = url;
+		Set<String> members = new TreeSet<>(configuredNodes);
+		members.add(url);
+		ring = new HashRing(members, virtualNodes);
+		rebalancer.scheduleWithFixedDelay(this::scheduledRebalance, rebalanceIntervalMillis, rebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+		LOG.info("Cluster node " + url + " of " + ring.nodes());
+	}
+
+	/**
+	 * Hands the lines of this node over to the remaining members before it stops.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		rebalancer.shutdownNow();
+		rebalancer.awaitTermination(30, TimeUnit.SECONDS);
+		HashRing current = ring;
+		if (current == null || !current.contains(self) || current.nodes().size() == 1) {
+			return;
+		}
+		List<String> remaining = new ArrayList<>(current.nodes());
+		remaining.remove(self);
+		ring = new HashRing(remaining, virtualNodes);
+		broadcast(current.nodes(), "PUT", NODES_PATH, json(remaining), MediaType.APPLICATION_JSON_VALUE);
+		rebalance();
+	}
+
+	public String getSelf() {
+		return self;
+	}
+
+	public long getMovedLines() {
+		return movedLines;
+	}
+
+	/**
+	 * @return the URL of the node holding the line, null when it is this one
+	 */
+	public String remoteOwnerOf(long lineId) {
+		HashRing current = ring;
+		if (current == null) {
+			return null;
+		}
+		String owner = current.ownerOf(lineId);
+		return owner.equals(self) ? null : owner;
+	}
+
+	/**
+	 * @return the other members
+	 */
+	public List<String> otherNodes() {
+		HashRing current = ring;
+		if (current == null) {
+			return Collections.emptyList();
+		}
+		List<String> others = new ArrayList<>(current.nodes());
+		others.remove(self);
+		return others;
+	}
+
+	public ResponseEntity<List<String>> getNodes() {
+		HashRing current = ring;
+		return ResponseEntity.ok(current == null ? Collections.emptyList() : current.nodes());
+	}
+
+	/**
+	 * Replaces the members. Unless the change was forwarded by another node, it is sent on to
+	 * every old and new member; BAD_GATEWAY tells some of them could not be reached and the
+	 * change should be sent again. Lines are then moved to their new owner in the background.
+	 * <p>
+	 * Joining members first receive the registered lines, since an owner refuses the windows
+	 * of lines it does not know. A node alone until now first takes the lines of the first
+	 * other member that answers.
+	 */
+	public ResponseEntity<List<String>> setNodes(List<String> nodes, boolean forwarded) {
+		List<String> members = normalize(nodes);
+		if (members.isEmpty() || self == null) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+		HashRing previous = ring;
+		if (!forwarded && !syncLines(previous.nodes(), members)) {
+			return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(previous.nodes());
+		}
+		HashRing current = new HashRing(members, virtualNodes);
+		ring = current;
+		LOG.info("Cluster members changed to " + current.nodes());
+		boolean reached = true;
+		if (!forwarded) {
+			Set<String> notified = new TreeSet<>(members);
+			notified.addAll(previous.nodes());
+			reached = broadcast(notified, "PUT", NODES_PATH, json(members), MediaType.APPLICATION_JSON_VALUE);
+		}
+		rebalancer.execute(this::scheduledRebalance);
+		return ResponseEntity.status(reached ? HttpStatus.OK : HttpStatus.BAD_GATEWAY).body(current.nodes());
+	}
+
+	/**
+	 * Registered lines of a node joining the cluster, see {@link #setNodes(List, boolean)}.
+	 */
+	public ResponseEntity<Void> setLines(List<Long> lineIds) {
+		metricService.syncLines(lineIds);
+		return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+	}
+
+	/**
+	 * @return false if the lines could not be read from or sent to the other members
+	 */
+	private boolean syncLines(List<String> previousMembers, List<String> members) {
+		List<String> others = new ArrayList<>(members);
+		others.remove(self);
+		if (others.isEmpty()) {
+			return true;
+		}
+		if (previousMembers.equals(List.of(self)) && !takeLines(others)) {
+			return false;
+		}
+		List<String> joining = new ArrayList<>(others);
+		joining.removeAll(previousMembers);
+		return joining.isEmpty()
+				|| broadcast(joining, "PUT", LINES_PATH, json(metricService.getLines().getBody()), MediaType.APPLICATION_JSON_VALUE);
+	}
+
+	/**
+	 * Registers the lines of the first given member that answers.
+	 */
+	private boolean takeLines(List<String> nodes) {
+		for (String node : nodes) {
+			try {
+				HttpResponse<byte[]> answer = send(node, "GET", REGISTERED_LINES_PATH, null, null).join();
+				if (answer.statusCode() == HttpStatus.OK.value()) {
+					metricService.syncLines(Arrays.asList(OBJECT_MAPPER.readValue(answer.body(), Long[].class)));
+					return true;
+				}
+				LOG.warn("GET " + REGISTERED_LINES_PATH + " answered " + answer.statusCode() + " on " + node);
+			} catch (CompletionException | IOException e) {
+				LOG.warn("GET " + REGISTERED_LINES_PATH + " failed on " + node, e);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Merges line windows moved from another node, see {@link #rebalance()} for the format.
+	 * The lines not registered here are refused, the sender drops them.
+	 * @param length length of the body, an entry count beyond it is refused before allocating
+	 * @return the IDs of the refused lines
+	 */
+	public ResponseEntity<List<Long>> adoptLines(InputStream body, long length) throws IOException {
+		if (length < 0) {
+			return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).build();
+		}
+		List<Long> refused = new ArrayList<>();
+		try {
+			readLines(new DataInputStream(new BufferedInputStream(body, 1 << 16)), length, refused);
+		} catch (EOFException | IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+		if (!refused.isEmpty()) {
+			LOG.warn("Refused " + refused.size() + " moved lines that are not registered");
+		}
+		return ResponseEntity.ok(refused);
+	}
+
+	/**
+	 * Sends a request to another member, marked as forwarded.
+	 * @param body null for a request without body
+	 */
+	public CompletableFuture<HttpResponse<byte[]>> send(String node, String method, String pathAndQuery, byte[] body, String contentType) {
+		HttpRequest.Builder request = request(node, pathAndQuery);
+		if (body == null) {
+			request.method(method, HttpRequest.BodyPublishers.noBody());
+		} else {
+			request.method(method, HttpRequest.BodyPublishers.ofByteArray(body)).header("Content-Type", contentType);
+		}
+		return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+	}
+
+	/**
+	 * Lines of every member. The ETag hashes the member ETags, so it changes whenever one
+	 * of the members rebuilds its aggregate.
+	 * @param ifNoneMatch value of the If-None-Match header, may be null
+	 * @return BAD_GATEWAY when one of the members does not answer
+	 */
+	public ResponseEntity<byte[]> getAllMetricsJson(String ifNoneMatch) {
+		List<String> others = otherNodes();
+		List<CompletableFuture<HttpResponse<byte[]>>> answers = new ArrayList<>(others.size());
+		for (String node : others) {
+			MemberMetrics cached = memberMetrics.get(node);
+			HttpRequest.Builder request = request(node, METRICS_PATH).GET();
+			if (cached != null) {
+				request.header(HttpHeaders.IF_NONE_MATCH, cached.etag);
+			}
+			answers.add(client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()));
+		}
+		ResponseEntity<byte[]> local = metricService.getAllMetricsJson(null);
+		List<byte[]> parts = new ArrayList<>(others.size() + 1);
+		parts.add(local.getBody());
+		long hash = hash(FNV_OFFSET, self + local.getHeaders().getETag());
+		for (int i = 0; i < others.size(); i++) {
+			String node = others.get(i);
+			MemberMetrics cached = memberMetrics.get(node);
+			try {
+				HttpResponse<byte[]> answer = answers.get(i).join();
+				if (answer.statusCode() == HttpStatus.OK.value()) {
+					cached = new MemberMetrics(answer.headers().firstValue(HttpHeaders.ETAG).orElse(""), answer.body());
+					memberMetrics.put(node, cached);
+				} else if (answer.statusCode() != HttpStatus.NOT_MODIFIED.value() || cached == null) {
+					LOG.warn("GET " + METRICS_PATH + " answered " + answer.statusCode() + " on " + node);
+					return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+				}
+			} catch (CompletionException e) {
+				LOG.warn("GET " + METRICS_PATH + " failed on " + node, e.getCause());
+				return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+			}
+			parts.add(cached.json);
+			hash = hash(hash, node + cached.etag);
+		}
+		memberMetrics.keySet().retainAll(others);
+
+		String etag = "\"" + Long.toHexString(hash) + "\"";
+		if (AggregateSnapshot.matches(ifNoneMatch, etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+		}
+		MemberMetrics merged = mergedMetrics;
+		if (merged == null || !merged.etag.equals(etag)) {
+			merged = new MemberMetrics(etag, concatArrays(parts));
+			mergedMetrics = merged;
+		}
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.eTag(etag)
+				.cacheControl(CacheControl.noCache())
+				.body(merged.json);
+	}
+
+	/**
+	 * Sends the same request to every given member but this one, in parallel.
+	 * @return true if every member answered with a success status
+	 */
+	public boolean broadcast(Collection<String> nodes, String method, String pathAndQuery, byte[] body, String contentType) {
+		List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+		List<String> targets = new ArrayList<>();
+		for (String node : nodes) {
+			if (!node.equals(self)) {
+				targets.add(node);
+				responses.add(send(node, method, pathAndQuery, body, contentType));
+			}
+		}
+		boolean reached = true;
+		for (int i = 0; i < targets.size(); i++) {
+			try {
+				int status = responses.get(i).join().statusCode();
+				if (status >= 300) {
+					LOG.warn(method + " " + pathAndQuery + " answered " + status + " on " + targets.get(i));
+					reached = false;
+				}
+			} catch (CompletionException e) {
+				LOG.warn(method + " " + pathAndQuery + " failed on " + targets.get(i), e.getCause());
+				reached = false;
+			}
+		}
+		return reached;
+	}
+
+	private void scheduledRebalance() {
+		try {
+			rebalance();
+		} catch (RuntimeException e) {
+			// the lines left are moved by the next pass
+			LOG.error("Cluster rebalance failed", e);
+		}
+	}
+
+	/**
+	 * Moves the stored lines owned by another member. Lines are sent as their ID, entry count
+	 * and entries (timestamp, speed, min, max), big endian like the persistence snapshots.
+	 * @return the number of lines moved
+	 */
+	public synchronized int rebalance() {
+		HashRing current = ring;
+		if (current == null) {
+			return 0;
+		}
+		List<Long> lineIds = new ArrayList<>();
+		metricService.forEachStoredLine(lineIds::add);
+		Map<String, Transfer> transfers = new HashMap<>();
+		MetricsService.WindowCopy copy = new MetricsService.WindowCopy();
+		int moved = 0;
+		for (long lineId : lineIds) {
+			String owner = current.ownerOf(lineId);
+			if (owner.equals(self) || !metricService.releaseLine(lineId, copy)) {
+				continue;
+			}
+			Transfer transfer = transfers.computeIfAbsent(owner, Transfer::new);
+			transfer.write(lineId, copy);
+			if (transfer.bytes.size() >= TRANSFER_BATCH_BYTES) {
+				moved += transfer.flush();
+			}
+		}
+		for (Transfer transfer : transfers.values()) {
+			moved += transfer.flush();
+		}
+		if (moved > 0) {
+			movedLines += moved;
+			LOG.info("Moved " + moved + " lines to their owner");
+		}
+		return moved;
+	}
+
+	/**
+	 * @param length bytes left in the input
+	 * @param refused receives the IDs of the lines that are not registered
+	 * @throws IllegalArgumentException if an entry count does not fit in the bytes left
+	 */
+	private void readLines(DataInputStream in, long length, List<Long> refused) throws IOException {
+		MetricsService.WindowCopy copy = new MetricsService.WindowCopy();
+		long left = length;
+		while (true) {
+			long lineId;
+			try {
+				lineId = in.readLong();
+			} catch (EOFException e) {
+				return;
+			}
+			int count = in.readInt();
+			left -= LINE_HEADER_BYTES;
+			if (count < 0 || (long) count * ENTRY_BYTES > left) {
+				throw new IllegalArgumentException("Line " + lineId + " announces " + count + " entries, " + left + " bytes left");
+			}
+			left -= (long) count * ENTRY_BYTES;
+			copy.resize(count);
+			for (int i = 0; i < copy.size; i++) {
+				copy.timestamps[i] = in.readLong();
+				copy.speeds[i] = in.readDouble();
+				copy.mins[i] = in.readDouble();
+				copy.maxs[i] = in.readDouble();
+			}
+			if (!metricService.adoptLine(lineId, copy)) {
+				refused.add(lineId);
+			}
+		}
+	}
+
+	private static List<String> normalize(Collection<String> nodes) {
+		List<String> urls = new ArrayList<>();
+		for (String node : nodes) {
+			if (!node.isBlank()) {
+				urls.add(normalize(node));
+			}
+		}
+		return urls;
+	}
+
+	private static String normalize(String node) {
+		String url = node.trim();
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+
+	private HttpRequest.Builder request(String node, String pathAndQuery) {
+		return HttpRequest.newBuilder(URI.create(node + pathAndQuery))
+				.timeout(timeout)
+				.header(FORWARDED_HEADER, self);
+	}
+
+	private static long hash(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Joins JSON arrays without parsing their elements.
+	 */
+	static byte[] concatArrays(List<byte[]> arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('[');
+		boolean empty = true;
+		for (byte[] array : arrays) {
+			int from = 0;
+			int to = array.length;
+			while (from < to && array[from] != '[') {
+				from++;
+			}
+			while (to > from && array[to - 1] != ']') {
+				to--;
+			}
+			from++;
+			to--;
+			while (from < to && Character.isWhitespace(array[from])) {
+				from++;
+			}
+			if (from >= to) {
+				continue;
+			}
+			if (!empty) {
+				out.write(',');
+			}
+			out.write(array, from, to - from);
+			empty = false;
+		}
+		out.write(']');
+		return out.toByteArray();
+	}
+
+	private static byte[] json(Object value) {
+		try {
+			return OBJECT_MAPPER.writeValueAsBytes(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Cannot serialize " + value, e);
+		}
+	}
+
+	/**
+	 * JSON body of GET /api/metrics with its ETag.
+	 */
+	private static final class MemberMetrics {
+		final String etag;
+		final byte[] json;
+
+		MemberMetrics(String etag, byte[] json) {
+			this.etag = etag;
+			this.json = json;
+		}
+	}
+
+	/**
+	 * Released lines waiting to be sent to one owner.
+	 */
+	private final class Transfer {
+		final String owner;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		int lines = 0;
+
+		Transfer(String owner) {
+			this.owner = owner;
+		}
+
+		void write(long lineId, MetricsService.WindowCopy copy) {
+			try {
+				out.writeLong(lineId);
+				out.writeInt(copy.size);
+				for (int i = 0; i < copy.size; i++) {
+					out.writeLong(copy.timestamps[i]);
+					out.writeDouble(copy.speeds[i]);
+					out.writeDouble(copy.mins[i]);
+					out.writeDouble(copy.maxs[i]);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			lines++;
+		}
+
+		/**
+		 * @return the number of lines taken by the owner, the others are merged back here
+		 * unless deregistered in the meantime
+		 */
+		int flush() {
+			if (lines == 0) {
+				return 0;
+			}
+			byte[] body = bytes.toByteArray();
+			int sent = lines;
+			bytes.reset();
+			lines = 0;
+			try {
+				HttpResponse<byte[]> answer = send(owner, "POST", LINES_PATH, body, MediaType.APPLICATION_OCTET_STREAM_VALUE).join();
+				if (answer.statusCode() < 300) {
+					// lines deregistered while moving, the owner does not know them any more
+					long[] refused = OBJECT_MAPPER.readValue(answer.body(), long[].class);
+					if (refused.length > 0) {
+						LOG.info("Node " + owner + " refused " + refused.length + " deregistered lines, dropped");
+					}
+					return sent - refused.length;
+				}
+				LOG.warn("Node " + owner + " refused " + sent + " lines with " + answer.statusCode());
+			} catch (CompletionException e) {
+				LOG.warn("Cannot move " + sent + " lines to " + owner, e.getCause());
+			} catch (IOException e) {
+				// the owner may have stored them, merging them back would only duplicate entries
+				LOG.warn("Unreadable answer of " + owner + " to " + sent + " moved lines", e);
+				return sent;
+			}
+			try {
+				readLines(new DataInputStream(new ByteArrayInputStream(body)), body.length, new ArrayList<>());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return 0;
+		}
+	}
+}
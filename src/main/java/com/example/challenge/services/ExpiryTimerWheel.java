@@ -0,0 +1,172 @@
+package com.example.challenge.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/**
+ * Hashed timing wheel firing when the oldest sample of a line leaves the window.
+ * Each line owns a single {@link Timer}; writers only move its deadline, which is
+ * a volatile write unless the deadline gets earlier. The wheel itself is only
+ * touched by the thread calling {@link #advance}, so a sweep visits the buckets
+ * of the elapsed ticks instead of every line.
+ */
+public class ExpiryTimerWheel {
+
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private final long tickMillis;
+	private final Timer[] buckets;
+	private final int mask;
+	private final Queue<Timer> pending = new ConcurrentLinkedQueue<>();
+	private long lastProcessedTick;
+
+	// sweep statistics, written by the advancing thread only
+	private volatile long lastSweepNanos = 0;
+	private volatile long visitedTimers = 0;
+	private volatile long expiredTimers = 0;
+
+	public ExpiryTimerWheel(long tickMillis, int wheelSize, long now) {
+		this.tickMillis = tickMillis;
+		int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+		this.buckets = new Timer[size];
+		this.mask = size - 1;
+		this.lastProcessedTick = now / tickMillis - 1;
+	}
+
+	public Timer newTimer(long lineId) {
+		return new Timer(lineId);
+	}
+
+	/**
+	 * Moves the deadline of the timer, {@link #NO_DEADLINE} disarms it.
+	 */
+	public void schedule(Timer timer, long deadline) {
+		timer.deadline = deadline;
+		// a later deadline is picked up lazily when the current one fires
+		if (deadline < timer.linkedDeadline && timer.queued.compareAndSet(false, true)) {
+			pending.add(timer);
+		}
+	}
+
+	public void cancel(Timer timer) {
+		timer.cancelled = true;
+		timer.deadline = NO_DEADLINE;
+	}
+
+	/**
+	 * Fires every timer whose deadline is not after {@code now}.
+	 */
+	public void advance(long now, LongConsumer onExpired) {
+		long start = System.nanoTime();
+		long visited = 0;
+		long expired = 0;
+
+		Timer queued;
+		while ((queued = pending.poll()) != null) {
+			queued.queued.set(false);
+			relink(queued);
+		}
+
+		long targetTick = now / tickMillis;
+		// after a stall every bucket is visited at most once
+		long tick = Math.max(lastProcessedTick + 1, targetTick - mask);
+		List<Timer> fired = new ArrayList<>();
+		for (; tick <= targetTick; tick++) {
+			Timer timer = buckets[(int) (tick & mask)];
+			while (timer != null) {
+				Timer next = timer.next;
+				visited++;
+				if (timer.linkedTick <= tick) {
+					unlink(timer);
+					fired.add(timer);
+				}
+				timer = next;
+			}
+			lastProcessedTick = tick;
+		}
+
+		for (Timer timer : fired) {
+			if (timer.cancelled) {
+				continue;
+			}
+			if (timer.deadline <= now) {
+				onExpired.accept(timer.lineId);
+				expired++;
+			}
+			relink(timer);
+		}
+
+		visitedTimers += visited;
+		expiredTimers += expired;
+		lastSweepNanos = System.nanoTime() - start;
+	}
+
+	public long getLastSweepNanos() {
+		return lastSweepNanos;
+	}
+
+	public long getVisitedTimers() {
+		return visitedTimers;
+	}
+
+	public long getExpiredTimers() {
+		return expiredTimers;
+	}
+
+	private void relink(Timer timer) {
+		if (timer.bucket >= 0) {
+			unlink(timer);
+		}
+		long deadline = timer.deadline;
+		if (timer.cancelled || deadline == NO_DEADLINE) {
+			return;
+		}
+		long tick = Math.max(deadline / tickMillis, lastProcessedTick + 1);
+		int bucket = (int) (tick & mask);
+		timer.linkedTick = tick;
+		timer.bucket = bucket;
+		timer.next = buckets[bucket];
+		if (timer.next != null) {
+			timer.next.prev = timer;
+		}
+		buckets[bucket] = timer;
+		timer.linkedDeadline = deadline;
+	}
+
+	private void unlink(Timer timer) {
+		if (timer.prev != null) {
+			timer.prev.next = timer.next;
+		} else {
+			buckets[timer.bucket] = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.prev = timer.prev;
+		}
+		timer.prev = null;
+		timer.next = null;
+		timer.bucket = -1;
+		timer.linkedDeadline = NO_DEADLINE;
+	}
+
+	public static final class Timer {
+		private final long lineId;
+		private final AtomicBoolean queued = new AtomicBoolean(false);
+		private volatile long deadline = NO_DEADLINE;
+		private volatile boolean cancelled = false;
+		private volatile long linkedDeadline = NO_DEADLINE;
+
+		// owned by the advancing thread
+		private long linkedTick;
+		private int bucket = -1;
+		private Timer prev;
+		private Timer next;
+
+		private Timer(long lineId) {
+			this.lineId = lineId;
+		}
+	}
+}
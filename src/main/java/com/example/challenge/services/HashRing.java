@@ -0,0 +1,81 @@
+package com.example.challenge.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Consistent hashing of line IDs onto cluster nodes. Every node is placed at
+ * {@code virtualNodes} pseudo random points of a 64 bit ring and a line belongs to the
+ * node of the first point at or after its own hash, so adding or removing a node only
+ * moves the lines of the ring segments it takes or gives back.
+ * <p>
+ * Positions only depend on the node URLs and the line IDs, so every node computes the
+ * same owners from the same member list whatever its order.
+ */
+final class HashRing {
+
+	private final List<String> nodes;
+	// sorted ring positions and the node of each one
+	private final long[] points;
+	private final String[] owners;
+
+	HashRing(Collection<String> nodes, int virtualNodes) {
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("A cluster needs at least one node");
+		}
+		if (virtualNodes <= 0) {
+			throw new IllegalArgumentException("Virtual nodes must be positive: " + virtualNodes);
+		}
+		this.nodes = List.copyOf(new TreeSet<>(nodes));
+		long[][] entries = new long[this.nodes.size() * virtualNodes][];
+		for (int n = 0; n < this.nodes.size(); n++) {
+			long nodeHash = fnv(this.nodes.get(n));
+			for (int v = 0; v < virtualNodes; v++) {
+				entries[n * virtualNodes + v] = new long[] {mix(nodeHash + v * 0x9E3779B97F4A7C15L), n};
+			}
+		}
+		// ties are broken by node order, as the nodes are sorted every member agrees on them
+		Arrays.sort(entries, Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+		points = new long[entries.length];
+		owners = new String[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			points[i] = entries[i][0];
+			owners[i] = this.nodes.get((int) entries[i][1]);
+		}
+	}
+
+	String ownerOf(long lineId) {
+		int index = Arrays.binarySearch(points, mix(lineId));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		// past the last point wraps around to the first one
+		return owners[index == points.length ? 0 : index];
+	}
+
+	/**
+	 * @return the members sorted by URL
+	 */
+	List<String> nodes() {
+		return nodes;
+	}
+
+	boolean contains(String node) {
+		return nodes.contains(node);
+	}
+
+	private static long fnv(String node) {
+		long hash = 0xCBF29CE484222325L;
+		for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	// splitmix64 finalizer, spreads consecutive line IDs over the whole ring
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -0,0 +1,134 @@
+package com.example.challenge.services;
+
+import com.example.challenge.domain.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of the line IDs accepted by the service. Each registered line gets a
+ * dense slot holding its {@link LineState}. Lookups are lock free on an immutable
+ * table that is copied on every (rare) registration change.
+ */
+public class LineRegistry {
+
+	// cannot be registered, used internally to mark free slots
+	public static final long RESERVED_LINE_ID = LongIntHashMap.FREE_KEY;
+	private static final long FREE_SLOT = RESERVED_LINE_ID;
+
+	private volatile Table table;
+
+	public LineRegistry(long... lineIds) {
+		table = new Table(new LongIntHashMap(lineIds.length), new long[0], new LineState[0]);
+		registerAll(lineIds);
+	}
+
+	public boolean contains(long lineId) {
+		return table.slots.containsKey(lineId);
+	}
+
+	/**
+	 * @return the slot of the line or -1 if it is not registered
+	 */
+	public int slotOf(long lineId) {
+		return table.slots.get(lineId);
+	}
+
+	/**
+	 * @return the state of the line or null if it is not registered
+	 */
+	LineState stateOf(long lineId) {
+		Table current = table;
+		int slot = current.slots.get(lineId);
+		return slot < 0 ? null : current.states[slot];
+	}
+
+	public int size() {
+		return table.slots.size();
+	}
+
+	public void forEachLine(LongConsumer action) {
+		for (long lineId : table.lineIdBySlot) {
+			if (lineId != FREE_SLOT) {
+				action.accept(lineId);
+			}
+		}
+	}
+
+	void forEachState(Consumer<LineState> action) {
+		for (LineState state : table.states) {
+			if (state != null) {
+				action.accept(state);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the line was not registered yet
+	 */
+	public synchronized boolean register(long lineId) {
+		if (contains(lineId)) {
+			return false;
+		}
+		registerAll(lineId);
+		return true;
+	}
+
+	public synchronized void registerAll(long... lineIds) {
+		Table current = table;
+		LongIntHashMap slots = new LongIntHashMap(current.slots);
+		long[] lineIdBySlot = Arrays.copyOf(current.lineIdBySlot, current.lineIdBySlot.length + lineIds.length);
+		Arrays.fill(lineIdBySlot, current.lineIdBySlot.length, lineIdBySlot.length, FREE_SLOT);
+		LineState[] states = Arrays.copyOf(current.states, lineIdBySlot.length);
+		int freeSlot = 0;
+		int used = current.lineIdBySlot.length;
+		for (long lineId : lineIds) {
+			if (slots.containsKey(lineId)) {
+				continue;
+			}
+			while (lineIdBySlot[freeSlot] != FREE_SLOT) {
+				freeSlot++;
+			}
+			lineIdBySlot[freeSlot] = lineId;
+			states[freeSlot] = new LineState(lineId);
+			slots.put(lineId, freeSlot);
+			used = Math.max(used, freeSlot + 1);
+		}
+		table = new Table(slots, Arrays.copyOf(lineIdBySlot, used), Arrays.copyOf(states, used));
+	}
+
+	/**
+	 * @return true if the line was registered
+	 */
+	public synchronized boolean deregister(long lineId) {
+		Table current = table;
+		if (!current.slots.containsKey(lineId)) {
+			return false;
+		}
+		LongIntHashMap slots = new LongIntHashMap(current.slots);
+		long[] lineIdBySlot = current.lineIdBySlot.clone();
+		LineState[] states = current.states.clone();
+		int slot = slots.remove(lineId);
+		lineIdBySlot[slot] = FREE_SLOT;
+		states[slot] = null;
+		table = new Table(slots, lineIdBySlot, states);
+		return true;
+	}
+
+	public synchronized void clear() {
+		table = new Table(new LongIntHashMap(0), new long[0], new LineState[0]);
+	}
+
+	private static final class Table {
+		private final LongIntHashMap slots;
+		private final long[] lineIdBySlot;
+		private final LineState[] states;
+
+		private Table(LongIntHashMap slots, long[] lineIdBySlot, LineState[] states) {
+			this.slots = slots;
+			this.lineIdBySlot = lineIdBySlot;
+			this.states = states;
+		}
+	}
+}
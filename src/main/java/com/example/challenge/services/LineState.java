@@ -0,0 +1,38 @@
+package com.example.challenge.services;
+
+import com.example.challenge.domain.MeasurementWindow;
+import com.example.challenge.domain.MetricsSnapshot;
+import com.example.challenge.domain.MultiWindowMetrics;
+import com.example.challenge.domain.RangeIndex;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Everything {@link MetricsService} keeps for a registered line, created with its slot in
+ * the {@link LineRegistry} so a request resolves it with a single lookup. The fields are
+ * guarded by the lock, except the snapshot which is read without locking.
+ */
+final class LineState {
+
+	static final long NOT_ARCHIVED = Long.MIN_VALUE;
+
+	final long lineId;
+	final ReentrantLock lock = new ReentrantLock();
+	// null until the first sample is stored, volatile as the persistence lists the stored lines without locking
+	volatile MeasurementWindow measurements;
+	MultiWindowMetrics metrics;
+	// null until the first range query of the line, then kept up to date with the window
+	RangeIndex rangeIndex;
+	ExpiryTimerWheel.Timer expiryTimer;
+	// minute of the evicted samples not yet handed to the archive, and the last evicted timestamp
+	Rollup rollup;
+	long archivedUntil = NOT_ARCHIVED;
+	// set when the line is deregistered, a new registration gets a new state
+	boolean removed = false;
+	// published by writers under the lock, null while the window is empty
+	volatile MetricsSnapshot snapshot;
+
+	LineState(long lineId) {
+		this.lineId = lineId;
+	}
+}
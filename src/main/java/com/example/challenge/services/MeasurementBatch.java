@@ -0,0 +1,67 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.MeasurementRequest;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Measurements of one line read by index, so the storage path takes REST requests
+ * and primitive buffers alike.
+ */
+interface MeasurementBatch {
+
+	int size();
+
+	long timestampAt(int index);
+
+	double speedAt(int index);
+
+	/**
+	 * The measurements whose index is not set in {@code skipped}.
+	 */
+	default MeasurementBatch except(BitSet skipped) {
+		int[] kept = new int[size() - skipped.cardinality()];
+		for (int i = 0, k = 0; i < size(); i++) {
+			if (!skipped.get(i)) {
+				kept[k++] = i;
+			}
+		}
+		MeasurementBatch samples = this;
+		return new MeasurementBatch() {
+			@Override
+			public int size() {
+				return kept.length;
+			}
+
+			@Override
+			public long timestampAt(int index) {
+				return samples.timestampAt(kept[index]);
+			}
+
+			@Override
+			public double speedAt(int index) {
+				return samples.speedAt(kept[index]);
+			}
+		};
+	}
+
+	static MeasurementBatch of(List<MeasurementRequest> requests) {
+		return new MeasurementBatch() {
+			@Override
+			public int size() {
+				return requests.size();
+			}
+
+			@Override
+			public long timestampAt(int index) {
+				return requests.get(index).getTimestamp();
+			}
+
+			@Override
+			public double speedAt(int index) {
+				return requests.get(index).getSpeed();
+			}
+		};
+	}
+}
@@ -0,0 +1,324 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.MeasurementRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Append only write-ahead log of the accepted measurements and line registry changes, split in fixed size
+ * memory mapped segments. An append reserves its record slots with an atomic add on the
+ * position of the current segment and copies the records into the mapping, so appends to
+ * different lines never wait on each other. {@link #flush()} forces the dirty pages of
+ * every append since the previous flush to disk at once (group commit), so a process
+ * crash loses nothing and a power loss at most one flush interval. It also maps the next
+ * segment ahead, a full segment is then replaced without creating a file on the ingest path.
+ * <p>
+ * Record layout (32 bytes): timestamp, line ID, speed and a checksum of the three.
+ * Concurrent appenders may fill their slots out of order, so replay skips the records
+ * whose checksum does not match (never written or torn by a power loss) instead of
+ * stopping there. A registration or deregistration has {@link #REGISTERED} or
+ * {@link #DEREGISTERED} as timestamp, values no accepted measurement can have.
+ */
+public class MeasurementJournal implements AutoCloseable {
+
+	static final int RECORD_BYTES = 32;
+	static final long REGISTERED = Long.MIN_VALUE;
+	static final long DEREGISTERED = Long.MIN_VALUE + 1;
+	private static final long CHECKSUM_SEED = 0x5DEECE66DL;
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final Path directory;
+	private final int segmentBytes;
+	private volatile Segment current;
+	// full segments until a flush forced them after their last append
+	private final Queue<Segment> retired = new ConcurrentLinkedQueue<>();
+	private final Object rollLock = new Object();
+	// guarded by rollLock
+	private long nextSegment;
+	private Segment spare;
+
+	/**
+	 * Opens a new segment after the existing ones, they are only read by {@link #replay}.
+	 */
+	public MeasurementJournal(Path directory, int segmentBytes) throws IOException {
+		this.directory = directory;
+		this.segmentBytes = Math.max(RECORD_BYTES, segmentBytes - segmentBytes % RECORD_BYTES);
+		Files.createDirectories(directory);
+		List<Long> segments = segments(directory);
+		nextSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+		current = map(nextSegment++);
+	}
+
+	public void append(long lineId, List<MeasurementRequest> requests) {
+		append(lineId, MeasurementBatch.of(requests));
+	}
+
+	void append(long lineId, MeasurementBatch samples) {
+		int written = 0;
+		while (written < samples.size()) {
+			Segment segment = current;
+			segment.writers.incrementAndGet();
+			try {
+				int count = samples.size() - written;
+				long offset = segment.position.getAndAdd((long) count * RECORD_BYTES);
+				// the first reservation past the end gets the slots left, the next ones none
+				int fit = offset >= segmentBytes ? 0 : (int) Math.min(count, (segmentBytes - offset) / RECORD_BYTES);
+				for (int i = 0; i < fit; i++) {
+					segment.write((int) offset + i * RECORD_BYTES, lineId, samples.timestampAt(written + i),
+							samples.speedAt(written + i));
+				}
+				written += fit;
+			} finally {
+				segment.writers.decrementAndGet();
+			}
+			if (written < samples.size()) {
+				rollFrom(segment);
+			}
+		}
+	}
+
+	void appendRegistration(long lineId, boolean registered) {
+		while (true) {
+			Segment segment = current;
+			segment.writers.incrementAndGet();
+			try {
+				long offset = segment.position.getAndAdd(RECORD_BYTES);
+				if (offset < segmentBytes) {
+					segment.write((int) offset, lineId, registered ? REGISTERED : DEREGISTERED, 0);
+					return;
+				}
+			} finally {
+				segment.writers.decrementAndGet();
+			}
+			rollFrom(segment);
+		}
+	}
+
+	/**
+	 * Continues in a new segment.
+	 * @return the sequence number of the new segment, every later append goes there or after
+	 */
+	public long roll() {
+		synchronized (rollLock) {
+			install();
+			return current.sequence;
+		}
+	}
+
+	/**
+	 * Forces the appends since the previous flush, then maps the next segment if needed.
+	 */
+	public void flush() {
+		// read first, a segment retired meanwhile is in the queue
+		Segment last = current;
+		for (Iterator<Segment> iterator = retired.iterator(); iterator.hasNext(); ) {
+			Segment segment = iterator.next();
+			// read first, an append still writing there is forced by the next flush
+			boolean idle = segment.writers.get() == 0;
+			segment.buffer.force();
+			if (idle) {
+				iterator.remove();
+			}
+		}
+		last.buffer.force();
+		prepareSpare();
+	}
+
+	/**
+	 * Deletes the segments older than {@code segment}, once a snapshot covers them.
+	 */
+	public void deleteSegmentsBefore(long segment) throws IOException {
+		for (long existing : segments(directory)) {
+			if (existing < segment) {
+				Files.deleteIfExists(segmentPath(directory, existing));
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (rollLock) {
+			for (Segment segment : retired) {
+				segment.buffer.force();
+			}
+			retired.clear();
+			current.buffer.force();
+			if (spare != null) {
+				deleteUnused(spare);
+				spare = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of the segments from {@code fromSegment} on, in append order.
+	 */
+	public static void replay(Path directory, long fromSegment, RecordConsumer consumer,
+			RegistrationConsumer registrations) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		for (long segment : segments(directory)) {
+			if (segment < fromSegment) {
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.READ)) {
+				MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				while (records.remaining() >= RECORD_BYTES) {
+					long timestamp = records.getLong();
+					long lineId = records.getLong();
+					long speedBits = records.getLong();
+					if (records.getLong() != checksum(timestamp, lineId, speedBits)) {
+						// never written or torn by a power loss
+						continue;
+					}
+					if (timestamp == REGISTERED || timestamp == DEREGISTERED) {
+						registrations.accept(lineId, timestamp == REGISTERED);
+					} else {
+						consumer.accept(lineId, timestamp, Double.longBitsToDouble(speedBits));
+					}
+				}
+			}
+		}
+	}
+
+	private void rollFrom(Segment full) {
+		synchronized (rollLock) {
+			if (current == full) {
+				install();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the current segment by the spare one, or by a new one if the flush thread
+	 * did not map it yet. Called under the roll lock.
+	 */
+	private void install() {
+		Segment next = spare;
+		spare = null;
+		if (next == null) {
+			try {
+				next = map(nextSegment++);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		retired.add(current);
+		current = next;
+	}
+
+	private void prepareSpare() {
+		long sequence;
+		synchronized (rollLock) {
+			if (spare != null) {
+				return;
+			}
+			sequence = nextSegment++;
+		}
+		Segment mapped;
+		try {
+			// outside the roll lock, an append filling the segment meanwhile maps its own
+			mapped = map(sequence);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		synchronized (rollLock) {
+			if (spare == null && mapped.sequence > current.sequence) {
+				spare = mapped;
+				return;
+			}
+		}
+		deleteUnused(mapped);
+	}
+
+	private void deleteUnused(Segment segment) {
+		try {
+			Files.deleteIfExists(segmentPath(directory, segment.sequence));
+		} catch (IOException e) {
+			// an empty segment, replay finds no record in it
+		}
+	}
+
+	private Segment map(long sequence) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(directory, sequence),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			return new Segment(sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+		}
+	}
+
+	private static long checksum(long timestamp, long lineId, long speedBits) {
+		long hash = CHECKSUM_SEED;
+		hash = (hash ^ timestamp) * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ lineId) * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ speedBits) * 0x9E3779B97F4A7C15L;
+		// an all zero record never matches
+		return hash ^ (hash >>> 31) | 1;
+	}
+
+	private static Path segmentPath(Path directory, long segment) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+	}
+
+	private static List<Long> segments(Path directory) throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.map(path -> path.getFileName().toString())
+					.filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+					.forEach(name -> segments.add(Long.parseLong(
+							name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+		}
+		segments.sort(null);
+		return segments;
+	}
+
+	/**
+	 * Mapped segment with the end of its reserved slots and its appends in progress.
+	 */
+	private static final class Segment {
+		final long sequence;
+		final MappedByteBuffer buffer;
+		final AtomicLong position = new AtomicLong();
+		final AtomicInteger writers = new AtomicInteger();
+
+		Segment(long sequence, MappedByteBuffer buffer) {
+			this.sequence = sequence;
+			this.buffer = buffer;
+		}
+
+		void write(int offset, long lineId, long timestamp, double speed) {
+			// absolute puts, appenders never share the position of the buffer
+			long speedBits = Double.doubleToLongBits(speed);
+			buffer.putLong(offset, timestamp);
+			buffer.putLong(offset + 8, lineId);
+			buffer.putLong(offset + 16, speedBits);
+			buffer.putLong(offset + 24, checksum(timestamp, lineId, speedBits));
+		}
+	}
+
+	@FunctionalInterface
+	public interface RecordConsumer {
+		void accept(long lineId, long timestamp, double speed);
+	}
+
+	@FunctionalInterface
+	public interface RegistrationConsumer {
+		void accept(long lineId, boolean registered);
+	}
+}
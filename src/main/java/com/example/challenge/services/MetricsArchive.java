@@ -0,0 +1,193 @@
+package com.example.challenge.services;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Service;
+
+import com.example.challenge.domain.LongIntHashMap;
+import com.example.challenge.domain.RollingMetrics;
+import com.example.challenge.dto.HistoryPointResponse;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Optional long-term tier (metrics.archive.dir): the samples leaving the retention window
+ * are rolled into per-minute and per-hour aggregates kept in memory mapped {@link ArchiveTier}
+ * files for their own retention.
+ * <p>
+ * The expiry path only adds each evicted sample to the open {@link Rollup} of its line and
+ * queues the rollup once its minute is closed; the files are written by the archive thread.
+ * A sample counts in the minute of its timestamp, weighted like in the window by the time
+ * since the previous sample of its line.
+ */
+@Service
+@ConditionalOnProperty(name = "metrics.archive.dir")
+public class MetricsArchive {
+
+	private static final Logger LOG = LogManager.getLogger(MetricsArchive.class);
+
+	static final long MINUTE = 60_000;
+	static final long HOUR = 60 * MINUTE;
+	private static final long RETENTION_CHECK_INTERVAL = HOUR;
+	private static final String LINES_FILE = "lines.bin";
+
+	private final MetricsService metricService;
+	private final Path directory;
+	// a file per day of minutes and per 32 days of hours
+	private final ArchiveTier minutes;
+	private final ArchiveTier hours;
+	private final long flushIntervalMillis;
+	private final ConcurrentLinkedQueue<Rollup> closed = new ConcurrentLinkedQueue<>();
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "metrics-archive");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// row of each archived line in the tier files, in the order of lines.bin
+	private final LongIntHashMap rows = new LongIntHashMap(1024);
+	private FileChannel lines;
+	private long lastRetentionCheck = 0;
+
+	public MetricsArchive(MetricsService metricService,
+			@Value("${metrics.archive.dir}") String directory,
+			@Value("${metrics.archive.retention:30d}") String retention,
+			@Value("${metrics.archive.hour-retention:365d}") String hourRetention,
+			@Value("${metrics.archive.flush-interval-ms:1000}") long flushIntervalMillis) {
+		this.metricService = metricService;
+		this.directory = Paths.get(directory);
+		this.minutes = new ArchiveTier(this.directory, "1m", MINUTE, 24 * 60, DurationStyle.detectAndParse(retention).toMillis());
+		this.hours = new ArchiveTier(this.directory, "1h", HOUR, 32 * 24, DurationStyle.detectAndParse(hourRetention).toMillis());
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		Files.createDirectories(directory);
+		Path linesPath = directory.resolve(LINES_FILE);
+		ByteBuffer lineIds = ByteBuffer.wrap(Files.exists(linesPath) ? Files.readAllBytes(linesPath) : new byte[0]);
+		while (lineIds.remaining() >= Long.BYTES) {
+			rows.put(lineIds.getLong(), rows.size());
+		}
+		lines = FileChannel.open(linesPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		// a torn last entry is overwritten by the next row
+		lines.position((long) rows.size() * Long.BYTES);
+		metricService.setArchive(this);
+		executor.scheduleWithFixedDelay(this::scheduledWrite, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops archiving, the minutes still open are archived as they are.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException, IOException {
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+		metricService.setArchive(null);
+		metricService.closeRollups(this);
+		write();
+		synchronized (this) {
+			minutes.force();
+			hours.force();
+			lines.close();
+		}
+	}
+
+	/**
+	 * Queues a closed minute, called under the line lock so it must not block.
+	 */
+	void offer(Rollup rollup) {
+		closed.add(rollup);
+	}
+
+	private void scheduledWrite() {
+		try {
+			write();
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Metrics archive write failed", e);
+		}
+	}
+
+	/**
+	 * Writes the queued minutes to both tiers and deletes the files past their retention.
+	 */
+	public synchronized void write() throws IOException {
+		int rowCount = rows.size();
+		Rollup rollup;
+		while ((rollup = closed.poll()) != null) {
+			int row = rowOf(rollup.lineId);
+			minutes.add(row, rollup.start, rollup.weightedSum, rollup.duration, rollup.min, rollup.max);
+			hours.add(row, rollup.start, rollup.weightedSum, rollup.duration, rollup.min, rollup.max);
+		}
+		if (rows.size() > rowCount) {
+			// a row must be durable before a restart reuses its number
+			lines.force(false);
+		}
+		long now = Instant.now().toEpochMilli();
+		if (now - lastRetentionCheck >= RETENTION_CHECK_INTERVAL) {
+			lastRetentionCheck = now;
+			minutes.deleteExpired(now);
+			hours.deleteExpired(now);
+			minutes.force();
+			hours.force();
+		}
+	}
+
+	/**
+	 * Aggregates of a line starting between {@code from} and {@code to}, per minute or per hour.
+	 * @param resolution 1m, 1h or null for minutes when they are still retained at {@code from}
+	 * @throws IllegalArgumentException for another resolution
+	 */
+	public synchronized List<HistoryPointResponse> query(long lineId, long from, long to, String resolution) throws IOException {
+		long now = Instant.now().toEpochMilli();
+		ArchiveTier tier;
+		if (resolution == null) {
+			tier = from >= now - minutes.retentionMillis() ? minutes : hours;
+		} else if (DurationStyle.detectAndParse(resolution).toMillis() == MINUTE) {
+			tier = minutes;
+		} else if (DurationStyle.detectAndParse(resolution).toMillis() == HOUR) {
+			tier = hours;
+		} else {
+			throw new IllegalArgumentException("Unknown resolution: " + resolution);
+		}
+		List<HistoryPointResponse> points = new ArrayList<>();
+		int row = rows.get(lineId);
+		if (row == LongIntHashMap.NO_VALUE) {
+			return points;
+		}
+		tier.read(row, Math.max(from, now - tier.retentionMillis()), Math.min(to, now), (start, weightedSum, duration, min, max) ->
+				points.add(new HistoryPointResponse(start, RollingMetrics.roundToTenth(weightedSum / duration), max, min)));
+		return points;
+	}
+
+	private int rowOf(long lineId) throws IOException {
+		int row = rows.get(lineId);
+		if (row == LongIntHashMap.NO_VALUE) {
+			row = rows.size();
+			ByteBuffer entry = ByteBuffer.allocate(Long.BYTES).putLong(0, lineId);
+			while (entry.hasRemaining()) {
+				lines.write(entry);
+			}
+			rows.put(lineId, row);
+		}
+		return row;
+	}
+}
@@ -0,0 +1,214 @@
+package com.example.challenge.services;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Optional crash recovery (metrics.persistence.dir): accepted measurements and line
+ * registry changes go to a {@link MeasurementJournal} and the registered lines and
+ * their windows are periodically written to a compact snapshot. On startup the latest
+ * snapshot is loaded and only the journal segments written after it are replayed.
+ * <p>
+ * A snapshot first rolls the journal to a new segment, then copies each line under
+ * its lock, so every record of the older segments is in the snapshot and they can be
+ * deleted. Records of the new segment may be in both, replaying them is idempotent.
+ * Flushes and snapshots run on their own threads so a slow disk never delays the
+ * expiry sweeps.
+ */
+@Service
+@ConditionalOnProperty(name = "metrics.persistence.dir")
+public class MetricsPersistence {
+
+	private static final Logger LOG = LogManager.getLogger(MetricsPersistence.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x4C535053;
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+
+	private final MetricsService metricService;
+	private final Path directory;
+	private final int segmentBytes;
+	private final long flushIntervalMillis;
+	private final long snapshotIntervalMillis;
+	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, runnable -> {
+		Thread thread = new Thread(runnable, "metrics-persistence");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private MeasurementJournal journal;
+
+	public MetricsPersistence(MetricsService metricService,
+			@Value("${metrics.persistence.dir}") String directory,
+			@Value("${metrics.persistence.segment-bytes:67108864}") int segmentBytes,
+			@Value("${metrics.persistence.flush-interval-ms:10}") long flushIntervalMillis,
+			@Value("${metrics.persistence.snapshot-interval-ms:60000}") long snapshotIntervalMillis) {
+		this.metricService = metricService;
+		this.directory = Paths.get(directory);
+		this.segmentBytes = segmentBytes;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
+	}
+
+	/**
+	 * Restores the windows before the service accepts measurements, then starts journaling.
+	 */
+	@PostConstruct
+	public void start() throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		long fromSegment = 0;
+		Path snapshot = latestSnapshot();
+		if (snapshot != null) {
+			fromSegment = readSnapshot(snapshot);
+		}
+		long[] replayed = new long[1];
+		MeasurementJournal.replay(directory, fromSegment, (lineId, timestamp, speed) -> {
+			metricService.restore(lineId, timestamp, speed);
+			replayed[0]++;
+		}, metricService::restoreRegistration);
+		int lines = metricService.finishRestore();
+		LOG.info("Restored " + lines + " lines from " + (snapshot != null ? snapshot.getFileName() : "no snapshot")
+				+ " and " + replayed[0] + " journal records in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+		journal = new MeasurementJournal(directory, segmentBytes);
+		metricService.setJournal(journal);
+		// the replayed segments are only needed until the next snapshot
+		snapshot();
+
+		executor.scheduleWithFixedDelay(journal::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+		metricService.setJournal(null);
+		journal.close();
+	}
+
+	private void scheduledSnapshot() {
+		try {
+			snapshot();
+		} catch (IOException | RuntimeException e) {
+			// the journal keeps every record until a snapshot succeeds
+			LOG.error("Metrics snapshot failed", e);
+		}
+	}
+
+	public void snapshot() throws IOException {
+		long start = System.nanoTime();
+		long segment = journal.roll();
+		Path target = snapshotPath(segment);
+		Path temporary = directory.resolve(target.getFileName() + ".tmp");
+		MetricsService.WindowCopy copy = new MetricsService.WindowCopy();
+		List<Long> registered = new ArrayList<>();
+		metricService.forEachLine(registered::add);
+		List<Long> lineIds = new ArrayList<>();
+		metricService.forEachStoredLine(lineIds::add);
+
+		try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeLong(segment);
+			out.writeInt(registered.size());
+			for (long lineId : registered) {
+				out.writeLong(lineId);
+			}
+			for (long lineId : lineIds) {
+				if (!metricService.copyWindow(lineId, copy) || copy.size == 0) {
+					continue;
+				}
+				out.writeLong(lineId);
+				out.writeInt(copy.size);
+				for (int i = 0; i < copy.size; i++) {
+					out.writeLong(copy.timestamps[i]);
+					out.writeDouble(copy.speeds[i]);
+					out.writeDouble(copy.mins[i]);
+					out.writeDouble(copy.maxs[i]);
+				}
+			}
+			out.flush();
+			file.getChannel().force(true);
+		}
+		Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+
+		journal.deleteSegmentsBefore(segment);
+		for (Path old : snapshots()) {
+			if (!old.equals(target)) {
+				Files.deleteIfExists(old);
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Snapshot " + target.getFileName() + " of " + lineIds.size() + " lines took "
+					+ (System.nanoTime() - start) / 1_000 + " us");
+		}
+	}
+
+	/**
+	 * @return the first journal segment not covered by the snapshot
+	 */
+	private long readSnapshot(Path snapshot) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a metrics snapshot: " + snapshot);
+			}
+			long segment = in.readLong();
+			long[] registered = new long[in.readInt()];
+			for (int i = 0; i < registered.length; i++) {
+				registered[i] = in.readLong();
+			}
+			metricService.restoreLines(registered);
+			while (true) {
+				long lineId;
+				try {
+					lineId = in.readLong();
+				} catch (EOFException e) {
+					return segment;
+				}
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					metricService.restore(lineId, in.readLong(), in.readDouble(), in.readDouble(), in.readDouble());
+				}
+			}
+		}
+	}
+
+	private Path latestSnapshot() throws IOException {
+		List<Path> snapshots = snapshots();
+		return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+	}
+
+	private List<Path> snapshots() throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.filter(path -> {
+				String name = path.getFileName().toString();
+				return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+			}).sorted().forEach(snapshots::add);
+		}
+		return snapshots;
+	}
+
+	private Path snapshotPath(long segment) {
+		return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+	}
+}
@@ -2,24 +2,49 @@ package com.example.challenge.services;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.*;
 
+import com.example.challenge.domain.BucketedMeasurementWindow;
+import com.example.challenge.domain.CompressedMeasurementWindow;
+import com.example.challenge.domain.MeasurementWindow;
+import com.example.challenge.domain.MetricsSnapshot;
+import com.example.challenge.domain.RingBufferMeasurementWindow;
+import com.example.challenge.domain.MultiWindowMetrics;
+import com.example.challenge.domain.RangeIndex;
 import com.example.challenge.domain.RollingMetrics;
-import com.example.challenge.domain.SpeedMeasurement;
 import com.example.challenge.dto.AggregatedMetricsResponse;
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.HistoryPointResponse;
+import com.example.challenge.dto.ImportResponse;
 import com.example.challenge.dto.MeasurementRequest;
 import com.example.challenge.dto.SpeedMetricsResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
 
 
@@ -29,159 +54,1135 @@ public class MetricsService {
 	private static final Logger LOG = LogManager.getLogger(MetricsService.class);
 
 	
-    private static final long TIME_WINDOW = 60 * 60 * 1000; // 60 minutes in milliseconds
-    private final Set<Long> knownLineIds = Set.of(10L, 20L, 30L, 40L, 50L, 60l, 70L, 80L); // Example line IDs
-    private final Map<Long, NavigableMap<Long, SpeedMeasurement>> lineData = new ConcurrentHashMap<>();
-    protected final Map<Long, RollingMetrics> metricsMap = new ConcurrentHashMap<>();
-    private final Map<Long, Lock> lineLocks = new ConcurrentHashMap<>();
-    private final Map<Long, Long> olderEntries = new ConcurrentHashMap<>();
+    private static final String DEFAULT_WINDOWS = "1m,5m,15m,60m";
+    private static final long EXPIRY_TICK = 100; // expiry resolution in milliseconds
+    // registered lines with their window, metrics, lock and published snapshot
+    private final LineRegistry lineRegistry = new LineRegistry(10L, 20L, 30L, 40L, 50L, 60l, 70L, 80L); // Example line IDs
+    // fires when the oldest sample of a line leaves the window
+    private final ExpiryTimerWheel expiryWheel = new ExpiryTimerWheel(EXPIRY_TICK, 4096, Instant.now().toEpochMilli());
+    private MetricsServiceMeters meters = new MetricsServiceMeters();
+    // metrics windows in milliseconds sorted ascending, the longest one is the retention window
+    private long[] timeWindows;
+    private String[] windowNames;
+    private long retentionWindow;
+    // width of the pre-aggregation buckets, 0 stores every raw sample
+    private long bucketMillis = 0;
+    // raw samples kept in compressed blocks
+    private boolean compressedStorage = false;
+    // how far behind the newest sample of its line a sample is still stored
+    private long reorderTolerance = Long.MAX_VALUE;
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.REPLACE;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    // bumped whenever a line snapshot is published or removed
+    private final AtomicLong snapshotsVersion = new AtomicLong();
+    private final String instanceTag = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final Object aggregateLock = new Object();
+    private volatile AggregateSnapshot aggregateSnapshot;
+    // write-ahead log of the accepted measurements, null unless persistence is enabled
+    private volatile MeasurementJournal journal;
+    // long-term tier of the evicted samples, null unless the archive is enabled
+    private volatile MetricsArchive archive;
+
+    public MetricsService() {
+    	setTimeWindows(DEFAULT_WINDOWS);
+    }
+
+    // one line ID per line, replaces the example line IDs when set
+    @Value("${metrics.lines.file:}")
+    private String linesFile;
+
+    @PostConstruct
+    public void loadLines() throws IOException {
+    	if (linesFile == null || linesFile.isBlank()) {
+    		return;
+    	}
+    	long[] lineIds;
+    	try (Stream<String> lines = Files.lines(Paths.get(linesFile))) {
+    		lineIds = lines.map(String::trim)
+    				.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+    				.mapToLong(Long::parseLong)
+    				.toArray();
+    	}
+    	lineRegistry.clear();
+    	lineRegistry.registerAll(lineIds);
+    	LOG.info("Loaded " + lineRegistry.size() + " lines from " + linesFile);
+    }
+
+    /**
+     * Comma separated durations, e.g. 1m,5m,15m,60m. Must be set before any measurement is stored.
+     */
+    @Value("${metrics.windows:" + DEFAULT_WINDOWS + "}")
+    public void setTimeWindows(String windows) {
+    	String[] names = Arrays.stream(windows.split(","))
+    			.map(String::trim)
+    			.filter(name -> !name.isEmpty())
+    			.sorted(Comparator.comparingLong(name -> DurationStyle.detectAndParse(name).toMillis()))
+    			.toArray(String[]::new);
+    	if (names.length == 0) {
+    		throw new IllegalArgumentException("At least one metrics window is required");
+    	}
+    	long[] millis = new long[names.length];
+    	for (int i = 0; i < names.length; i++) {
+    		millis[i] = DurationStyle.detectAndParse(names[i]).toMillis();
+    	}
+    	windowNames = names;
+    	timeWindows = millis;
+    	retentionWindow = millis[millis.length - 1];
+    }
+
+    /**
+     * raw keeps every sample, compressed keeps every sample encoded in blocks, bucketed pre-aggregates
+     * the samples of a line in buckets of the given width.
+     */
+    @Autowired
+    public void setStorage(@Value("${metrics.storage.mode:raw}") String mode, @Value("${metrics.storage.bucket:1s}") String bucket) {
+    	if ("bucketed".equalsIgnoreCase(mode)) {
+    		bucketMillis = DurationStyle.detectAndParse(bucket).toMillis();
+    		if (bucketMillis <= 0) {
+    			throw new IllegalArgumentException("metrics.storage.bucket must be positive: " + bucket);
+    		}
+    		compressedStorage = false;
+    	} else if ("raw".equalsIgnoreCase(mode) || "compressed".equalsIgnoreCase(mode)) {
+    		bucketMillis = 0;
+    		compressedStorage = "compressed".equalsIgnoreCase(mode);
+    	} else {
+    		throw new IllegalArgumentException("Unknown metrics.storage.mode: " + mode);
+    	}
+    }
+
+    /**
+     * Late samples within the tolerance (defaults to the retention window) are merged into the
+     * metrics incrementally, later ones are rejected. A raw sample with an already stored timestamp
+     * replaces it, is dropped (keep-first) or is rejected.
+     */
+    @Autowired
+    public void setReordering(@Value("${metrics.reorder.tolerance:}") String tolerance, @Value("${metrics.reorder.duplicates:replace}") String duplicates) {
+    	reorderTolerance = tolerance == null || tolerance.isBlank() ? Long.MAX_VALUE : DurationStyle.detectAndParse(tolerance).toMillis();
+    	if (reorderTolerance < 0) {
+    		throw new IllegalArgumentException("metrics.reorder.tolerance must not be negative: " + tolerance);
+    	}
+    	try {
+    		duplicatePolicy = DuplicatePolicy.valueOf(duplicates.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    	} catch (IllegalArgumentException e) {
+    		throw new IllegalArgumentException("Unknown metrics.reorder.duplicates: " + duplicates);
+    	}
+    }
+
+    @Autowired(required = false)
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+    	meters = new MetricsServiceMeters(meterRegistry, expiryWheel);
+    }
 
     public ResponseEntity<Void> addSpeedMeasurement(@RequestBody MeasurementRequest request) {
+    	long start = System.nanoTime();
     	HttpStatus errorStatus = requestValidation(request);
     	if (errorStatus != null) {
+    		meters.recordIngest(errorStatus, start);
     		return ResponseEntity.status(errorStatus).build();
     	}
-        Long lineId = request.getLineId();
+        HttpStatus[] status = {HttpStatus.CREATED};
+        addToLineWindow(request.getLineId(), MeasurementBatch.of(Collections.singletonList(request)), (rejection, index) -> status[0] = rejection);
+
+        meters.recordIngest(status[0], start);
+        return ResponseEntity.status(status[0]).build();
+    }
 
-        Lock lock = lineLocks.computeIfAbsent(lineId, k -> new ReentrantLock());
-        lock.lock();
+    public ResponseEntity<BatchMeasurementResponse> addSpeedMeasurements(@RequestBody List<MeasurementRequest> requests) {
+    	long start = System.nanoTime();
+    	int[] statuses = new int[requests.size()];
+    	Map<Long, List<MeasurementRequest>> validByLine = new HashMap<>();
+    	Map<Long, List<Integer>> indexesByLine = new HashMap<>();
+    	for (int i = 0; i < requests.size(); i++) {
+    		MeasurementRequest request = requests.get(i);
+    		if (request == null) {
+    			statuses[i] = HttpStatus.BAD_REQUEST.value();
+    			continue;
+    		}
+    		HttpStatus errorStatus = requestValidation(request);
+    		if (errorStatus != null) {
+    			statuses[i] = errorStatus.value();
+    			continue;
+    		}
+    		statuses[i] = HttpStatus.CREATED.value();
+    		validByLine.computeIfAbsent(request.getLineId(), k -> new ArrayList<>()).add(request);
+    		indexesByLine.computeIfAbsent(request.getLineId(), k -> new ArrayList<>()).add(i);
+    	}
+
+    	//each line lock is taken once for the whole batch
+    	for (Entry<Long, List<MeasurementRequest>> entry : validByLine.entrySet()) {
+    		List<Integer> indexes = indexesByLine.get(entry.getKey());
+    		addToLineWindow(entry.getKey(), MeasurementBatch.of(entry.getValue()),
+    				(rejection, index) -> statuses[indexes.get(index)] = rejection.value());
+    	}
+
+    	meters.recordBatch(start);
+    	return ResponseEntity.ok(new BatchMeasurementResponse(statuses));
+    }
+
+    void addToLineWindow(Long lineId, List<MeasurementRequest> requests) {
+        addToLineWindow(lineId, MeasurementBatch.of(requests));
+    }
+
+    int addToLineWindow(Long lineId, MeasurementBatch samples) {
+        return addToLineWindow(lineId, samples, (status, index) -> { });
+    }
+
+    /**
+     * Stores the samples of a line in order. Samples later than the reorder tolerance and
+     * rejected duplicates are counted and reported with their batch index: NO_CONTENT like
+     * an outdated sample, CONFLICT for a duplicate.
+     * @return the number of samples stored
+     */
+    int addToLineWindow(Long lineId, MeasurementBatch samples, ObjIntConsumer<HttpStatus> rejected) {
+        LineState state = lockLine(lineId);
+        if (state == null) {
+        	//deregistered after validation
+        	return 0;
+        }
         try {
-            NavigableMap<Long, SpeedMeasurement> measurements = lineData.computeIfAbsent(lineId, k -> new TreeMap<>());
-            measurements.put(request.getTimestamp(), new SpeedMeasurement(request.getTimestamp(), request.getSpeed()));
-            removeOldEntries(lineId, false);
-            metricsMap.computeIfAbsent(lineId, k -> new RollingMetrics()).recalculateMetrics(measurements);
-            fillOlderEntriesMap(lineId, measurements.firstKey());
+            MeasurementWindow measurements = windowOf(state);
+            MultiWindowMetrics metrics = metricsOf(state);
+            long now = Instant.now().toEpochMilli();
+            removeOldEntries(state, now, false);
+            boolean recalculation = false;
+            BitSet skipped = null;
+            for (int i = 0; i < samples.size(); i++) {
+            	long timestamp = samples.timestampAt(i);
+            	double speed = samples.speedAt(i);
+            	int size = measurements.size();
+            	if (size > 0 && timestamp <= measurements.lastTimestamp()) {
+            		if (measurements.lastTimestamp() - timestamp > reorderTolerance) {
+            			meters.recordTooLate();
+            			rejected.accept(HttpStatus.NO_CONTENT, i);
+            			skipped = skip(skipped, i, samples.size());
+            			continue;
+            		}
+            		int duplicate = bucketMillis == 0 ? measurements.indexOf(timestamp) : -1;
+            		if (duplicate >= 0) {
+            			meters.recordDuplicate(duplicatePolicy == DuplicatePolicy.REJECT);
+            			if (duplicatePolicy == DuplicatePolicy.REJECT) {
+            				rejected.accept(HttpStatus.CONFLICT, i);
+            			}
+            			if (duplicatePolicy != DuplicatePolicy.REPLACE) {
+            				skipped = skip(skipped, i, samples.size());
+            				continue;
+            			}
+            			//only the weight of the replaced entry changes
+            			double previousSpeed = measurements.speedAt(duplicate);
+            			measurements.put(timestamp, speed);
+            			invalidateRangeIndex(state);
+            			if (!recalculation) {
+            				metrics.replace(measurements, duplicate, previousSpeed);
+            			}
+            			continue;
+            		}
+            		measurements.put(timestamp, speed);
+            		invalidateRangeIndex(state);
+            		if (!recalculation && measurements.size() > size && metrics.retentionWindow().getSampleCount() == size) {
+            			//a new entry only changes the weight of the following one
+            			metrics.insert(measurements, measurements.indexOf(timestamp), now);
+            			meters.recordReordered();
+            		} else {
+            			//merged into an older bucket
+            			recalculation = true;
+            		}
+            		continue;
+            	}
+            	long previous = size == 0 ? 0 : measurements.lastTimestamp();
+            	measurements.put(timestamp, speed);
+            	if (!recalculation && metrics.isLatest(timestamp)) {
+            		RangeIndex rangeIndex = state.rangeIndex;
+            		if (measurements.size() > size) {
+            			metrics.addLatest(timestamp, speed, now);
+            			if (rangeIndex != null) {
+            				rangeIndex.append(timestamp, speed, speed, speed);
+            			}
+            		} else {
+            			//merged into the newest bucket
+            			int last = size - 1;
+            			metrics.updateLatest(previous, timestamp, measurements.speedAt(last),
+            					measurements.minAt(last), measurements.maxAt(last), now);
+            			if (rangeIndex != null) {
+            				rangeIndex.updateLatest(timestamp, measurements.speedAt(last), measurements.minAt(last), measurements.maxAt(last));
+            			}
+            		}
+            	} else {
+            		recalculation = true;
+            	}
+            }
+            //only the stored samples are replayed on recovery
+            MeasurementJournal currentJournal = journal;
+            MeasurementBatch stored = skipped == null ? samples : samples.except(skipped);
+            if (currentJournal != null && stored.size() > 0) {
+            	currentJournal.append(lineId, stored);
+            }
+            if (recalculation) {
+            	long start = System.nanoTime();
+            	metrics.recalculateMetrics(measurements, now);
+            	meters.recordRecalculation(start, measurements.size());
+            	invalidateRangeIndex(state);
+            }
+            publishSnapshot(state);
+            return stored.size();
         } finally {
-            lock.unlock();
+            state.lock.unlock();
         }
+    }
 
-        return ResponseEntity.status(HttpStatus.CREATED).build();
+    private static BitSet skip(BitSet skipped, int index, int size) {
+    	if (skipped == null) {
+    		skipped = new BitSet(size);
+    	}
+    	skipped.set(index);
+    	return skipped;
     }
 
     public ResponseEntity<SpeedMetricsResponse> getMetrics(@PathVariable("lineid") Long lineId) {
-        if (!metricsMap.containsKey(lineId)) {
+        long start = System.nanoTime();
+        MetricsSnapshot metrics = currentSnapshot(lineId);
+        if (metrics == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
 
-        RollingMetrics metrics;
-        Lock lock = lineLocks.computeIfAbsent(lineId, k -> new ReentrantLock());
-        lock.lock();
+        SpeedMetricsResponse response = new SpeedMetricsResponse(metrics.getAvg(), metrics.getMax(), metrics.getMin());
+        meters.recordQuery(false, start);
+        return ResponseEntity.ok(response);
+    }
+	
+    public ResponseEntity<SpeedMetricsResponse> getMetrics(Long lineId, String window) {
+        long timeWindow;
+        try {
+        	timeWindow = DurationStyle.detectAndParse(window).toMillis();
+        } catch (IllegalArgumentException e) {
+        	return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        int index = Arrays.binarySearch(timeWindows, timeWindow);
+        if (index < 0) {
+        	return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        MetricsSnapshot metrics = currentSnapshot(lineId);
+        if (metrics == null || metrics.isEmpty(index)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(new SpeedMetricsResponse(metrics.getAvg(index), metrics.getMax(index), metrics.getMin(index)));
+    }
+
+    /**
+     * Metrics of a window (the retention window when null) with the given comma separated
+     * percentiles, e.g. 50,95,99.9. The percentiles come from the quantile sketch of the window,
+     * read under the line lock as they are not part of the published snapshot.
+     */
+    public ResponseEntity<SpeedMetricsResponse> getMetrics(Long lineId, String window, String percentiles) {
+        int index = timeWindows.length - 1;
+        if (window != null) {
+        	try {
+        		index = Arrays.binarySearch(timeWindows, DurationStyle.detectAndParse(window).toMillis());
+        	} catch (IllegalArgumentException e) {
+        		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        	}
+        	if (index < 0) {
+        		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        	}
+        }
+        String[] names = percentiles.split(",");
+        double[] quantiles = new double[names.length];
+        for (int i = 0; i < names.length; i++) {
+        	names[i] = names[i].trim();
+        	try {
+        		quantiles[i] = Double.parseDouble(names[i]) / 100;
+        	} catch (NumberFormatException e) {
+        		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        	}
+        	if (!(quantiles[i] > 0 && quantiles[i] <= 1)) {
+        		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        	}
+        }
+        if (publishedSnapshot(lineId) == null) {
+        	return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        LineState state = lockLine(lineId);
+        if (state == null) {
+        	return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        try {
+        	removeOldEntries(state, Instant.now().toEpochMilli(), true);
+        	MetricsSnapshot snapshot = state.snapshot;
+        	if (snapshot == null || snapshot.isEmpty(index)) {
+        		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        	}
+        	RollingMetrics windowMetrics = state.metrics.window(index);
+        	Map<String, Double> values = new LinkedHashMap<>();
+        	for (int i = 0; i < names.length; i++) {
+        		values.put("p" + names[i], windowMetrics.getPercentile(quantiles[i]));
+        	}
+        	return ResponseEntity.ok(new SpeedMetricsResponse(snapshot.getAvg(index), snapshot.getMax(index), snapshot.getMin(index), values));
+        } finally {
+        	state.lock.unlock();
+        }
+    }
+
+    /**
+     * Metrics between two instants (epoch milliseconds or ISO-8601, e.g. 2024-05-01T10:05:00Z),
+     * by default the start of the retention window and the latest sample. The range is clipped
+     * to the retention window; the entry preceding {@code from} counts from {@code from} on, like
+     * the oldest sample of a window. Answered from the range index of the line, built on its
+     * first range query and then kept up to date by the writers.
+     */
+    public ResponseEntity<SpeedMetricsResponse> getRangeMetrics(Long lineId, String from, String to) {
+        long now = Instant.now().toEpochMilli();
+        long fromMillis;
+        long toMillis;
         try {
-        	updateMetricsIfNecessary(lineId);
-            metrics = metricsMap.get(lineId);
+        	fromMillis = Math.max(now - retentionWindow, from == null ? Long.MIN_VALUE : parseInstant(from));
+        	toMillis = to == null ? Long.MAX_VALUE : parseInstant(to);
+        } catch (DateTimeParseException | NumberFormatException e) {
+        	return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        if (fromMillis > toMillis) {
+        	return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        LineState state = lockLine(lineId);
+        if (state == null) {
+        	return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        try {
+        	removeOldEntries(state, now, true);
+        	MeasurementWindow measurements = state.measurements;
+        	if (measurements == null) {
+        		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        	}
+        	RangeIndex index = state.rangeIndex;
+        	if (index == null) {
+        		index = new RangeIndex();
+        		index.invalidate();
+        		state.rangeIndex = index;
+        	}
+        	if (index.isStale()) {
+        		index.rebuild(measurements);
+        	}
+        	if (!index.covers(fromMillis, toMillis)) {
+        		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        	}
+        	return ResponseEntity.ok(new SpeedMetricsResponse(index.getWeightedAverage(fromMillis, toMillis),
+        			index.getMax(fromMillis, toMillis), index.getMin(fromMillis, toMillis)));
         } finally {
-            lock.unlock();
+        	state.lock.unlock();
         }
+    }
 
-        SpeedMetricsResponse response = new SpeedMetricsResponse(metrics.getWeightedAverage(), metrics.getMax(), metrics.getMin());
-        return ResponseEntity.ok(response);
+    /**
+     * Per-minute or per-hour aggregates of the samples that left the retention window, between
+     * two instants formatted like for {@link #getRangeMetrics}, by default everything archived.
+     * 404 NOT FOUND unless the archive is enabled and the line registered.
+     */
+    public ResponseEntity<List<HistoryPointResponse>> getHistory(Long lineId, String from, String to, String resolution) {
+        MetricsArchive currentArchive = archive;
+        if (currentArchive == null || lineId == null || !lineRegistry.contains(lineId)) {
+        	return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        try {
+        	long fromMillis = from == null ? Long.MIN_VALUE : parseInstant(from);
+        	long toMillis = to == null ? Long.MAX_VALUE : parseInstant(to);
+        	if (fromMillis > toMillis) {
+        		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        	}
+        	return ResponseEntity.ok(currentArchive.query(lineId, fromMillis, toMillis, resolution));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+        	return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (IOException e) {
+        	LOG.error("Reading the archive of line " + lineId + " failed", e);
+        	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
     }
-	
-    public ResponseEntity<List<AggregatedMetricsResponse>> getAllMetrics() {
-        List<AggregatedMetricsResponse> allMetrics = new ArrayList<>();
-
-        for (Long lineId : knownLineIds) {
-            if (metricsMap.containsKey(lineId)) {
-                Lock lock = lineLocks.computeIfAbsent(lineId, k -> new ReentrantLock());
-                lock.lock();
-                try {
-                	updateMetricsIfNecessary(lineId);
-                    RollingMetrics metrics = metricsMap.get(lineId);
-                    allMetrics.add(new AggregatedMetricsResponse(lineId, metrics.getWeightedAverage(), metrics.getMax(), metrics.getMin()));               	
-                } finally {
-					lock.unlock();
-				}
-            }
+
+    private static long parseInstant(String value) {
+        String instant = value.trim();
+        if (!instant.isEmpty() && instant.chars().allMatch(Character::isDigit)) {
+        	return Long.parseLong(instant);
         }
+        return Instant.parse(instant).toEpochMilli();
+    }
 
-        return ResponseEntity.ok(allMetrics);
+    /**
+     * Metrics of every configured window keyed by window name, windows without samples are left out.
+     */
+    public ResponseEntity<Map<String, SpeedMetricsResponse>> getWindowMetrics(Long lineId) {
+        MetricsSnapshot metrics = currentSnapshot(lineId);
+        if (metrics == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        Map<String, SpeedMetricsResponse> windows = new LinkedHashMap<>();
+        for (int i = 0; i < metrics.windowCount(); i++) {
+        	if (!metrics.isEmpty(i)) {
+        		windows.put(windowNames[i], new SpeedMetricsResponse(metrics.getAvg(i), metrics.getMax(i), metrics.getMin(i)));
+        	}
+        }
+        return ResponseEntity.ok(windows);
+    }
+
+    /**
+     * GET /api/metrics as cached JSON bytes, only rebuilt when some line changed.
+     * Answers 304 NOT MODIFIED when {@code ifNoneMatch} holds the current ETag.
+     */
+    public ResponseEntity<byte[]> getAllMetricsJson(String ifNoneMatch) {
+        long start = System.nanoTime();
+        AggregateSnapshot aggregate = currentAggregate(Instant.now().toEpochMilli());
+        meters.recordQuery(true, start);
+        if (aggregate.matches(ifNoneMatch)) {
+        	return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(aggregate.getEtag()).cacheControl(CacheControl.noCache()).build();
+        }
+        return ResponseEntity.ok()
+        		.contentType(MediaType.APPLICATION_JSON)
+        		.eTag(aggregate.getEtag())
+        		.cacheControl(CacheControl.noCache())
+        		.body(aggregate.getJson());
+    }
+
+    private AggregateSnapshot currentAggregate(long now) {
+        AggregateSnapshot aggregate = aggregateSnapshot;
+        if (aggregate != null && aggregate.isCurrent(snapshotsVersion.get(), now)) {
+        	return aggregate;
+        }
+        //a single rebuild at a time, concurrent pollers get its result
+        synchronized (aggregateLock) {
+        	aggregate = aggregateSnapshot;
+        	if (aggregate != null && aggregate.isCurrent(snapshotsVersion.get(), now)) {
+        		return aggregate;
+        	}
+        	//read before the snapshots, a change made while building triggers another rebuild
+        	long version = snapshotsVersion.get();
+        	List<AggregatedMetricsResponse> allMetrics = new ArrayList<>();
+        	long[] nextExpiry = {Long.MAX_VALUE};
+        	lineRegistry.forEachState(state -> {
+        		MetricsSnapshot metrics = currentSnapshot(state);
+        		if (metrics != null) {
+        			allMetrics.add(new AggregatedMetricsResponse(state.lineId, metrics.getAvg(), metrics.getMax(), metrics.getMin()));
+        			nextExpiry[0] = Math.min(nextExpiry[0], metrics.nextExpiry());
+        		}
+        	});
+        	try {
+        		aggregate = new AggregateSnapshot(instanceTag, version, nextExpiry[0], OBJECT_MAPPER.writeValueAsBytes(allMetrics));
+        	} catch (JsonProcessingException e) {
+        		throw new IllegalStateException("Cannot serialize the metrics", e);
+        	}
+        	aggregateSnapshot = aggregate;
+        	return aggregate;
+        }
     }
     
-    private void updateMetricsIfNecessary(Long lineId) {
+    private MetricsSnapshot currentSnapshot(Long lineId) {
+        LineState state = lineRegistry.stateOf(lineId);
+        return state == null ? null : currentSnapshot(state);
+    }
+
+    private MetricsSnapshot currentSnapshot(LineState state) {
+        MetricsSnapshot snapshot = state.snapshot;
         long now = Instant.now().toEpochMilli();
-        Long timeStamp= olderEntries.getOrDefault(lineId, null);
-        if (timeStamp != null && now - timeStamp > TIME_WINDOW) {
-        	removeOldEntries(lineId, true);
+        if (snapshot == null || !snapshot.isStale(now)) {
+        	return snapshot;
         }
+        //expire the window only if nobody holds the line, a busy writer expires it anyway
+        if (state.lock.tryLock()) {
+        	try {
+        		if (!state.removed) {
+        			removeOldEntries(state, now, true);
+        		}
+        	} finally {
+        		state.lock.unlock();
+        	}
+        }
+        return state.snapshot;
 	}
 
-	private HttpStatus requestValidation(MeasurementRequest request) {
+    public ResponseEntity<List<Long>> getLines() {
+    	List<Long> lineIds = new ArrayList<>(lineRegistry.size());
+    	lineRegistry.forEachLine(lineIds::add);
+    	return ResponseEntity.ok(lineIds);
+    }
+
+    public ResponseEntity<Void> registerLine(Long lineId) {
+    	if (lineId == LineRegistry.RESERVED_LINE_ID) {
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    	}
+    	boolean created = register(lineId);
+    	return ResponseEntity.status(created ? HttpStatus.CREATED : HttpStatus.OK).build();
+    }
+
+    public ResponseEntity<Void> deregisterLine(Long lineId) {
+    	LineState state = lockLine(lineId);
+    	if (state == null) {
+    		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    	}
+    	try {
+    		lineRegistry.deregister(lineId);
+    		state.removed = true;
+    		MeasurementJournal currentJournal = journal;
+    		if (currentJournal != null) {
+    			currentJournal.appendRegistration(lineId, false);
+    		}
+    		//free the line state right away instead of waiting for its window to expire
+    		if (state.snapshot != null) {
+    			state.snapshot = null;
+    			snapshotsVersion.incrementAndGet();
+    		}
+    		if (state.measurements != null) {
+    			meters.removeWindow(lineId);
+    		}
+    		if (state.expiryTimer != null) {
+    			expiryWheel.cancel(state.expiryTimer);
+    		}
+    		MetricsArchive currentArchive = archive;
+    		if (currentArchive != null) {
+    			//the archived history stays queryable
+    			closeRollup(state, currentArchive);
+    		}
+    	} finally {
+    		state.lock.unlock();
+    	}
+    	return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    /**
+     * Registers the line, journaled so it is registered again on recovery.
+     * @return true if the line was not registered yet
+     */
+    private boolean register(long lineId) {
+    	if (!lineRegistry.register(lineId)) {
+    		return false;
+    	}
+    	MeasurementJournal currentJournal = journal;
+    	if (currentJournal != null) {
+    		currentJournal.appendRegistration(lineId, true);
+    	}
+    	return true;
+    }
+
+    /**
+     * @return the locked state of the line, null if it is not registered
+     */
+    private LineState lockLine(long lineId) {
+    	long start = System.nanoTime();
+    	while (true) {
+    		LineState state = lineRegistry.stateOf(lineId);
+    		if (state == null) {
+    			return null;
+    		}
+    		state.lock.lock();
+    		if (!state.removed) {
+    			meters.recordLockWait(start);
+    			return state;
+    		}
+    		//the line was deregistered while waiting, it may have been registered again
+    		state.lock.unlock();
+    	}
+    }
+
+	HttpStatus requestValidation(MeasurementRequest request) {
     	//check if lineId exists
 		Long lineId = request.getLineId();
-		if (!knownLineIds.contains(lineId)) {
+		if (lineId == null || !lineRegistry.contains(lineId)) {
 			return HttpStatus.NOT_FOUND;
 		}
 		
 		//check if timestamp is older than time window
 		long now = Instant.now().toEpochMilli();
-		if (now - request.getTimestamp() > TIME_WINDOW) {
+		if (now - request.getTimestamp() > retentionWindow) {
 			return HttpStatus.NO_CONTENT;
 		}
 		return null;
 	}
 
-	private void fillOlderEntriesMap(Long lineId, Long olderEntry) {
-    	if (olderEntry== null) {
-    		//there is no entries for lineId so remove the key from hashmap
-    		olderEntries.remove(lineId);
+    /**
+     * Imports a CSV or binary stream of measurements (see {@link BulkImporter}). Rows are parsed
+     * into per line buffers first, then every line window is built on its own core and its
+     * snapshot published once.
+     */
+    public ResponseEntity<ImportResponse> importMeasurements(InputStream body, boolean csv) throws IOException {
+    	long start = System.nanoTime();
+    	long now = Instant.now().toEpochMilli();
+    	BulkImporter importer = new BulkImporter(lineRegistry::contains, now - retentionWindow);
+    	try {
+    		importer.read(body, csv);
+    	} catch (IllegalArgumentException e) {
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    	}
+    	long imported = importer.lines().parallelStream().mapToLong(this::importLine).sum();
+
+    	meters.recordImport(start, imported);
+    	return ResponseEntity.ok(new ImportResponse(imported, importer.getOutdated(), importer.getUnknownLine(),
+    			importer.getMalformed(), importer.getImported() - imported, importer.lines().size(), (System.nanoTime() - start) / 1_000_000));
+    }
+
+    /**
+     * Importer for a stream of binary frames, see {@link #ingest(BulkImporter)}.
+     */
+    BulkImporter newStreamImporter() {
+    	return new BulkImporter(lineRegistry::contains, Instant.now().toEpochMilli() - retentionWindow);
+    }
+
+    /**
+     * Stores the samples parsed by a stream importer since its previous call, each line
+     * like a batch of {@code POST /api/linespeed}, then empties its buffers for the next frames.
+     * @return the number of samples stored
+     */
+    int ingest(BulkImporter importer) {
+    	int samples = 0;
+    	for (BulkImporter.LineBuffer line : importer.lines()) {
+    		if (line.size() > 0) {
+    			samples += addToLineWindow(line.getLineId(), line);
+    		}
+    	}
+    	importer.clearLines(Instant.now().toEpochMilli() - retentionWindow);
+    	return samples;
+    }
+
+    /**
+     * Sorted first so the samples are appended, rows later than the reorder tolerance or
+     * duplicates follow the same policy as every other ingest path.
+     * @return the number of samples stored
+     */
+    private int importLine(BulkImporter.LineBuffer samples) {
+    	samples.sort();
+    	return addToLineWindow(samples.getLineId(), samples);
+    }
+
+    private MeasurementWindow windowOf(LineState state) {
+        MeasurementWindow measurements = state.measurements;
+        if (measurements == null) {
+        	if (bucketMillis > 0) {
+        		measurements = new BucketedMeasurementWindow(bucketMillis);
+        	} else {
+        		measurements = compressedStorage ? new CompressedMeasurementWindow() : new RingBufferMeasurementWindow();
+        	}
+        	state.measurements = measurements;
+        	meters.registerWindow(state.lineId, measurements);
+        }
+        return measurements;
+    }
+
+    private static void invalidateRangeIndex(LineState state) {
+        if (state.rangeIndex != null) {
+        	state.rangeIndex.invalidate();
+        }
+    }
+
+    private MultiWindowMetrics metricsOf(LineState state) {
+        if (state.metrics == null) {
+        	state.metrics = new MultiWindowMetrics(timeWindows);
+        }
+        return state.metrics;
+    }
+
+    /**
+     * Latest published metrics of a line without expiring them, null if it has none.
+     */
+    MetricsSnapshot publishedSnapshot(long lineId) {
+    	LineState state = lineRegistry.stateOf(lineId);
+    	return state == null ? null : state.snapshot;
+    }
+
+    /**
+     * Changes whenever a line snapshot is published or removed.
+     */
+    long snapshotsVersion() {
+    	return snapshotsVersion.get();
+    }
+
+    /**
+     * Records the response of a single measurement answered outside this service.
+     */
+    void recordIngest(HttpStatus status, long startNanos) {
+    	meters.recordIngest(status, startNanos);
+    }
+
+    /**
+     * Records the response of a batch answered outside this service.
+     */
+    void recordBatch(long startNanos) {
+    	meters.recordBatch(startNanos);
+    }
+
+    /**
+     * Counts an accepted measurement that no longer validates once dequeued.
+     */
+    void recordQueuedRejection(HttpStatus status) {
+    	meters.recordQueuedRejection(status);
+    }
+
+    boolean isRegistered(long lineId) {
+    	return lineRegistry.contains(lineId);
+    }
+
+    void forEachLine(LongConsumer action) {
+    	lineRegistry.forEachLine(action);
+    }
+
+    void setJournal(MeasurementJournal journal) {
+    	this.journal = journal;
+    }
+
+    void setArchive(MetricsArchive archive) {
+    	this.archive = archive;
+    }
+
+    /**
+     * Hands the minute still open on each line to the archive, once archiving stopped.
+     */
+    void closeRollups(MetricsArchive target) {
+    	lineRegistry.forEachState(state -> {
+    		state.lock.lock();
+    		try {
+    			closeRollup(state, target);
+    		} finally {
+    			state.lock.unlock();
+    		}
+    	});
+    }
+
+    /**
+     * Makes the registered lines those of the cluster this node joins: the missing ones are
+     * registered, the others deregistered.
+     */
+    void syncLines(Collection<Long> lineIds) {
+    	Set<Long> wanted = new HashSet<>(lineIds);
+    	for (long lineId : getLines().getBody()) {
+    		if (!wanted.contains(lineId)) {
+    			deregisterLine(lineId);
+    		}
+    	}
+    	for (long lineId : wanted) {
+    		registerLine(lineId);
+    	}
+    }
+
+    /**
+     * Replaces the registered lines by the ones of a snapshot, before its entries are restored.
+     */
+    void restoreLines(long[] lineIds) {
+    	lineRegistry.clear();
+    	lineRegistry.registerAll(lineIds);
+    }
+
+    /**
+     * Applies a registration or deregistration replayed from the journal.
+     */
+    void restoreRegistration(long lineId, boolean registered) {
+    	if (registered) {
+    		lineRegistry.register(lineId);
     		return;
     	}
-    	olderEntries.put(lineId, olderEntry);
+    	LineState state = lineRegistry.stateOf(lineId);
+    	if (state != null && state.measurements != null) {
+    		meters.removeWindow(lineId);
+    	}
+    	lineRegistry.deregister(lineId);
+    }
+
+    /**
+     * Stores a measurement replayed from the journal. Recovery runs before the service
+     * accepts measurements, {@link #finishRestore()} then rebuilds the metrics.
+     * Measurements of lines that are not registered (anymore) are skipped.
+     */
+    void restore(long lineId, long timestamp, double speed) {
+    	LineState state = lineRegistry.stateOf(lineId);
+    	if (state != null) {
+    		windowOf(state).put(timestamp, speed);
+    	}
+    }
+
+    /**
+     * Stores an entry read back from a snapshot.
+     */
+    void restore(long lineId, long timestamp, double speed, double min, double max) {
+    	LineState state = lineRegistry.stateOf(lineId);
+    	if (state != null) {
+    		windowOf(state).restore(timestamp, speed, min, max);
+    	}
+    }
+
+    /**
+     * Drops the restored samples that left the window and publishes the metrics of every line.
+     * @return the number of lines with samples
+     */
+    int finishRestore() {
+    	long now = Instant.now().toEpochMilli();
+    	int[] lines = {0};
+    	lineRegistry.forEachState(state -> {
+    		state.lock.lock();
+    		try {
+    			MeasurementWindow measurements = state.measurements;
+    			if (measurements == null || state.removed) {
+    				return;
+    			}
+    			while (!measurements.isEmpty() && now - measurements.firstTimestamp() > retentionWindow) {
+    				measurements.removeFirst();
+    			}
+    			metricsOf(state).recalculateMetrics(measurements, now);
+    			if (!measurements.isEmpty()) {
+    				lines[0]++;
+    			}
+    			publishSnapshot(state);
+    		} finally {
+    			state.lock.unlock();
+    		}
+    	});
+    	return lines[0];
+    }
+
+    void forEachStoredLine(LongConsumer action) {
+    	lineRegistry.forEachState(state -> {
+    		if (state.measurements != null) {
+    			action.accept(state.lineId);
+    		}
+    	});
+    }
+
+    /**
+     * Copies the stored entries of a line under its lock, for the snapshots.
+     * @return false if the line has no window
+     */
+    boolean copyWindow(long lineId, WindowCopy copy) {
+    	LineState state = lockLine(lineId);
+    	if (state == null) {
+    		//deregistered since the line IDs were listed
+    		return false;
+    	}
+    	try {
+    		if (state.measurements == null) {
+    			return false;
+    		}
+    		copy.copyFrom(state.measurements);
+    		return true;
+    	} finally {
+    		state.lock.unlock();
+    	}
+    }
+
+    /**
+     * Copies the entries of a line and empties its window, so they can be moved to the
+     * node owning the line. The line stays registered.
+     * @return false if the line has no entries
+     */
+    boolean releaseLine(long lineId, WindowCopy copy) {
+    	LineState state = lockLine(lineId);
+    	if (state == null) {
+    		return false;
+    	}
+    	try {
+    		if (state.measurements == null || state.measurements.isEmpty()) {
+    			return false;
+    		}
+    		copy.copyFrom(state.measurements);
+    		MetricsArchive currentArchive = archive;
+    		if (currentArchive != null) {
+    			//the next node weighs its first evicted sample on its own
+    			closeRollup(state, currentArchive);
+    			state.archivedUntil = LineState.NOT_ARCHIVED;
+    		}
+    		state.measurements = null;
+    		state.metrics = null;
+    		state.rangeIndex = null;
+    		meters.removeWindow(lineId);
+    		state.snapshot = null;
+    		snapshotsVersion.incrementAndGet();
+    		if (state.expiryTimer != null) {
+    			expiryWheel.schedule(state.expiryTimer, ExpiryTimerWheel.NO_DEADLINE);
+    		}
+    		return true;
+    	} finally {
+    		state.lock.unlock();
+    	}
+    }
+
+    /**
+     * Merges the entries released by another node into the window of the line. Entries
+     * already stored here are kept, newer ones are merged in order.
+     * @return false if the line is not registered, e.g. deregistered while its entries moved
+     */
+    boolean adoptLine(long lineId, WindowCopy copy) {
+    	LineState state = lockLine(lineId);
+    	if (state == null) {
+    		return false;
+    	}
+    	try {
+    		MeasurementJournal currentJournal = journal;
+    		if (currentJournal != null) {
+    			currentJournal.append(lineId, copy);
+    		}
+    		MeasurementWindow measurements = windowOf(state);
+    		for (int i = 0; i < copy.size; i++) {
+    			measurements.restore(copy.timestamps[i], copy.speeds[i], copy.mins[i], copy.maxs[i]);
+    		}
+    		long now = Instant.now().toEpochMilli();
+    		removeOldEntries(state, now, false);
+    		metricsOf(state).recalculateMetrics(measurements, now);
+    		invalidateRangeIndex(state);
+    		publishSnapshot(state);
+    	} finally {
+    		state.lock.unlock();
+    	}
+    	return true;
+    }
+
+    /**
+     * Reusable copy of the entries of a line window.
+     */
+    static final class WindowCopy implements MeasurementBatch {
+    	int size;
+    	long[] timestamps = new long[0];
+    	double[] speeds = new double[0];
+    	double[] mins = new double[0];
+    	double[] maxs = new double[0];
+
+    	void copyFrom(MeasurementWindow measurements) {
+    		resize(measurements.size());
+    		for (int i = 0; i < size; i++) {
+    			timestamps[i] = measurements.timestampAt(i);
+    			speeds[i] = measurements.speedAt(i);
+    			mins[i] = measurements.minAt(i);
+    			maxs[i] = measurements.maxAt(i);
+    		}
+    	}
+
+    	/**
+    	 * Sets the number of entries, the arrays are only reallocated when they are too short.
+    	 */
+    	void resize(int size) {
+    		this.size = size;
+    		if (timestamps.length < size) {
+    			timestamps = new long[size];
+    			speeds = new double[size];
+    			mins = new double[size];
+    			maxs = new double[size];
+    		}
+    	}
+
+    	@Override
+    	public int size() {
+    		return size;
+    	}
+
+    	@Override
+    	public long timestampAt(int index) {
+    		return timestamps[index];
+    	}
+
+    	@Override
+    	public double speedAt(int index) {
+    		return speeds[index];
+    	}
+    }
+
+	private void publishSnapshot(LineState state) {
+    	if (state.expiryTimer == null) {
+    		state.expiryTimer = expiryWheel.newTimer(state.lineId);
+    	}
+    	if (state.measurements.isEmpty()) {
+    		//there is no entries for the line so nothing to publish
+    		if (state.snapshot != null) {
+    			state.snapshot = null;
+    			snapshotsVersion.incrementAndGet();
+    		}
+    		expiryWheel.schedule(state.expiryTimer, ExpiryTimerWheel.NO_DEADLINE);
+    		return;
+    	}
+    	MetricsSnapshot snapshot = MetricsSnapshot.of(state.metrics, state.measurements);
+    	state.snapshot = snapshot;
+    	snapshotsVersion.incrementAndGet();
+    	expiryWheel.schedule(state.expiryTimer, snapshot.nextExpiry());
 	}
 
-    private void removeOldEntries(Long lineId, boolean recalculation) {
-        long now = Instant.now().toEpochMilli();
-        NavigableMap<Long, SpeedMeasurement> measurements = lineData.get(lineId);
+    private void removeOldEntries(LineState state, long now, boolean recalculation) {
+        MeasurementWindow measurements = state.measurements;
+        if (measurements == null) {
+        	return;
+        }
+        MultiWindowMetrics metrics = state.metrics;
         
-        boolean metricsRecalculation = false;
-        while (!measurements.isEmpty() && now - measurements.firstKey() > TIME_WINDOW) {
-            measurements.pollFirstEntry();
+        //windows evict first, they read the sample following the evicted one
+        boolean metricsRecalculation = metrics != null && metrics.evictExpired(measurements, now);
+        MetricsArchive currentArchive = archive;
+        while (!measurements.isEmpty() && now - measurements.firstTimestamp() > retentionWindow) {
+            if (currentArchive != null) {
+            	archiveFirst(state, measurements, currentArchive);
+            }
+            measurements.removeFirst();
+            if (state.rangeIndex != null) {
+            	state.rangeIndex.removeFirst();
+            }
             metricsRecalculation = true;
         }
+        if (currentArchive != null && measurements.isEmpty()) {
+        	//nothing left to close the minute, a later sample of it is merged in the archive
+        	closeRollup(state, currentArchive);
+        }
         
         if (metricsRecalculation && recalculation) {
-        	//recalculate Metrics
-        	if (measurements.isEmpty()) {
-        		metricsMap.remove(lineId);
-        	} else {
-                metricsMap.computeIfAbsent(lineId, k -> new RollingMetrics()).recalculateMetrics(measurements);
-        	}
-            //update olderEntriesMap after remove
-            if (measurements.size() > 0) {
-                fillOlderEntriesMap(lineId, measurements.firstKey());
-            } else {
-            	fillOlderEntriesMap(lineId, null);
-            }
+        	//metrics were already updated on eviction
+        	publishSnapshot(state);
         }
-        
-        
     }
     
-    //called every 15 seconds to clear old entries
-	@Scheduled(fixedDelay = 5 * 1000)
+    /**
+     * Adds the oldest entry to the open minute of the line, handing the previous minute to
+     * the archive when the entry starts a new one. Weighted like in the window by the time
+     * since the previous entry, at most the retention window and at least 1 ms.
+     */
+    private void archiveFirst(LineState state, MeasurementWindow measurements, MetricsArchive target) {
+        long timestamp = measurements.firstTimestamp();
+        long minute = timestamp - Math.floorMod(timestamp, MetricsArchive.MINUTE);
+        Rollup rollup = state.rollup;
+        if (rollup != null && rollup.start != minute) {
+        	target.offer(rollup);
+        	rollup = null;
+        }
+        if (rollup == null) {
+        	rollup = new Rollup(state.lineId, minute);
+        	state.rollup = rollup;
+        }
+        long duration = state.archivedUntil == LineState.NOT_ARCHIVED ? 1
+        		: Math.max(1, Math.min(retentionWindow, timestamp - state.archivedUntil));
+        rollup.add(measurements.speedAt(0), duration, measurements.minAt(0), measurements.maxAt(0));
+        state.archivedUntil = timestamp;
+    }
+
+    private static void closeRollup(LineState state, MetricsArchive target) {
+        if (state.rollup != null) {
+        	target.offer(state.rollup);
+        	state.rollup = null;
+        }
+    }
+
+    //called every tick to expire the lines whose oldest sample left the window
+	@Scheduled(fixedRate = EXPIRY_TICK)
 	public void removeOldEntriesSheduled() {
-        LOG.info("Starting removing old entries shecdule");
-        long now = Instant.now().toEpochMilli();
-        Set<Long> toUpdateLines = new HashSet<Long>();
-        //flag the lineIds that must be updated due to older entries
-        for (Entry<Long, Long> entry : olderEntries.entrySet()) {
-        	if (now - entry.getValue()>TIME_WINDOW) {
-            	toUpdateLines.add(entry.getKey());
-        	}
+        expiryWheel.advance(Instant.now().toEpochMilli(), this::expireLine);
+        meters.recordExpirySweep(expiryWheel.getLastSweepNanos());
+        if (LOG.isDebugEnabled()) {
+        	LOG.debug("Expiry sweep took " + expiryWheel.getLastSweepNanos() + " ns");
         }
-        
-        for (Long lineId : toUpdateLines) {
-            LOG.info("removing old entry for lineID " + lineId);
-            Lock lock = lineLocks.computeIfAbsent(lineId, k -> new ReentrantLock());
-            lock.lock();
-            try {
-    			removeOldEntries(lineId, true);
-            } finally {
-                lock.unlock();
-			}
-		}
+    }
 
+    public ExpiryTimerWheel getExpiryWheel() {
+    	return expiryWheel;
+    }
+
+    private void expireLine(long lineId) {
+        LineState state = lockLine(lineId);
+        if (state == null) {
+        	return;
+        }
+        try {
+			removeOldEntries(state, Instant.now().toEpochMilli(), true);
+        } finally {
+            state.lock.unlock();
+		}
+    }
 
+    private enum DuplicatePolicy {
+    	REPLACE, KEEP_FIRST, REJECT
     }
 
 }
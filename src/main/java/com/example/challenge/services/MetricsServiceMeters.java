@@ -0,0 +1,210 @@
+package com.example.challenge.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.http.HttpStatus;
+
+import com.example.challenge.domain.MeasurementWindow;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the ingest, query and expiry paths of {@link MetricsService}.
+ * Meters are resolved once so the hot path only records into them.
+ */
+class MetricsServiceMeters {
+
+	private static final String WINDOW_SAMPLES = "linespeed.window.samples";
+
+	private final MeterRegistry registry;
+	private final Timer ingestCreated;
+	private final Timer ingestOutdated;
+	private final Timer ingestUnknownLine;
+	private final Timer ingestDuplicate;
+	private final Timer ingestAccepted;
+	private final Timer ingestQueueFull;
+	private final Timer ingestUnavailable;
+	private final Counter reordered;
+	private final Counter duplicates;
+	private final Counter rejectedTooLate;
+	private final Counter rejectedDuplicate;
+	private final Counter rejectedOutdated;
+	private final Counter rejectedUnknownLine;
+	private final Timer ingestBatch;
+	private final Timer ingestImport;
+	private final DistributionSummary importSamples;
+	private final Timer lockWait;
+	private final Timer recalculation;
+	private final DistributionSummary recalculationSamples;
+	private final Timer expirySweep;
+	private final Timer queryLine;
+	private final Timer queryAll;
+
+	/**
+	 * Meters that record nothing, used until a registry is injected.
+	 */
+	MetricsServiceMeters() {
+		this(new CompositeMeterRegistry(), null);
+	}
+
+	MetricsServiceMeters(MeterRegistry registry, ExpiryTimerWheel expiryWheel) {
+		this.registry = registry;
+		ingestCreated = ingestTimer(HttpStatus.CREATED);
+		ingestOutdated = ingestTimer(HttpStatus.NO_CONTENT);
+		ingestUnknownLine = ingestTimer(HttpStatus.NOT_FOUND);
+		ingestDuplicate = ingestTimer(HttpStatus.CONFLICT);
+		ingestAccepted = ingestTimer(HttpStatus.ACCEPTED);
+		ingestQueueFull = ingestTimer(HttpStatus.TOO_MANY_REQUESTS);
+		ingestUnavailable = ingestTimer(HttpStatus.SERVICE_UNAVAILABLE);
+		reordered = Counter.builder("linespeed.ingest.reordered")
+				.description("Late samples merged into the metrics incrementally")
+				.register(registry);
+		duplicates = Counter.builder("linespeed.ingest.duplicates")
+				.description("Samples with the timestamp of a stored sample")
+				.register(registry);
+		rejectedTooLate = rejectedCounter("too_late");
+		rejectedDuplicate = rejectedCounter("duplicate");
+		rejectedOutdated = rejectedCounter("outdated");
+		rejectedUnknownLine = rejectedCounter("unknown_line");
+		ingestBatch = Timer.builder("linespeed.ingest.batch")
+				.description("Batch ingest duration")
+				.register(registry);
+		ingestImport = Timer.builder("linespeed.import")
+				.description("Bulk import duration until the metrics of every line are published")
+				.register(registry);
+		importSamples = DistributionSummary.builder("linespeed.import.samples")
+				.description("Samples stored by a bulk import")
+				.register(registry);
+		lockWait = Timer.builder("linespeed.lock.wait")
+				.description("Time spent waiting for a line lock")
+				.register(registry);
+		recalculation = Timer.builder("linespeed.recalculation")
+				.description("Full rebuild of the rolling metrics of a line")
+				.register(registry);
+		recalculationSamples = DistributionSummary.builder("linespeed.recalculation.samples")
+				.description("Samples walked by a full rebuild of the rolling metrics")
+				.register(registry);
+		expirySweep = Timer.builder("linespeed.expiry.sweep")
+				.description("Duration of an expiry timing wheel advance")
+				.register(registry);
+		queryLine = Timer.builder("linespeed.query").tag("scope", "line").register(registry);
+		queryAll = Timer.builder("linespeed.query").tag("scope", "all").register(registry);
+		if (expiryWheel != null) {
+			FunctionCounter.builder("linespeed.expiry.expired", expiryWheel, ExpiryTimerWheel::getExpiredTimers)
+					.description("Lines expired by the timing wheel")
+					.register(registry);
+			FunctionCounter.builder("linespeed.expiry.visited", expiryWheel, ExpiryTimerWheel::getVisitedTimers)
+					.description("Timers visited by the timing wheel sweeps")
+					.register(registry);
+		}
+	}
+
+	void recordIngest(HttpStatus status, long startNanos) {
+		Timer timer;
+		switch (status) {
+		case CREATED:
+			timer = ingestCreated;
+			break;
+		case ACCEPTED:
+			timer = ingestAccepted;
+			break;
+		case NO_CONTENT:
+			timer = ingestOutdated;
+			break;
+		case CONFLICT:
+			timer = ingestDuplicate;
+			break;
+		case TOO_MANY_REQUESTS:
+			timer = ingestQueueFull;
+			break;
+		case SERVICE_UNAVAILABLE:
+			timer = ingestUnavailable;
+			break;
+		default:
+			timer = ingestUnknownLine;
+		}
+		timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordReordered() {
+		reordered.increment();
+	}
+
+	void recordTooLate() {
+		rejectedTooLate.increment();
+	}
+
+	void recordDuplicate(boolean rejected) {
+		duplicates.increment();
+		if (rejected) {
+			rejectedDuplicate.increment();
+		}
+	}
+
+	/**
+	 * A queued measurement that left the window or whose line was deregistered before it was stored.
+	 */
+	void recordQueuedRejection(HttpStatus status) {
+		(status == HttpStatus.NO_CONTENT ? rejectedOutdated : rejectedUnknownLine).increment();
+	}
+
+	void recordBatch(long startNanos) {
+		ingestBatch.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordImport(long startNanos, long samples) {
+		ingestImport.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		importSamples.record(samples);
+	}
+
+	void recordLockWait(long startNanos) {
+		lockWait.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordRecalculation(long startNanos, int samples) {
+		recalculation.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		recalculationSamples.record(samples);
+	}
+
+	void recordExpirySweep(long sweepNanos) {
+		expirySweep.record(sweepNanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordQuery(boolean allLines, long startNanos) {
+		(allLines ? queryAll : queryLine).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	void registerWindow(Long lineId, MeasurementWindow measurements) {
+		Gauge.builder(WINDOW_SAMPLES, measurements, MeasurementWindow::size)
+				.description("Samples in the window of a line")
+				.tag("lineId", lineId.toString())
+				.register(registry);
+	}
+
+	void removeWindow(Long lineId) {
+		Meter gauge = registry.find(WINDOW_SAMPLES).tag("lineId", lineId.toString()).meter();
+		if (gauge != null) {
+			registry.remove(gauge);
+		}
+	}
+
+	private Counter rejectedCounter(String reason) {
+		return Counter.builder("linespeed.ingest.rejected")
+				.description("Samples rejected by the reorder tolerance, the duplicate policy or once dequeued")
+				.tag("reason", reason)
+				.register(registry);
+	}
+
+	private Timer ingestTimer(HttpStatus status) {
+		return Timer.builder("linespeed.ingest")
+				.description("Single measurement ingest duration by response status")
+				.tag("status", String.valueOf(status.value()))
+				.register(registry);
+	}
+}
@@ -0,0 +1,283 @@
+package com.example.challenge.services;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.challenge.domain.MetricsSnapshot;
+import com.example.challenge.dto.AggregatedMetricsResponse;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Server-Sent Events subscriptions to the metrics of some or all lines.
+ * <p>
+ * The ingest path is not involved: a dispatcher thread compares, every
+ * {@code min-interval-ms}, the snapshot each subscriber was last sent with the
+ * published one, so any number of updates between two pushes coalesce into the
+ * latest metrics. A subscriber gets at most one push per its interval, holding a
+ * {@code metrics} event with the changed lines and an {@code expired} event with
+ * the lines whose window emptied.
+ * <p>
+ * Pushes are written by a bounded pool of sender threads, one at a time per
+ * subscriber. A subscriber whose previous push is still being written after
+ * {@code send-timeout-ms}, or that cannot be queued on the pool, is dropped;
+ * its emitter is completed once the blocked write returns.
+ */
+@Service
+public class MetricsStreamService {
+
+	private static final Logger LOG = LogManager.getLogger(MetricsStreamService.class);
+
+	private final MetricsService metricService;
+	private final long defaultIntervalMillis;
+	private final long minIntervalMillis;
+	private final long sendTimeoutMillis;
+	private final long emitterTimeoutMillis;
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "metrics-stream-dispatcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ThreadPoolExecutor senders;
+	// snapshots version of the last complete scan, no line changed while it is current
+	private long scannedVersion = -1;
+	private volatile long dropped = 0;
+
+	public MetricsStreamService(MetricsService metricService,
+			@Value("${metrics.stream.interval-ms:1000}") long defaultIntervalMillis,
+			@Value("${metrics.stream.min-interval-ms:100}") long minIntervalMillis,
+			@Value("${metrics.stream.send-timeout-ms:5000}") long sendTimeoutMillis,
+			@Value("${metrics.stream.timeout-ms:1800000}") long emitterTimeoutMillis,
+			@Value("${metrics.stream.senders:4}") int senderThreads) {
+		this.metricService = metricService;
+		this.minIntervalMillis = Math.max(1, minIntervalMillis);
+		this.defaultIntervalMillis = Math.max(this.minIntervalMillis, defaultIntervalMillis);
+		this.sendTimeoutMillis = sendTimeoutMillis;
+		this.emitterTimeoutMillis = emitterTimeoutMillis;
+		this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(senderThreads * 64), runnable -> {
+					Thread thread = new Thread(runnable, "metrics-stream-sender");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PostConstruct
+	public void start() {
+		dispatcher.scheduleWithFixedDelay(this::dispatch, minIntervalMillis, minIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		dispatcher.shutdownNow();
+		senders.shutdownNow();
+		for (Subscriber subscriber : subscribers) {
+			subscriber.emitter.complete();
+		}
+		subscribers.clear();
+	}
+
+	/**
+	 * Subscribes to the given lines, all registered lines when {@code lineIds} is null or empty.
+	 * The current metrics of the lines are pushed right away.
+	 * @param interval minimum time between two pushes (e.g. 500ms, 2s), the configured default when null
+	 */
+	public ResponseEntity<SseEmitter> subscribe(List<Long> lineIds, String interval) {
+		if (lineIds != null) {
+			for (Long lineId : lineIds) {
+				if (lineId == null || !metricService.isRegistered(lineId)) {
+					return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+				}
+			}
+		}
+		long intervalMillis = defaultIntervalMillis;
+		if (interval != null) {
+			try {
+				intervalMillis = DurationStyle.detectAndParse(interval).toMillis();
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+			}
+			if (intervalMillis < minIntervalMillis) {
+				return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+			}
+		}
+		SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+		subscribe(emitter, lineIds, intervalMillis);
+		return ResponseEntity.ok(emitter);
+	}
+
+	Subscriber subscribe(SseEmitter emitter, List<Long> lineIds, long intervalMillis) {
+		long[] lines = lineIds == null || lineIds.isEmpty() ? null
+				: lineIds.stream().mapToLong(Long::longValue).distinct().toArray();
+		Subscriber subscriber = new Subscriber(emitter, lines, intervalMillis);
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(error -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+		return subscriber;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * Pushes the changes to the subscribers that are due, runs on the dispatcher thread only.
+	 */
+	void dispatch() {
+		try {
+			long version = metricService.snapshotsVersion();
+			boolean deferred = false;
+			long now = System.currentTimeMillis();
+			for (Subscriber subscriber : subscribers) {
+				deferred |= !dispatch(subscriber, version, now);
+			}
+			// a deferred subscriber may still miss changes of the scanned version
+			scannedVersion = deferred ? -1 : version;
+		} catch (RuntimeException e) {
+			LOG.error("Metrics stream dispatch failed", e);
+		}
+	}
+
+	/**
+	 * @return false if the subscriber is due later and has to be scanned again
+	 */
+	private boolean dispatch(Subscriber subscriber, long version, long now) {
+		long inFlightSince = subscriber.inFlightSince;
+		if (inFlightSince != 0) {
+			if (now - inFlightSince > sendTimeoutMillis) {
+				drop(subscriber, "its previous push is still being written after " + (now - inFlightSince) + " ms");
+				return true;
+			}
+			return false;
+		}
+		if (version == scannedVersion && !subscriber.initial) {
+			return true;
+		}
+		if (now - subscriber.lastPush < subscriber.intervalMillis) {
+			return false;
+		}
+		List<AggregatedMetricsResponse> changed = new ArrayList<>();
+		List<Long> expired = new ArrayList<>();
+		if (subscriber.lineIds != null) {
+			for (long lineId : subscriber.lineIds) {
+				compare(subscriber, lineId, changed, expired);
+			}
+		} else {
+			metricService.forEachLine(lineId -> compare(subscriber, lineId, changed, expired));
+			// deregistered lines are not listed anymore
+			subscriber.lastSent.keySet().removeIf(lineId -> {
+				if (metricService.isRegistered(lineId)) {
+					return false;
+				}
+				expired.add(lineId);
+				return true;
+			});
+		}
+		subscriber.initial = false;
+		if (changed.isEmpty() && expired.isEmpty()) {
+			return true;
+		}
+		subscriber.lastPush = now;
+		subscriber.inFlightSince = now;
+		try {
+			senders.execute(() -> push(subscriber, changed, expired));
+		} catch (RejectedExecutionException e) {
+			subscriber.inFlightSince = 0;
+			drop(subscriber, "the senders are saturated");
+		}
+		return true;
+	}
+
+	private void compare(Subscriber subscriber, long lineId, List<AggregatedMetricsResponse> changed, List<Long> expired) {
+		MetricsSnapshot snapshot = metricService.publishedSnapshot(lineId);
+		MetricsSnapshot sent = subscriber.lastSent.get(lineId);
+		if (snapshot == sent) {
+			return;
+		}
+		if (snapshot == null) {
+			subscriber.lastSent.remove(lineId);
+			expired.add(lineId);
+		} else {
+			subscriber.lastSent.put(lineId, snapshot);
+			changed.add(new AggregatedMetricsResponse(lineId, snapshot.getAvg(), snapshot.getMax(), snapshot.getMin()));
+		}
+	}
+
+	private void push(Subscriber subscriber, List<AggregatedMetricsResponse> changed, List<Long> expired) {
+		try {
+			if (!changed.isEmpty()) {
+				subscriber.emitter.send(SseEmitter.event().name("metrics").data(changed, MediaType.APPLICATION_JSON));
+			}
+			if (!expired.isEmpty()) {
+				subscriber.emitter.send(SseEmitter.event().name("expired").data(expired, MediaType.APPLICATION_JSON));
+			}
+		} catch (IOException | IllegalStateException e) {
+			//client went away, the emitter callbacks may not fire for an asynchronous write error
+			subscribers.remove(subscriber);
+			subscriber.emitter.completeWithError(e);
+			return;
+		}
+		subscriber.inFlightSince = 0;
+		if (subscriber.dropped) {
+			subscriber.complete();
+		}
+	}
+
+	private void drop(Subscriber subscriber, String reason) {
+		subscribers.remove(subscriber);
+		dropped++;
+		LOG.info("Dropped a metrics stream subscriber, " + reason);
+		//completing now would wait for a blocked write, the sender completes the emitter once it returns
+		subscriber.dropped = true;
+		if (subscriber.inFlightSince == 0) {
+			subscriber.complete();
+		}
+	}
+
+	static final class Subscriber {
+		final SseEmitter emitter;
+		// null for every registered line
+		final long[] lineIds;
+		final long intervalMillis;
+		// last snapshot pushed per line, only used by the dispatcher thread
+		final Map<Long, MetricsSnapshot> lastSent = new HashMap<>();
+		boolean initial = true;
+		long lastPush = 0;
+		// start of the push being written, 0 when none
+		volatile long inFlightSince = 0;
+		volatile boolean dropped = false;
+		private final AtomicBoolean completed = new AtomicBoolean();
+
+		Subscriber(SseEmitter emitter, long[] lineIds, long intervalMillis) {
+			this.emitter = emitter;
+			this.lineIds = lineIds;
+			this.intervalMillis = intervalMillis;
+		}
+
+		// called by the dispatcher and the sender that saw the drop, the emitter is completed once
+		void complete() {
+			if (completed.compareAndSet(false, true)) {
+				emitter.complete();
+			}
+		}
+	}
+}
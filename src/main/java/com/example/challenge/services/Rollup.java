@@ -0,0 +1,27 @@
+package com.example.challenge.services;
+
+/**
+ * Aggregate of the samples of a line evicted within one minute, filled under the line lock
+ * and handed to the {@link MetricsArchive} once the minute is closed.
+ */
+final class Rollup {
+
+	final long lineId;
+	final long start;
+	double weightedSum = 0;
+	long duration = 0;
+	double min = Double.POSITIVE_INFINITY;
+	double max = Double.NEGATIVE_INFINITY;
+
+	Rollup(long lineId, long start) {
+		this.lineId = lineId;
+		this.start = start;
+	}
+
+	void add(double speed, long duration, double min, double max) {
+		weightedSum += speed * duration;
+		this.duration += duration;
+		this.min = Math.min(this.min, min);
+		this.max = Math.max(this.max, max);
+	}
+}
@@ -0,0 +1,200 @@
+package com.example.challenge.services;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.MeasurementRequest;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Optional ingest mode (metrics.ingest.mode=sharded) where request threads only
+ * validate and enqueue measurements. Lines are hashed to shards, each drained
+ * in batches by a single worker thread, so a line is only ever written by one
+ * thread and its lock is never contended by other request writers. Single and
+ * batch measurements are queued; the binary ingest and the bulk import still store
+ * on their own thread, taking each line lock once per read or line.
+ * <p>
+ * On shutdown new measurements are refused and every measurement already
+ * answered 202 ACCEPTED is stored before the workers exit.
+ */
+@Service
+@ConditionalOnProperty(name = "metrics.ingest.mode", havingValue = "sharded")
+public class ShardedIngestService {
+
+	private static final Logger LOG = LogManager.getLogger(ShardedIngestService.class);
+	private static final long POLL_MILLIS = 100;
+
+	private final MetricsService metricService;
+	private final List<BlockingQueue<MeasurementRequest>> queues = new ArrayList<>();
+	private final List<Thread> workers = new ArrayList<>();
+	private final int drainBatch;
+	private volatile boolean running = false;
+	private volatile boolean stopped = false;
+	// only injected so the journal, when enabled, is closed after the queues are drained
+	@Autowired(required = false)
+	private MetricsPersistence persistence;
+
+	public ShardedIngestService(MetricsService metricService,
+			@Value("${metrics.ingest.shards:0}") int shards,
+			@Value("${metrics.ingest.queue-capacity:8192}") int queueCapacity,
+			@Value("${metrics.ingest.drain-batch:512}") int drainBatch) {
+		this.metricService = metricService;
+		this.drainBatch = drainBatch;
+		int shardCount = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < shardCount; i++) {
+			queues.add(new ArrayBlockingQueue<>(queueCapacity));
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		for (int i = 0; i < queues.size(); i++) {
+			BlockingQueue<MeasurementRequest> queue = queues.get(i);
+			Thread worker = new Thread(() -> drain(queue), "ingest-shard-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+		LOG.info("Sharded ingest started with " + queues.size() + " shards");
+	}
+
+	/**
+	 * Refuses new measurements, then lets every worker store what is left in its queue.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		stopped = true;
+		running = false;
+		boolean drained = true;
+		for (Thread worker : workers) {
+			worker.join(TimeUnit.SECONDS.toMillis(5));
+			drained &= !worker.isAlive();
+		}
+		workers.clear();
+		if (!drained) {
+			LOG.warn("Sharded ingest stopped with " + pendingMeasurements() + " measurements still queued");
+			return;
+		}
+		//offered by request threads that checked the flag just before the shutdown
+		Map<Long, List<MeasurementRequest>> batchByLine = new HashMap<>();
+		for (BlockingQueue<MeasurementRequest> queue : queues) {
+			drainRemaining(queue, new ArrayList<>(drainBatch), batchByLine);
+		}
+	}
+
+	public ResponseEntity<Void> addSpeedMeasurement(MeasurementRequest request) {
+		long start = System.nanoTime();
+		HttpStatus status = enqueue(request);
+		metricService.recordIngest(status, start);
+		return ResponseEntity.status(status).build();
+	}
+
+	/**
+	 * Queues each measurement of a batch on the shard of its line, with the statuses of
+	 * {@link #addSpeedMeasurement} in request order and 400 for a null element.
+	 */
+	public ResponseEntity<BatchMeasurementResponse> addSpeedMeasurements(List<MeasurementRequest> requests) {
+		long start = System.nanoTime();
+		int[] statuses = new int[requests.size()];
+		for (int i = 0; i < requests.size(); i++) {
+			MeasurementRequest request = requests.get(i);
+			statuses[i] = request == null ? HttpStatus.BAD_REQUEST.value() : enqueue(request).value();
+		}
+		metricService.recordBatch(start);
+		return ResponseEntity.ok(new BatchMeasurementResponse(statuses));
+	}
+
+	public int pendingMeasurements() {
+		int pending = 0;
+		for (BlockingQueue<MeasurementRequest> queue : queues) {
+			pending += queue.size();
+		}
+		return pending;
+	}
+
+	private HttpStatus enqueue(MeasurementRequest request) {
+		HttpStatus status = metricService.requestValidation(request);
+		if (status != null) {
+			return status;
+		}
+		if (stopped) {
+			return HttpStatus.SERVICE_UNAVAILABLE;
+		}
+		if (!queues.get(shardOf(request.getLineId())).offer(request)) {
+			//shard is behind, let the client retry instead of blocking the request thread
+			return HttpStatus.TOO_MANY_REQUESTS;
+		}
+		return HttpStatus.ACCEPTED;
+	}
+
+	int shardOf(Long lineId) {
+		long hash = lineId * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 32) % queues.size());
+	}
+
+	private void drain(BlockingQueue<MeasurementRequest> queue) {
+		List<MeasurementRequest> batch = new ArrayList<>(drainBatch);
+		Map<Long, List<MeasurementRequest>> batchByLine = new HashMap<>();
+		while (running) {
+			MeasurementRequest first;
+			try {
+				//polled so the worker sees the shutdown without being interrupted while storing
+				first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			if (first == null) {
+				continue;
+			}
+			batch.add(first);
+			queue.drainTo(batch, drainBatch - 1);
+			store(batch, batchByLine);
+		}
+		drainRemaining(queue, batch, batchByLine);
+	}
+
+	private void drainRemaining(BlockingQueue<MeasurementRequest> queue, List<MeasurementRequest> batch,
+			Map<Long, List<MeasurementRequest>> batchByLine) {
+		while (queue.drainTo(batch, drainBatch) > 0) {
+			store(batch, batchByLine);
+		}
+	}
+
+	private void store(List<MeasurementRequest> batch, Map<Long, List<MeasurementRequest>> batchByLine) {
+		for (MeasurementRequest request : batch) {
+			//the measurement may have left the window or its line may be gone while queued
+			HttpStatus errorStatus = metricService.requestValidation(request);
+			if (errorStatus == null) {
+				batchByLine.computeIfAbsent(request.getLineId(), k -> new ArrayList<>()).add(request);
+			} else {
+				metricService.recordQueuedRejection(errorStatus);
+			}
+		}
+		for (Entry<Long, List<MeasurementRequest>> entry : batchByLine.entrySet()) {
+			try {
+				metricService.addToLineWindow(entry.getKey(), entry.getValue());
+			} catch (RuntimeException e) {
+				LOG.error("Failed to store measurements for lineID " + entry.getKey(), e);
+			}
+		}
+		batch.clear();
+		batchByLine.clear();
+	}
+}
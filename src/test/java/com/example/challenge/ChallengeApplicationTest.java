@@ -76,6 +76,78 @@ class ChallengeApplicationTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testAddMeasurements_Batch() throws Exception {
+        List<MeasurementRequest> requests = List.of(
+                measurementRequest(30L, 100.0, currentTimestamp - 1000),
+                measurementRequest(30L, 120.0, currentTimestamp),
+                measurementRequest(30L, 110.0, currentTimestamp - 65 * 60 * 1000), // 65 minutes ago
+                measurementRequest(99L, 100.0, currentTimestamp)); // Unknown line ID
+
+        mockMvc.perform(post("/api/linespeed/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(requests)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.outdated").value(1))
+                .andExpect(jsonPath("$.unknownLine").value(1))
+                .andExpect(jsonPath("$.statuses[0]").value(201))
+                .andExpect(jsonPath("$.statuses[2]").value(204))
+                .andExpect(jsonPath("$.statuses[3]").value(404));
+
+        mockMvc.perform(get("/api/metrics/30"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testImportCsv() throws Exception {
+        // line not written by the other tests
+        mockMvc.perform(put("/api/lines/91"))
+                .andExpect(status().isCreated());
+        String csv = "lineId,timestamp,speed\n"
+                + "91," + (currentTimestamp - 30 * 60 * 1000) + ",100.0\n"
+                + "91," + currentTimestamp + ",150.0\n"
+                + "91," + (currentTimestamp - 15 * 60 * 1000) + ",200.0\n"
+                + "99," + currentTimestamp + ",1.0\n";
+
+        mockMvc.perform(post("/api/import")
+                        .contentType("text/csv")
+                        .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(3))
+                .andExpect(jsonPath("$.unknownLine").value(1))
+                .andExpect(jsonPath("$.lines").value(1));
+
+        mockMvc.perform(get("/api/metrics/91"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.avg").value(137.5))
+                .andExpect(jsonPath("$.max").value(200.0));
+    }
+
+    @Test
+    void testRegisterAndDeregisterLine() throws Exception {
+        mockMvc.perform(put("/api/lines/90"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(put("/api/lines/90"))
+                .andExpect(status().isOk());
+        addMeasurement(90L, 110.0, currentTimestamp);
+        mockMvc.perform(get("/api/metrics/90"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(delete("/api/lines/90"))
+                .andExpect(status().isNoContent());
+
+        // State is freed and the line is unknown again
+        mockMvc.perform(get("/api/metrics/90"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/api/linespeed")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(measurementRequest(90L, 110.0, currentTimestamp))))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(delete("/api/lines/90"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void testGetMetrics_Success() throws Exception {
         // Add some measurements
@@ -238,6 +310,27 @@ class ChallengeApplicationTest {
                 .andExpect(jsonPath("$[0].max").exists())
                 .andExpect(jsonPath("$[0].min").exists());
     }
+
+    @Test
+    void testGetAllMetrics_NotModified() throws Exception {
+        addMeasurement(10L, 120.0, currentTimestamp);
+        String etag = mockMvc.perform(get("/api/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/api/metrics").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+    }
+    
+    @Test
+    void testStreamMetrics() throws Exception {
+        mockMvc.perform(get("/api/metrics/stream").param("lines", "10", "20"))
+                .andExpect(request().asyncStarted());
+
+        mockMvc.perform(get("/api/metrics/stream").param("lines", "10", "99"))
+                .andExpect(status().isNotFound());
+    }
     
 	@Test
 	void testConcurrentAddsAcrossMultipleLineIds() throws Exception {
@@ -281,16 +374,21 @@ class ChallengeApplicationTest {
 
     // Helper method to add measurement via mock request
     private void addMeasurement(Long lineId, double speed, long timestamp) throws Exception {
-        MeasurementRequest request = new MeasurementRequest();
-        request.setLineId(lineId);
-        request.setSpeed(speed);
-        request.setTimestamp(timestamp);
+        MeasurementRequest request = measurementRequest(lineId, speed, timestamp);
 
         mockMvc.perform(post("/api/linespeed")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
                 .andExpect(status().isCreated());
     }
+
+    private MeasurementRequest measurementRequest(Long lineId, double speed, long timestamp) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setSpeed(speed);
+        request.setTimestamp(timestamp);
+        return request;
+    }
     
     @Test
     void testRemoveOldEntriesSheduled_Success() throws Exception {
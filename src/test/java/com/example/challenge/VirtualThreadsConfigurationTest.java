@@ -0,0 +1,29 @@
+package com.example.challenge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadsConfigurationTest {
+
+    @Test
+    void testNewVirtualThreadPerTaskExecutor() throws Exception {
+        if (Runtime.version().feature() < 21) {
+            // Act & Assert
+            IllegalStateException error = assertThrows(IllegalStateException.class,
+                    VirtualThreadsConfiguration::newVirtualThreadPerTaskExecutor);
+            assertTrue(error.getMessage().contains("Java 21"));
+            return;
+        }
+        // Act
+        ExecutorService executor = VirtualThreadsConfiguration.newVirtualThreadPerTaskExecutor();
+        Future<String> thread = executor.submit(() -> Thread.currentThread().toString());
+
+        // Assert
+        assertTrue(thread.get().startsWith("VirtualThread"));
+        executor.shutdown();
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.challenge.controllers;
 
-import com.example.challenge.dto.AggregatedMetricsResponse;
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.HistoryPointResponse;
 import com.example.challenge.dto.MeasurementRequest;
 import com.example.challenge.dto.SpeedMetricsResponse;
 import com.example.challenge.services.MetricsService;
@@ -12,7 +13,6 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
-import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -63,6 +63,23 @@ class ControllerRestTest {
         verify(metricsService, times(1)).addSpeedMeasurement(request);
     }
 
+    @Test
+    void testAddSpeedMeasurements_Batch() {
+        // Arrange
+        List<MeasurementRequest> requests = List.of(new MeasurementRequest(), new MeasurementRequest());
+        BatchMeasurementResponse mockResponse = new BatchMeasurementResponse(new int[] {201, 404});
+        when(metricsService.addSpeedMeasurements(requests))
+                .thenReturn(ResponseEntity.ok(mockResponse));
+
+        // Act
+        ResponseEntity<BatchMeasurementResponse> response = controllerRest.addSpeedMeasurements(requests);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(mockResponse, response.getBody());
+        verify(metricsService, times(1)).addSpeedMeasurements(requests);
+    }
+
     @Test
     void testGetMetrics_Success() {
         // Arrange
@@ -72,7 +89,7 @@ class ControllerRestTest {
                 .thenReturn(ResponseEntity.ok(mockResponse));
 
         // Act
-        ResponseEntity<SpeedMetricsResponse> response = controllerRest.getMetrics(lineId);
+        ResponseEntity<SpeedMetricsResponse> response = controllerRest.getMetrics(lineId, null, null, null, null);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -88,27 +105,73 @@ class ControllerRestTest {
                 .thenReturn(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
 
         // Act
-        ResponseEntity<SpeedMetricsResponse> response = controllerRest.getMetrics(lineId);
+        ResponseEntity<SpeedMetricsResponse> response = controllerRest.getMetrics(lineId, null, null, null, null);
 
         // Assert
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         verify(metricsService, times(1)).getMetrics(lineId);
     }
 
+    @Test
+    void testGetMetrics_Range() {
+        // Arrange
+        Long lineId = 11L;
+        SpeedMetricsResponse mockResponse = new SpeedMetricsResponse(120.0, 130.0, 110.0);
+        when(metricsService.getRangeMetrics(lineId, "1000", null))
+                .thenReturn(ResponseEntity.ok(mockResponse));
+
+        // Act
+        ResponseEntity<SpeedMetricsResponse> response = controllerRest.getMetrics(lineId, null, null, "1000", null);
+
+        // Assert
+        assertEquals(mockResponse, response.getBody());
+        verify(metricsService, times(1)).getRangeMetrics(lineId, "1000", null);
+    }
+
+    @Test
+    void testGetMetrics_RangeWithWindowOrPercentiles() {
+        // Arrange
+        Long lineId = 11L;
+
+        // Act
+        ResponseEntity<SpeedMetricsResponse> withWindow = controllerRest.getMetrics(lineId, "1m", null, "1000", null);
+        ResponseEntity<SpeedMetricsResponse> withPercentiles = controllerRest.getMetrics(lineId, null, "95", null, "2000");
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, withWindow.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, withPercentiles.getStatusCode());
+        verifyNoInteractions(metricsService);
+    }
+
+    @Test
+    void testGetHistory() {
+        // Arrange
+        Long lineId = 11L;
+        List<HistoryPointResponse> points = List.of(new HistoryPointResponse(60_000L, 120.0, 130.0, 110.0));
+        when(metricsService.getHistory(lineId, "0", null, "1m"))
+                .thenReturn(ResponseEntity.ok(points));
+
+        // Act
+        ResponseEntity<List<HistoryPointResponse>> response = controllerRest.getHistory(lineId, "0", null, "1m");
+
+        // Assert
+        assertEquals(points, response.getBody());
+        verify(metricsService, times(1)).getHistory(lineId, "0", null, "1m");
+    }
+
     @Test
     void testGetAllMetrics() {
         // Arrange
-        AggregatedMetricsResponse aggregatedMetrics = new AggregatedMetricsResponse(11L, 150.0, 200.0, 100.0);
-        List<AggregatedMetricsResponse> mockMetricsList = Collections.singletonList(aggregatedMetrics);
-        when(metricsService.getAllMetrics())
-                .thenReturn(ResponseEntity.ok(mockMetricsList));
+        byte[] json = "[{\"lineId\":11,\"avg\":150.0,\"max\":200.0,\"min\":100.0}]".getBytes();
+        when(metricsService.getAllMetricsJson(null))
+                .thenReturn(ResponseEntity.ok(json));
 
         // Act
-        ResponseEntity<List<AggregatedMetricsResponse>> response = controllerRest.getAllMetrics();
+        ResponseEntity<byte[]> response = controllerRest.getAllMetrics(null);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(mockMetricsList, response.getBody());
-        verify(metricsService, times(1)).getAllMetrics();
+        assertEquals(json, response.getBody());
+        verify(metricsService, times(1)).getAllMetricsJson(null);
     }
 }
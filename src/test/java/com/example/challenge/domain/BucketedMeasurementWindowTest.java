@@ -0,0 +1,101 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BucketedMeasurementWindowTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    void testPut_MergesSamplesOfTheSameBucket() {
+        // Arrange
+        BucketedMeasurementWindow window = new BucketedMeasurementWindow(1000);
+        window.put(900L, 50.0);
+
+        // Act
+        window.put(1100L, 100.0);
+        window.put(1400L, 200.0);
+        window.put(1900L, 120.0);
+
+        // Assert, weights 200, 300 and 500 ms since the previous sample
+        assertEquals(2, window.size());
+        assertEquals(1900L, window.lastTimestamp());
+        assertEquals((100.0 * 200 + 200.0 * 300 + 120.0 * 500) / 1000, window.speedAt(1), 1e-9);
+        assertEquals(100.0, window.minAt(1));
+        assertEquals(200.0, window.maxAt(1));
+    }
+
+    @Test
+    void testPut_LateSampleFoldsIntoItsBucket() {
+        // Arrange
+        BucketedMeasurementWindow window = new BucketedMeasurementWindow(1000);
+        window.put(1500L, 100.0);
+        window.put(3500L, 100.0);
+
+        // Act
+        window.put(1200L, 10.0);
+        window.put(2500L, 300.0);
+
+        // Assert
+        assertEquals(3, window.size());
+        assertEquals(1500L, window.timestampAt(0));
+        assertEquals(10.0, window.minAt(0));
+        assertEquals(2500L, window.timestampAt(1));
+        assertEquals(300.0, window.speedAt(1));
+    }
+
+    @Test
+    void testIncrementalMetrics_WithinAccuracyBoundOfRawSamples() {
+        // Arrange
+        long timeWindow = 60 * MINUTE;
+        BucketedMeasurementWindow buckets = new BucketedMeasurementWindow(1000);
+        MeasurementWindow samples = new RingBufferMeasurementWindow();
+        RollingMetrics bucketed = new RollingMetrics(timeWindow);
+        RollingMetrics raw = new RollingMetrics(timeWindow);
+        Random random = new Random(11);
+        long timestamp = 0;
+        // a sample at least once per bucket, speeds within [0, 300)
+        double bound = 300.0 * 2 * 1000 / timeWindow + 0.1;
+
+        for (int i = 0; i < 30000; i++) {
+            // Act
+            timestamp += 1 + random.nextInt(300);
+            double speed = random.nextDouble() * 300;
+            bucketed.evictExpired(buckets, timestamp);
+            while (timestamp - buckets.firstTimestamp() > timeWindow) {
+                buckets.removeFirst();
+            }
+            int size = buckets.size();
+            buckets.put(timestamp, speed);
+            if (buckets.size() > size) {
+                bucketed.addLatest(timestamp, speed);
+            } else {
+                bucketed.updateLatest(timestamp, buckets.speedAt(size - 1), buckets.minAt(size - 1), buckets.maxAt(size - 1));
+            }
+            raw.evictExpired(samples, timestamp);
+            while (timestamp - samples.firstTimestamp() > timeWindow) {
+                samples.removeFirst();
+            }
+            samples.put(timestamp, speed);
+            raw.addLatest(timestamp, speed);
+
+            // Assert
+            if (i % 1000 == 999) {
+                RollingMetrics rebuilt = new RollingMetrics(timeWindow);
+                rebuilt.recalculateMetrics(buckets);
+                assertEquals(rebuilt.getWeightedAverage(), bucketed.getWeightedAverage(), 0.1 + 1e-9);
+                assertEquals(rebuilt.getMax(), bucketed.getMax());
+                assertEquals(rebuilt.getMin(), bucketed.getMin());
+                if (timestamp > timeWindow) {
+                    assertTrue(Math.abs(raw.getWeightedAverage() - bucketed.getWeightedAverage()) <= bound);
+                }
+            }
+        }
+        assertTrue(buckets.size() <= 3601);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedMeasurementWindowTest {
+
+    @Test
+    void testOperations_MatchTheRingBuffer() {
+        // Arrange
+        CompressedMeasurementWindow compressed = new CompressedMeasurementWindow();
+        MeasurementWindow expected = new RingBufferMeasurementWindow();
+        Random random = new Random(42);
+        long timestamp = 0;
+
+        for (int i = 0; i < 20_000; i++) {
+            // Act: appends with jittered and irregular gaps, late inserts, replacements and evictions
+            int operation = random.nextInt(20);
+            if (operation < 12 || expected.size() == 0) {
+                timestamp += operation < 8 ? 1000 : 1 + random.nextInt(operation < 10 ? 5000 : 100_000);
+                double speed = operation < 4 ? 120.0 : random.nextInt(3000) / 10.0;
+                compressed.put(timestamp, speed);
+                expected.put(timestamp, speed);
+            } else if (operation < 15) {
+                long late = expected.firstTimestamp() - 5000 + (long) (random.nextDouble() * (timestamp - expected.firstTimestamp() + 5000));
+                double speed = random.nextInt(3000) / 10.0;
+                compressed.put(late, speed);
+                expected.put(late, speed);
+            } else if (operation < 16) {
+                long existing = expected.timestampAt(random.nextInt(expected.size()));
+                compressed.put(existing, -1.5);
+                expected.put(existing, -1.5);
+            } else {
+                compressed.removeFirst();
+                expected.removeFirst();
+            }
+
+            // Assert
+            assertEquals(expected.size(), compressed.size());
+            if (expected.size() == 0) {
+                continue;
+            }
+            assertEquals(expected.lastTimestamp(), compressed.lastTimestamp());
+            int index = random.nextInt(expected.size());
+            assertEquals(expected.timestampAt(index), compressed.timestampAt(index));
+            assertEquals(expected.speedAt(index), compressed.speedAt(index));
+            long probe = expected.timestampAt(index) + random.nextInt(3) - 1;
+            assertEquals(expected.indexOf(probe), compressed.indexOf(probe));
+        }
+        assertEquals(entries(expected, 0), entries(compressed, 0));
+        assertEquals(entries(expected, expected.size() / 2), entries(compressed, expected.size() / 2));
+    }
+
+    @Test
+    void testForEach_ScansAcrossBlocksAndHead() {
+        // Arrange
+        CompressedMeasurementWindow measurements = new CompressedMeasurementWindow();
+        for (int i = 0; i < 300; i++) {
+            measurements.put(1000L * i, i / 10.0);
+        }
+        for (int i = 0; i < 130; i++) {
+            measurements.removeFirst();
+        }
+
+        // Act
+        List<String> all = entries(measurements, 0);
+        List<String> tail = entries(measurements, 160);
+
+        // Assert
+        assertEquals(170, all.size());
+        assertEquals("130000=13.0/13.0/13.0", all.get(0));
+        assertEquals("299000=29.9/29.9/29.9", all.get(169));
+        assertEquals(all.subList(160, 170), tail);
+        assertTrue(entries(measurements, 170).isEmpty());
+    }
+
+    @Test
+    void testEncodedBytes_SteadySamplesTakeAFewBitsEach() {
+        // Arrange
+        CompressedMeasurementWindow measurements = new CompressedMeasurementWindow();
+
+        // Act: one sample a second at a speed changing every tenth sample
+        for (int i = 0; i < 12_800; i++) {
+            measurements.put(1_700_000_000_000L + 1000L * i, 100.0 + i / 10);
+        }
+
+        // Assert: 16 bytes per sample uncompressed
+        assertEquals(12_800, measurements.size());
+        assertTrue(measurements.encodedBytes() < 12_800, "bytes: " + measurements.encodedBytes());
+    }
+
+    private static List<String> entries(MeasurementWindow measurements, int from) {
+        List<String> entries = new ArrayList<>();
+        measurements.forEach(from, (timestamp, speed, min, max) -> entries.add(timestamp + "=" + speed + "/" + min + "/" + max));
+        return entries;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LongIntHashMapTest {
+
+    @Test
+    void testRandomOperations_MatchHashMap() {
+        // Arrange
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+
+        for (int i = 0; i < 20000; i++) {
+            // Act
+            long key = random.nextInt(500) * 10L;
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                assertEquals(removed == null ? LongIntHashMap.NO_VALUE : removed, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+
+            // Assert
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 5000; key++) {
+            assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.get(key));
+        }
+    }
+
+    @Test
+    void testPut_ReservedKeyRejected() {
+        LongIntHashMap map = new LongIntHashMap(4);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(LongIntHashMap.FREE_KEY, 1));
+    }
+
+    @Test
+    void testRemove_ReservedKeyIgnored() {
+        // Arrange
+        LongIntHashMap map = new LongIntHashMap(4);
+        map.put(1L, 10);
+
+        // Act
+        int removed = map.remove(LongIntHashMap.FREE_KEY);
+
+        // Assert
+        assertEquals(LongIntHashMap.NO_VALUE, removed);
+        assertEquals(1, map.size());
+        assertEquals(10, map.get(1L));
+    }
+}
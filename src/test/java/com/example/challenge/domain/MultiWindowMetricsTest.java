@@ -0,0 +1,70 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiWindowMetricsTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    void testAddLatest_OnlyCoveringWindows() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        MultiWindowMetrics metrics = new MultiWindowMetrics(new long[]{MINUTE, 5 * MINUTE, 60 * MINUTE});
+        long now = System.currentTimeMillis();
+
+        // Act
+        add(measurements, metrics, now - 30 * MINUTE, 100.0, now);
+        add(measurements, metrics, now - 3 * MINUTE, 200.0, now);
+        add(measurements, metrics, now, 150.0, now);
+
+        // Assert
+        assertEquals(1, metrics.window(0).getSampleCount());
+        assertEquals(150.0, metrics.window(0).getWeightedAverage());
+        assertEquals(2, metrics.window(1).getSampleCount());
+        assertEquals(200.0, metrics.window(1).getMax());
+        assertEquals(3, metrics.retentionWindow().getSampleCount());
+        assertEquals(100.0, metrics.retentionWindow().getMin());
+    }
+
+    @Test
+    void testEvictExpired_MatchesFullRecalculation() {
+        // Arrange
+        long[] timeWindows = {MINUTE, 5 * MINUTE, 15 * MINUTE};
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        MultiWindowMetrics incremental = new MultiWindowMetrics(timeWindows);
+        Random random = new Random(7);
+        long now = 0;
+
+        for (int i = 0; i < 2000; i++) {
+            // Act
+            now += 1 + random.nextInt(3000);
+            assertTrue(incremental.isLatest(now));
+            incremental.evictExpired(measurements, now);
+            while (now - measurements.firstTimestamp() > 15 * MINUTE) {
+                measurements.removeFirst();
+            }
+            add(measurements, incremental, now, random.nextDouble() * 300, now);
+
+            // Assert
+            MultiWindowMetrics rebuilt = new MultiWindowMetrics(timeWindows);
+            rebuilt.recalculateMetrics(measurements, now);
+            for (int w = 0; w < timeWindows.length; w++) {
+                assertEquals(rebuilt.window(w).getSampleCount(), incremental.window(w).getSampleCount());
+                assertEquals(rebuilt.window(w).getWeightedAverage(), incremental.window(w).getWeightedAverage());
+                assertEquals(rebuilt.window(w).getMax(), incremental.window(w).getMax());
+                assertEquals(rebuilt.window(w).getMin(), incremental.window(w).getMin());
+            }
+        }
+    }
+
+    private void add(MeasurementWindow measurements, MultiWindowMetrics metrics, long timestamp, double speed, long now) {
+        measurements.put(timestamp, speed);
+        metrics.addLatest(timestamp, speed, now);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.9, 0.95, 0.99, 0.999, 1};
+
+    @Test
+    void testQuantile_WithinRelativeAccuracy() {
+        // Arrange
+        QuantileSketch sketch = new QuantileSketch();
+        Random random = new Random(42);
+        double[] values = new double[10_000];
+
+        // Act
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 2) * 100;
+            sketch.add(values[i]);
+        }
+
+        // Assert
+        assertAccurate(values, sketch);
+    }
+
+    @Test
+    void testRemove_MatchesSketchOfRemainingValues() {
+        // Arrange
+        QuantileSketch sliding = new QuantileSketch();
+        Random random = new Random(7);
+        double[] values = new double[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 300 - 50;
+            sliding.add(values[i]);
+        }
+
+        // Act
+        for (int i = 0; i < 4000; i++) {
+            sliding.remove(values[i]);
+        }
+
+        // Assert
+        assertEquals(1000, sliding.count());
+        assertAccurate(Arrays.copyOfRange(values, 4000, values.length), sliding);
+    }
+
+    @Test
+    void testMergeWith_MatchesSingleSketch() {
+        // Arrange
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < 1000; i++) {
+            all.add(i);
+            (i % 2 == 0 ? first : second).add(i);
+        }
+
+        // Act
+        first.mergeWith(second);
+
+        // Assert
+        for (double q : QUANTILES) {
+            assertEquals(all.quantile(q), first.quantile(q));
+        }
+    }
+
+    @Test
+    void testMaxBuckets_CollapsesLowestValues() {
+        // Arrange
+        QuantileSketch sketch = new QuantileSketch(0.01, 64);
+
+        // Act
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i);
+        }
+        sketch.remove(1);
+
+        // Assert
+        assertEquals(999, sketch.count());
+        assertEquals(1000, sketch.quantile(1), 10);
+        assertEquals(990, sketch.quantile(0.99), 10);
+    }
+
+    @Test
+    void testClear_Empty() {
+        // Arrange
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(5);
+
+        // Act
+        sketch.clear();
+
+        // Assert
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+    }
+
+    private static void assertAccurate(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : QUANTILES) {
+            double exact = sorted[(int) (q * (sorted.length - 1))];
+            assertEquals(exact, sketch.quantile(q), Math.abs(exact) * QuantileSketch.DEFAULT_RELATIVE_ACCURACY + 1e-9, "quantile " + q);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeIndexTest {
+
+    @Test
+    void testRangeQueries_MatchScanOfTheEntries() {
+        // Arrange
+        RangeIndex index = new RangeIndex();
+        List<double[]> entries = new ArrayList<>();
+        Random random = new Random(42);
+        long timestamp = 0;
+
+        for (int i = 0; i < 3000; i++) {
+            // Act: appends, merges into the newest entry and evictions, wrapping and growing the ring
+            int operation = random.nextInt(10);
+            if (operation < 6 || entries.isEmpty()) {
+                timestamp += 1 + random.nextInt(1000);
+                double speed = random.nextInt(3000) / 10.0;
+                index.append(timestamp, speed, speed, speed);
+                entries.add(new double[]{timestamp, speed, speed, speed});
+            } else if (operation < 8) {
+                timestamp += random.nextInt(100);
+                double[] latest = entries.get(entries.size() - 1);
+                double speed = random.nextInt(3000) / 10.0;
+                double[] merged = {timestamp, (latest[1] + speed) / 2, Math.min(latest[2], speed), Math.max(latest[3], speed)};
+                index.updateLatest(timestamp, merged[1], merged[2], merged[3]);
+                entries.set(entries.size() - 1, merged);
+            } else {
+                index.removeFirst();
+                entries.remove(0);
+            }
+
+            // Assert
+            assertEquals(entries.size(), index.size());
+            if (entries.isEmpty()) {
+                continue;
+            }
+            long first = (long) entries.get(0)[0];
+            for (int query = 0; query < 5; query++) {
+                long from = first - 500 + random.nextInt((int) (timestamp - first) + 1000);
+                long to = from + random.nextInt(5000);
+                assertEquals(from <= timestamp, index.covers(from, to));
+                if (index.covers(from, to)) {
+                    double[] expected = scan(entries, from, Math.min(to, timestamp));
+                    assertEquals(expected[0], index.getWeightedAverage(from, to), 0.1 + 1e-9);
+                    assertEquals(expected[1], index.getMin(from, to));
+                    assertEquals(expected[2], index.getMax(from, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRebuild_IndexesTheWindow() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        measurements.put(1000, 100.0);
+        measurements.put(2000, 200.0);
+        measurements.put(4000, 50.0);
+        RangeIndex index = new RangeIndex();
+        index.invalidate();
+
+        // Act
+        index.rebuild(measurements);
+
+        // Assert
+        assertFalse(index.isStale());
+        assertEquals(3, index.size());
+        // 200 over 1000-2000, 50 over 2000-3000
+        assertEquals(125.0, index.getWeightedAverage(1000, 3000));
+        assertEquals(50.0, index.getMin(1500, 3000));
+        assertEquals(200.0, index.getMax(1500, 3000));
+        assertEquals(200.0, index.getMax(2000, 2000));
+        assertEquals(100.0, index.getWeightedAverage(0, 1000));
+        assertFalse(index.covers(4001, 5000));
+    }
+
+    // average, min and max of the entries overlapping [from, end], the oldest one extending back in time
+    private static double[] scan(List<double[]> entries, long from, long end) {
+        double integral = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double speedAtFrom = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            double[] entry = entries.get(i);
+            double start = i == 0 ? Double.NEGATIVE_INFINITY : entries.get(i - 1)[0];
+            boolean firstOverlapping = min == Double.POSITIVE_INFINITY;
+            if (entry[0] >= from && (firstOverlapping || start < end)) {
+                if (firstOverlapping) {
+                    speedAtFrom = entry[1];
+                }
+                min = Math.min(min, entry[2]);
+                max = Math.max(max, entry[3]);
+            }
+            integral += entry[1] * Math.max(0, Math.min(entry[0], end) - Math.max(start, from));
+        }
+        double average = end == from ? speedAtFrom : integral / (end - from);
+        return new double[]{RollingMetrics.roundToTenth(average), min, max};
+    }
+}
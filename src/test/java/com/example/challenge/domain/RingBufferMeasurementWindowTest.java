@@ -0,0 +1,82 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RingBufferMeasurementWindowTest {
+
+    @Test
+    void testPut_LateSampleIsInsertedInOrder() {
+        // Arrange
+        RingBufferMeasurementWindow window = new RingBufferMeasurementWindow(2);
+        window.put(100L, 1.0);
+        window.put(300L, 3.0);
+
+        // Act
+        window.put(200L, 2.0);
+
+        // Assert
+        assertEquals(3, window.size());
+        assertEquals(100L, window.timestampAt(0));
+        assertEquals(200L, window.timestampAt(1));
+        assertEquals(300L, window.timestampAt(2));
+        assertEquals(2.0, window.speedAt(1));
+    }
+
+    @Test
+    void testPut_DuplicateTimestampReplacesSpeed() {
+        // Arrange
+        RingBufferMeasurementWindow window = new RingBufferMeasurementWindow();
+        window.put(100L, 1.0);
+        window.put(200L, 2.0);
+
+        // Act
+        window.put(100L, 5.0);
+
+        // Assert
+        assertEquals(2, window.size());
+        assertEquals(5.0, window.speedAt(0));
+    }
+
+    @Test
+    void testRandomOperations_MatchTreeMap() {
+        // Arrange
+        RingBufferMeasurementWindow window = new RingBufferMeasurementWindow(4);
+        TreeMap<Long, Double> expected = new TreeMap<>();
+        Random random = new Random(7);
+        long timestamp = 0;
+
+        for (int i = 0; i < 5000; i++) {
+            // Act
+            int operation = random.nextInt(10);
+            if (operation < 3 && !expected.isEmpty()) {
+                expected.pollFirstEntry();
+                window.removeFirst();
+            } else if (operation < 5 && !expected.isEmpty()) {
+                long late = timestamp - random.nextInt(50);
+                double speed = random.nextDouble();
+                expected.put(late, speed);
+                window.put(late, speed);
+            } else {
+                timestamp += 1 + random.nextInt(10);
+                double speed = random.nextDouble();
+                expected.put(timestamp, speed);
+                window.put(timestamp, speed);
+            }
+
+            // Assert
+            assertEquals(expected.size(), window.size());
+            int index = 0;
+            for (Map.Entry<Long, Double> entry : expected.entrySet()) {
+                assertEquals(entry.getKey(), window.timestampAt(index));
+                assertEquals(entry.getValue(), window.speedAt(index));
+                index++;
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollingMetricsTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    void testAddLatest_MatchesExpectedWeightedAverage() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        RollingMetrics metrics = new RollingMetrics();
+        long now = System.currentTimeMillis();
+
+        // Act
+        add(measurements, metrics, now - 30 * MINUTE, 100.0);
+        add(measurements, metrics, now - 15 * MINUTE, 200.0);
+        add(measurements, metrics, now, 150.0);
+
+        // Assert
+        assertEquals(137.5, metrics.getWeightedAverage());
+        assertEquals(200.0, metrics.getMax());
+        assertEquals(100.0, metrics.getMin());
+    }
+
+    @Test
+    void testIncrementalUpdates_MatchFullRecalculation() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        RollingMetrics incremental = new RollingMetrics();
+        Random random = new Random(42);
+        long timestamp = 0;
+
+        for (int i = 0; i < 2000; i++) {
+            // Act
+            timestamp += 1 + random.nextInt(5000);
+            add(measurements, incremental, timestamp, random.nextDouble() * 300);
+            while (timestamp - measurements.firstTimestamp() > 60 * MINUTE) {
+                incremental.evictOldest(measurements);
+                measurements.removeFirst();
+            }
+
+            // Assert
+            RollingMetrics rebuilt = new RollingMetrics();
+            rebuilt.recalculateMetrics(measurements);
+            assertEquals(rebuilt.getWeightedAverage(), incremental.getWeightedAverage());
+            assertEquals(rebuilt.getMax(), incremental.getMax());
+            assertEquals(rebuilt.getMin(), incremental.getMin());
+            assertEquals(rebuilt.getPercentile(0.95), incremental.getPercentile(0.95));
+        }
+    }
+
+    @Test
+    void testInsert_LateSamplesMatchFullRecalculation() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        RollingMetrics incremental = new RollingMetrics();
+        Random random = new Random(7);
+        long[] timestamps = new long[3000];
+        for (int i = 1; i < timestamps.length; i++) {
+            timestamps[i] = timestamps[i - 1] + 1 + random.nextInt(1000);
+        }
+        // every sample moves up to 8 places later
+        for (int i = 1; i < timestamps.length; i++) {
+            int j = i - random.nextInt(Math.min(i, 8) + 1);
+            long swapped = timestamps[i];
+            timestamps[i] = timestamps[j];
+            timestamps[j] = swapped;
+        }
+
+        for (long timestamp : timestamps) {
+            // Act
+            double speed = random.nextDouble() * 300;
+            if (incremental.isLatest(timestamp)) {
+                add(measurements, incremental, timestamp, speed);
+            } else {
+                measurements.put(timestamp, speed);
+                incremental.insert(measurements, measurements.indexOf(timestamp));
+            }
+
+            // Assert
+            RollingMetrics rebuilt = new RollingMetrics();
+            rebuilt.recalculateMetrics(measurements);
+            assertEquals(rebuilt.getWeightedAverage(), incremental.getWeightedAverage(), 0.1);
+            assertEquals(rebuilt.getMax(), incremental.getMax());
+            assertEquals(rebuilt.getMin(), incremental.getMin());
+            assertEquals(rebuilt.getSampleCount(), incremental.getSampleCount());
+            assertEquals(rebuilt.getPercentile(0.5), incremental.getPercentile(0.5));
+        }
+    }
+
+    @Test
+    void testReplace_DuplicatesMatchFullRecalculation() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        RollingMetrics incremental = new RollingMetrics();
+        Random random = new Random(11);
+        long timestamp = 0;
+
+        for (int i = 0; i < 4000; i++) {
+            // Act, few distinct speeds so replaced samples often tie with the extrema
+            double speed = random.nextInt(20) * 10;
+            if (i % 2 == 0 || measurements.isEmpty()) {
+                timestamp += 1 + random.nextInt(5000);
+                add(measurements, incremental, timestamp, speed);
+                while (timestamp - measurements.firstTimestamp() > 60 * MINUTE) {
+                    incremental.evictOldest(measurements);
+                    measurements.removeFirst();
+                }
+            } else {
+                int index = measurements.size() - 1 - random.nextInt(Math.min(measurements.size(), 50));
+                double previous = measurements.speedAt(index);
+                measurements.put(measurements.timestampAt(index), speed);
+                incremental.replace(measurements, index, previous);
+            }
+
+            // Assert
+            RollingMetrics rebuilt = new RollingMetrics();
+            rebuilt.recalculateMetrics(measurements);
+            assertEquals(rebuilt.getWeightedAverage(), incremental.getWeightedAverage(), 0.1);
+            assertEquals(rebuilt.getMax(), incremental.getMax());
+            assertEquals(rebuilt.getMin(), incremental.getMin());
+            assertEquals(rebuilt.getPercentile(0.5), incremental.getPercentile(0.5));
+        }
+    }
+
+    @Test
+    void testEvictOldest_EmptiesWindow() {
+        // Arrange
+        MeasurementWindow measurements = new RingBufferMeasurementWindow();
+        RollingMetrics metrics = new RollingMetrics();
+        add(measurements, metrics, 1000L, 80.0);
+
+        // Act
+        metrics.evictOldest(measurements);
+        measurements.removeFirst();
+
+        // Assert
+        assertEquals(0.0, metrics.getWeightedAverage());
+        assertEquals(Double.MAX_VALUE, metrics.getMin());
+        assertEquals(Double.MIN_VALUE, metrics.getMax());
+    }
+
+    @Test
+    void testRoundToTenth_MatchesBigDecimalHalfUp() {
+        // Arrange
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1_000_000; i++) {
+            // ties k.k5 with their neighbours, then values spread over every magnitude
+            double tie = (random.nextInt(2_000_000) - 1_000_000) / 20.0;
+            double value;
+            switch (i % 5) {
+                case 0: value = tie; break;
+                case 1: value = Math.nextUp(tie); break;
+                case 2: value = Math.nextDown(tie); break;
+                case 3: value = random.nextInt(100_000) * 0.05; break;
+                default: value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(30) - 10); break;
+            }
+
+            // Act & Assert
+            assertEquals(roundWithBigDecimal(value), RollingMetrics.roundToTenth(value), "value " + value);
+        }
+        for (double value : new double[] {0.0, -0.0, 0.05, -0.05, 0.15, 1.05, 2.675, -0.04, 0x1p46, Math.nextDown(0x1p46), 1e20, Double.MAX_VALUE, Double.MIN_VALUE}) {
+            assertEquals(roundWithBigDecimal(value), RollingMetrics.roundToTenth(value), "value " + value);
+        }
+    }
+
+    private static double roundWithBigDecimal(double value) {
+        return new BigDecimal(Double.toString(value)).setScale(1, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    private void add(MeasurementWindow measurements, RollingMetrics metrics, long timestamp, double speed) {
+        measurements.put(timestamp, speed);
+        metrics.addLatest(timestamp, speed);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.SpeedMetricsResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryIngestListenerTest {
+
+    private MetricsService metricsService;
+    private BinaryIngestListener listener;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        metricsService = new MetricsService();
+        listener = new BinaryIngestListener(metricsService, 0, 64);
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        listener.stop();
+    }
+
+    @Test
+    void testTcp_RecordsSplitAcrossReads() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        ByteBuffer records = ByteBuffer.allocate(4 * BulkImporter.BINARY_RECORD_BYTES);
+        records.putLong(10L).putLong(now - 2000).putDouble(100.0);
+        records.putLong(10L).putLong(now - 1000).putDouble(200.0);
+        records.putLong(99L).putLong(now).putDouble(300.0);
+        records.putLong(20L).putLong(now).putDouble(50.0);
+        records.flip();
+
+        // Act
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", listener.getPort()))) {
+            // first record and a half, then the rest
+            writeFully(client, slice(records, 0, 36));
+            Thread.sleep(50);
+            writeFully(client, slice(records, 36, records.limit()));
+            awaitReceived(4);
+        }
+
+        // Assert
+        ResponseEntity<SpeedMetricsResponse> line10 = metricsService.getMetrics(10L);
+        assertEquals(HttpStatus.OK, line10.getStatusCode());
+        assertEquals(200.0, line10.getBody().getMax());
+        assertEquals(100.0, line10.getBody().getMin());
+        assertEquals(HttpStatus.OK, metricsService.getMetrics(20L).getStatusCode());
+        assertEquals(3, listener.getAccepted());
+    }
+
+    @Test
+    void testUdp_DatagramOfRecords() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        ByteBuffer datagram = ByteBuffer.allocate(2 * BulkImporter.BINARY_RECORD_BYTES + 5);
+        datagram.putLong(30L).putLong(now - 1000).putDouble(80.0);
+        datagram.putLong(30L).putLong(now).putDouble(90.0);
+        // truncated trailing record
+        datagram.put(new byte[5]);
+        datagram.flip();
+
+        // Act
+        try (DatagramChannel client = DatagramChannel.open()) {
+            client.send(datagram, new InetSocketAddress("localhost", listener.getPort()));
+            awaitReceived(3);
+        }
+
+        // Assert
+        assertEquals(90.0, metricsService.getMetrics(30L).getBody().getMax());
+        assertEquals(2, listener.getAccepted());
+    }
+
+    @Test
+    void testTcp_RejectedDuplicateNotAccepted() throws Exception {
+        // Arrange
+        metricsService.setReordering("", "reject");
+        long now = System.currentTimeMillis();
+        ByteBuffer records = ByteBuffer.allocate(2 * BulkImporter.BINARY_RECORD_BYTES);
+        records.putLong(40L).putLong(now).putDouble(100.0);
+        records.putLong(40L).putLong(now).putDouble(200.0);
+        records.flip();
+
+        // Act
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", listener.getPort()))) {
+            writeFully(client, records);
+            awaitReceived(2);
+        }
+
+        // Assert
+        assertEquals(100.0, metricsService.getMetrics(40L).getBody().getMax());
+        assertEquals(1, listener.getAccepted());
+    }
+
+    private void awaitReceived(long records) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.getReceived() < records && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(records, listener.getReceived());
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(from).limit(to);
+        return slice;
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws Exception {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.challenge.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkImporterTest {
+
+    @Test
+    void testReadCsv_SkipsHeaderAndCountsRejectedRows() throws IOException {
+        // Arrange
+        BulkImporter importer = new BulkImporter(lineId -> lineId == 10L, 1000L);
+        String csv = "lineId,timestamp,speed\r\n"
+                + "10,3000,120.5\r\n"
+                + " 10 , 2000 , -0.25\n"
+                + "10,500,99\n"
+                + "11,3000,1\n"
+                + "10,abc,1\n"
+                + "10,4000,1.5e2";
+
+        // Act, 7 byte reads split rows and numbers
+        importer.read(slow(csv.getBytes(StandardCharsets.US_ASCII)), true);
+
+        // Assert
+        assertEquals(3, importer.getImported());
+        assertEquals(1, importer.getOutdated());
+        assertEquals(1, importer.getUnknownLine());
+        assertEquals(1, importer.getMalformed());
+        BulkImporter.LineBuffer line = importer.lines().get(0);
+        line.sort();
+        assertEquals(2000L, line.timestampAt(0));
+        assertEquals(-0.25, line.speedAt(0));
+        assertEquals(120.5, line.speedAt(1));
+        assertEquals(150.0, line.speedAt(2));
+    }
+
+    @Test
+    void testReadBinary_TruncatedLastRecord() throws IOException {
+        // Arrange
+        BulkImporter importer = new BulkImporter(lineId -> true, 0L);
+        ByteBuffer body = ByteBuffer.allocate(2 * BulkImporter.BINARY_RECORD_BYTES + 5);
+        body.putLong(20L).putLong(2000L).putDouble(80.0);
+        body.putLong(20L).putLong(1000L).putDouble(70.0);
+
+        // Act
+        importer.read(slow(body.array()), false);
+
+        // Assert
+        assertEquals(2, importer.getImported());
+        assertEquals(1, importer.getMalformed());
+        BulkImporter.LineBuffer line = importer.lines().get(0);
+        line.sort();
+        assertEquals(1000L, line.timestampAt(0));
+        assertEquals(80.0, line.speedAt(1));
+    }
+
+    @Test
+    void testParseCsv_FastPathMatchesJdkParser() {
+        // Arrange
+        BulkImporter importer = new BulkImporter(lineId -> true, 0L);
+        String[] speeds = {"0.1", "120.35", "0.000123", "99999.99999", "7", "123456789012.3456789"};
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < speeds.length; i++) {
+            csv.append("10,").append(i).append(',').append(speeds[i]).append('\n');
+        }
+
+        // Act
+        importer.parse(ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.US_ASCII)), true, true);
+
+        // Assert
+        BulkImporter.LineBuffer line = importer.lines().get(0);
+        for (int i = 0; i < speeds.length; i++) {
+            assertEquals(Double.parseDouble(speeds[i]), line.speedAt(i));
+        }
+    }
+
+    private InputStream slow(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+    }
+}
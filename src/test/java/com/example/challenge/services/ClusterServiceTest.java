@@ -0,0 +1,246 @@
+package com.example.challenge.services;
+
+import com.example.challenge.ChallengeApplication;
+import com.example.challenge.dto.MeasurementRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterServiceTest {
+
+    private static final int LINES = 60;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (ConfigurableApplicationContext node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    void testCluster_ForwardsAndMovesLinesOnMembershipChanges() throws Exception {
+        // Arrange
+        String a = startNode();
+        String b = startNode();
+        String c = startNode();
+        assertEquals(200, send("PUT", a + "/api/cluster/nodes", OBJECT_MAPPER.writeValueAsString(List.of(a, b, c))).statusCode());
+        long now = System.currentTimeMillis();
+        StringBuilder batch = new StringBuilder("[");
+        for (int line = 0; line < LINES; line++) {
+            assertEquals(201, send("PUT", a + "/api/lines/" + lineId(line), null).statusCode());
+            assertEquals(201, send("POST", b + "/api/linespeed", measurement(lineId(line), now - 2000, 100)).statusCode());
+            batch.append(line == 0 ? "" : ",").append(measurement(lineId(line), now - 1000, 100 + line));
+        }
+        JsonNode batchResponse = OBJECT_MAPPER.readTree(send("POST", c + "/api/linespeed/batch", batch.append("]").toString()).body());
+
+        // Act
+        HttpResponse<String> all = send("GET", b + "/api/metrics", null);
+        String etag = all.headers().firstValue("ETag").orElseThrow();
+        HttpResponse<String> unchanged = send("GET", b + "/api/metrics", null, etag);
+        assertEquals(201, send("POST", a + "/api/linespeed", measurement(lineId(0), now - 500, 100)).statusCode());
+        HttpResponse<String> changed = send("GET", b + "/api/metrics", null, etag);
+
+        // Assert
+        assertEquals(LINES, batchResponse.get("created").asInt());
+        assertEquals(LINES, OBJECT_MAPPER.readTree(all.body()).size());
+        assertEquals(304, unchanged.statusCode());
+        assertEquals(200, changed.statusCode());
+        assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+        assertEquals(LINES, OBJECT_MAPPER.readTree(changed.body()).size());
+        for (String node : List.of(a, b, c)) {
+            assertTrue(storedLines(node) > 0, node + " owns no line");
+        }
+        assertEquals(LINES, storedLines(a) + storedLines(b) + storedLines(c));
+        assertMetrics(c);
+
+        // Act: c leaves on shutdown and hands its lines over
+        nodes.remove(2).close();
+
+        // Assert
+        assertEquals(sorted(a, b), nodeList(a));
+        assertEquals(LINES, storedLines(a) + storedLines(b));
+        assertMetrics(a);
+
+        // Act: d joins
+        String d = startNode();
+        assertEquals(200, send("PUT", b + "/api/cluster/nodes", OBJECT_MAPPER.writeValueAsString(List.of(a, b, d))).statusCode());
+        await(() -> storedLines(d) > 0 && storedLines(a) + storedLines(b) + storedLines(d) == LINES);
+
+        // Assert
+        assertEquals(sorted(a, b, d), nodeList(a));
+        assertMetrics(d);
+        assertEquals(LINES, OBJECT_MAPPER.readTree(send("GET", a + "/api/metrics", null).body()).size());
+    }
+
+    @Test
+    void testAdoptLines_RefusesLineDeregisteredWhileMoving() throws Exception {
+        // Arrange
+        MetricsService metricsService = new MetricsService();
+        ClusterService clusterService = new ClusterService(metricsService, List.of(), "", 128, 2000, 5000);
+        metricsService.addSpeedMeasurement(measurementRequest(10L, System.currentTimeMillis(), 100.0));
+        MetricsService.WindowCopy copy = new MetricsService.WindowCopy();
+        assertTrue(metricsService.releaseLine(10L, copy));
+        metricsService.deregisterLine(10L);
+        byte[] body = transfer(10L, copy.size);
+
+        // Act
+        ResponseEntity<List<Long>> response = clusterService.adoptLines(new ByteArrayInputStream(body), body.length);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of(10L), response.getBody());
+        assertFalse(metricsService.isRegistered(10L));
+    }
+
+    @Test
+    void testAdoptLines_EntryCountBeyondTheBody() throws Exception {
+        // Arrange
+        MetricsService metricsService = new MetricsService();
+        ClusterService clusterService = new ClusterService(metricsService, List.of(), "", 128, 2000, 5000);
+        byte[] huge = transfer(10L, Integer.MAX_VALUE);
+        byte[] negative = transfer(10L, -1);
+
+        // Act
+        ResponseEntity<List<Long>> hugeResponse = clusterService.adoptLines(new ByteArrayInputStream(huge), huge.length);
+        ResponseEntity<List<Long>> negativeResponse = clusterService.adoptLines(new ByteArrayInputStream(negative), negative.length);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, hugeResponse.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, negativeResponse.getStatusCode());
+        assertNull(metricsService.publishedSnapshot(10L));
+    }
+
+    private String startNode() {
+        // arguments override application.properties
+        ConfigurableApplicationContext node = new SpringApplicationBuilder(ChallengeApplication.class)
+                .run("--server.port=0", "--metrics.cluster.enabled=true", "--metrics.cluster.rebalance-interval-ms=100",
+                        "--logging.level.root=WARN");
+        nodes.add(node);
+        return node.getBean(ClusterService.class).getSelf();
+    }
+
+    private MetricsService service(String url) {
+        for (ConfigurableApplicationContext node : nodes) {
+            if (node.getBean(ClusterService.class).getSelf().equals(url)) {
+                return node.getBean(MetricsService.class);
+            }
+        }
+        throw new IllegalArgumentException(url);
+    }
+
+    private int storedLines(String url) {
+        MetricsService metricsService = service(url);
+        int stored = 0;
+        for (int line = 0; line < LINES; line++) {
+            if (metricsService.publishedSnapshot(lineId(line)) != null) {
+                stored++;
+            }
+        }
+        return stored;
+    }
+
+    private void assertMetrics(String url) throws Exception {
+        for (int line = 0; line < LINES; line++) {
+            HttpResponse<String> response = send("GET", url + "/api/metrics/" + lineId(line), null);
+            assertEquals(200, response.statusCode());
+            JsonNode metrics = OBJECT_MAPPER.readTree(response.body());
+            assertEquals(100 + line, metrics.get("max").asDouble());
+            assertEquals(100, metrics.get("min").asDouble());
+        }
+    }
+
+    private List<String> nodeList(String url) throws Exception {
+        List<String> members = new ArrayList<>();
+        OBJECT_MAPPER.readTree(send("GET", url + "/api/cluster/nodes", null).body()).forEach(node -> members.add(node.asText()));
+        return members;
+    }
+
+    private static List<String> sorted(String... urls) {
+        List<String> members = new ArrayList<>(List.of(urls));
+        Collections.sort(members);
+        return members;
+    }
+
+    private HttpResponse<String> send(String method, String url, String json) throws Exception {
+        return send(method, url, json, null);
+    }
+
+    private HttpResponse<String> send(String method, String url, String json, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        if (json == null) {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            request.method(method, HttpRequest.BodyPublishers.ofString(json)).header("Content-Type", "application/json");
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Body of POST /api/cluster/lines announcing the given entry count, entries at speed 100.
+     */
+    private static byte[] transfer(long lineId, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(lineId);
+        out.writeInt(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < Math.min(count, 1); i++) {
+            out.writeLong(now);
+            out.writeDouble(100.0);
+            out.writeDouble(100.0);
+            out.writeDouble(100.0);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static MeasurementRequest measurementRequest(long lineId, long timestamp, double speed) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setTimestamp(timestamp);
+        request.setSpeed(speed);
+        return request;
+    }
+
+    private static long lineId(int line) {
+        return 5000L + line;
+    }
+
+    private static String measurement(long lineId, long timestamp, double speed) {
+        return "{\"lineId\":" + lineId + ",\"speed\":" + speed + ",\"timestamp\":" + timestamp + "}";
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.challenge.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExpiryTimerWheelTest {
+
+    private static final long START = 1_000_000L;
+
+    @Test
+    void testAdvance_FiresOnlyDueTimers() {
+        // Arrange
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(100, 16, START);
+        wheel.schedule(wheel.newTimer(10L), START + 250);
+        wheel.schedule(wheel.newTimer(20L), START + 5000);
+        List<Long> expired = new ArrayList<>();
+
+        // Act
+        wheel.advance(START + 200, expired::add);
+        wheel.advance(START + 300, expired::add);
+
+        // Assert
+        assertEquals(List.of(10L), expired);
+    }
+
+    @Test
+    void testAdvance_LaterDeadlineIsRescheduled() {
+        // Arrange
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(100, 16, START);
+        ExpiryTimerWheel.Timer timer = wheel.newTimer(10L);
+        wheel.schedule(timer, START + 100);
+        List<Long> expired = new ArrayList<>();
+        wheel.advance(START, expired::add);
+
+        // Act, the oldest sample moved forward before the timer fired
+        wheel.schedule(timer, START + 3000);
+        wheel.advance(START + 1000, expired::add);
+        wheel.advance(START + 2999, expired::add);
+
+        // Assert
+        assertEquals(List.of(), expired);
+        wheel.advance(START + 3000, expired::add);
+        assertEquals(List.of(10L), expired);
+    }
+
+    @Test
+    void testAdvance_EarlierDeadlineAndCancel() {
+        // Arrange
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(100, 16, START);
+        ExpiryTimerWheel.Timer early = wheel.newTimer(10L);
+        ExpiryTimerWheel.Timer cancelled = wheel.newTimer(20L);
+        wheel.schedule(early, START + 60000);
+        wheel.schedule(cancelled, START + 500);
+        List<Long> expired = new ArrayList<>();
+        wheel.advance(START, expired::add);
+
+        // Act, a late sample became the oldest one
+        wheel.schedule(early, START + 400);
+        wheel.cancel(cancelled);
+        wheel.advance(START + 1000, expired::add);
+
+        // Assert
+        assertEquals(List.of(10L), expired);
+        assertEquals(1, wheel.getExpiredTimers());
+    }
+
+    @Test
+    void testAdvance_BeyondOneRevolution() {
+        // Arrange, 16 buckets of 100 ms cover 1.6 seconds
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(100, 16, START);
+        wheel.schedule(wheel.newTimer(10L), START + 3_600_000);
+        List<Long> expired = new ArrayList<>();
+
+        // Act
+        for (long now = START; now < START + 3_600_000; now += 100) {
+            wheel.advance(now, expired::add);
+        }
+
+        // Assert
+        assertEquals(List.of(), expired);
+        wheel.advance(START + 3_600_000, expired::add);
+        assertEquals(List.of(10L), expired);
+    }
+}
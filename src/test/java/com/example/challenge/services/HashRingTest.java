@@ -0,0 +1,59 @@
+package com.example.challenge.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+    private static final String A = "http://localhost:8084";
+    private static final String B = "http://localhost:8085";
+    private static final String C = "http://localhost:8086";
+    private static final String D = "http://localhost:8087";
+
+    @Test
+    void testOwnerOf_SameForAnyMemberOrder() {
+        // Arrange
+        HashRing ring = new HashRing(List.of(A, B, C), 128);
+        HashRing reordered = new HashRing(List.of(C, A, B), 128);
+        Map<String, Integer> owned = new HashMap<>();
+
+        // Act
+        for (long lineId = 0; lineId < 30_000; lineId++) {
+            String owner = ring.ownerOf(lineId);
+            assertEquals(owner, reordered.ownerOf(lineId));
+            owned.merge(owner, 1, Integer::sum);
+        }
+
+        // Assert
+        assertEquals(List.of(A, B, C), ring.nodes());
+        for (String node : ring.nodes()) {
+            assertTrue(owned.get(node) > 7_500 && owned.get(node) < 12_500, node + " owns " + owned.get(node));
+        }
+    }
+
+    @Test
+    void testOwnerOf_JoiningNodeOnlyTakesLines() {
+        // Arrange
+        HashRing ring = new HashRing(List.of(A, B, C), 128);
+        HashRing joined = new HashRing(List.of(A, B, C, D), 128);
+        int moved = 0;
+
+        // Act
+        for (long lineId = 0; lineId < 30_000; lineId++) {
+            String owner = joined.ownerOf(lineId);
+            if (!owner.equals(ring.ownerOf(lineId))) {
+                // lines only move to the new node, never between the others
+                assertEquals(D, owner);
+                moved++;
+            }
+        }
+
+        // Assert
+        assertTrue(moved > 5_000 && moved < 10_000, moved + " lines moved");
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.challenge.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineRegistryTest {
+
+    @Test
+    void testRegister_AssignsDenseSlots() {
+        // Arrange
+        LineRegistry registry = new LineRegistry(10L, 20L);
+
+        // Act
+        boolean created = registry.register(30L);
+        boolean duplicated = registry.register(10L);
+
+        // Assert
+        assertTrue(created);
+        assertFalse(duplicated);
+        assertEquals(3, registry.size());
+        assertEquals(0, registry.slotOf(10L));
+        assertEquals(2, registry.slotOf(30L));
+    }
+
+    @Test
+    void testDeregister_SlotIsReused() {
+        // Arrange
+        LineRegistry registry = new LineRegistry(10L, 20L, 30L);
+
+        // Act
+        assertTrue(registry.deregister(20L));
+        assertFalse(registry.deregister(20L));
+        registry.register(40L);
+
+        // Assert
+        assertFalse(registry.contains(20L));
+        assertEquals(-1, registry.slotOf(20L));
+        assertEquals(1, registry.slotOf(40L));
+        List<Long> lineIds = new ArrayList<>();
+        registry.forEachLine(lineIds::add);
+        assertEquals(List.of(10L, 40L, 30L), lineIds);
+    }
+
+    @Test
+    void testRegisterAll_ThousandsOfLines() {
+        // Arrange
+        long[] lineIds = new long[10000];
+        for (int i = 0; i < lineIds.length; i++) {
+            lineIds[i] = 1000L + i;
+        }
+
+        // Act
+        LineRegistry registry = new LineRegistry(lineIds);
+
+        // Assert
+        assertEquals(10000, registry.size());
+        assertTrue(registry.contains(10999L));
+        assertFalse(registry.contains(999L));
+    }
+
+    @Test
+    void testStateOf_NewStatePerRegistration() {
+        // Arrange
+        LineRegistry registry = new LineRegistry(10L, 20L);
+        LineState first = registry.stateOf(20L);
+
+        // Act
+        registry.deregister(20L);
+        LineState deregistered = registry.stateOf(20L);
+        registry.register(20L);
+
+        // Assert
+        assertEquals(20L, first.lineId);
+        assertNull(deregistered);
+        assertNotSame(first, registry.stateOf(20L));
+        assertNull(registry.stateOf(LineRegistry.RESERVED_LINE_ID));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.HistoryPointResponse;
+import com.example.challenge.dto.MeasurementRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsArchiveTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testQuery_MinutesAndHoursSurviveARestart() throws Exception {
+        // Arrange
+        long hour = (System.currentTimeMillis() - 2 * DAY) / (60 * MINUTE) * (60 * MINUTE);
+        MetricsArchive archive = start(new MetricsService(), "30d");
+        archive.offer(rollup(10L, hour, 100.0, 30_000, 90.0, 110.0));
+        archive.offer(rollup(10L, hour + MINUTE, 200.0, 60_000, 150.0, 250.0));
+        archive.offer(rollup(20L, hour, 50.0, 60_000, 50.0, 50.0));
+        // a minute closed again after the line emptied is merged
+        archive.offer(rollup(10L, hour + MINUTE, 200.0, 30_000, 140.0, 200.0));
+        archive.write();
+        archive.stop();
+
+        // Act
+        MetricsArchive restarted = start(new MetricsService(), "30d");
+        List<HistoryPointResponse> minutes = restarted.query(10L, hour, hour + 5 * MINUTE, "1m");
+        List<HistoryPointResponse> hours = restarted.query(10L, hour, hour, "1h");
+        List<HistoryPointResponse> defaultResolution = restarted.query(20L, hour - MINUTE, hour + MINUTE, null);
+        List<HistoryPointResponse> unknownLine = restarted.query(99L, hour, hour + MINUTE, null);
+
+        // Assert
+        assertEquals(List.of(new HistoryPointResponse(hour, 100.0, 110.0, 90.0),
+                new HistoryPointResponse(hour + MINUTE, 200.0, 250.0, 140.0)), minutes);
+        // (100 x 30 s + 200 x 90 s) / 120 s
+        assertEquals(List.of(new HistoryPointResponse(hour, 175.0, 250.0, 90.0)), hours);
+        assertEquals(List.of(new HistoryPointResponse(hour, 50.0, 50.0, 50.0)), defaultResolution);
+        assertTrue(unknownLine.isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> restarted.query(10L, hour, hour, "5m"));
+        restarted.stop();
+    }
+
+    @Test
+    void testWrite_DeletesFilesPastTheRetention() throws Exception {
+        // Arrange
+        MetricsArchive archive = start(new MetricsService(), "1d");
+        archive.offer(rollup(10L, System.currentTimeMillis() - 3 * DAY, 100.0, 1000, 100.0, 100.0));
+
+        // Act
+        archive.write();
+        archive.stop();
+        MetricsArchive restarted = start(new MetricsService(), "1d");
+
+        // Assert
+        assertFalse(Files.list(directory).anyMatch(path -> path.getFileName().toString().startsWith("1m-")));
+        assertTrue(restarted.query(10L, 0, Long.MAX_VALUE, "1m").isEmpty());
+        // hours are kept for a year by default
+        assertEquals(1, restarted.query(10L, 0, Long.MAX_VALUE, "1h").size());
+        restarted.stop();
+    }
+
+    @Test
+    void testGetHistory_ArchivesTheEvictedSamples() throws Exception {
+        // Arrange
+        MetricsService metricsService = new MetricsService();
+        metricsService.setTimeWindows("1s");
+        MetricsArchive archive = start(metricsService, "30d");
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(10L, List.of(
+                measurementRequest(10L, now - 900, 100.0),
+                measurementRequest(10L, now - 600, 300.0),
+                measurementRequest(10L, now - 300, 200.0)));
+        assertEquals(HttpStatus.NOT_FOUND, new MetricsService().getHistory(10L, null, null, null).getStatusCode());
+
+        // Act
+        TimeUnit.MILLISECONDS.sleep(1200);
+        metricsService.removeOldEntriesSheduled();
+        archive.write();
+        ResponseEntity<List<HistoryPointResponse>> history = metricsService.getHistory(10L, String.valueOf(now - MINUTE), null, null);
+        ResponseEntity<List<HistoryPointResponse>> invalid = metricsService.getHistory(10L, "yesterday", null, null);
+        ResponseEntity<List<HistoryPointResponse>> unknownLine = metricsService.getHistory(99L, null, null, null);
+
+        // Assert
+        assertEquals(HttpStatus.OK, history.getStatusCode());
+        // the samples may straddle a minute boundary
+        List<HistoryPointResponse> points = history.getBody();
+        assertFalse(points.isEmpty());
+        assertEquals(100.0, points.stream().mapToDouble(HistoryPointResponse::getMin).min().getAsDouble());
+        assertEquals(300.0, points.stream().mapToDouble(HistoryPointResponse::getMax).max().getAsDouble());
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, unknownLine.getStatusCode());
+        archive.stop();
+    }
+
+    private MetricsArchive start(MetricsService metricsService, String retention) throws Exception {
+        MetricsArchive archive = new MetricsArchive(metricsService, directory.toString(), retention, "365d", 60_000);
+        archive.start();
+        return archive;
+    }
+
+    private static Rollup rollup(long lineId, long start, double speed, long duration, double min, double max) {
+        Rollup rollup = new Rollup(lineId, start);
+        rollup.add(speed, duration, min, max);
+        return rollup;
+    }
+
+    private static MeasurementRequest measurementRequest(long lineId, long timestamp, double speed) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setTimestamp(timestamp);
+        request.setSpeed(speed);
+        return request;
+    }
+}
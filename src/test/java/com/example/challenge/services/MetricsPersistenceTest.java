@@ -0,0 +1,200 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.dto.SpeedMetricsResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsPersistenceTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRestart_ReplaysJournal() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        MetricsService before = new MetricsService();
+        MetricsPersistence persistence = start(before);
+        before.addSpeedMeasurements(List.of(
+                request(10L, now - 30 * MINUTE, 100.0),
+                request(10L, now - 15 * MINUTE, 200.0),
+                request(10L, now, 150.0)));
+        persistence.stop();
+
+        // Act
+        MetricsService after = new MetricsService();
+        start(after).stop();
+
+        // Assert
+        ResponseEntity<SpeedMetricsResponse> metrics = after.getMetrics(10L);
+        assertEquals(HttpStatus.OK, metrics.getStatusCode());
+        assertEquals(137.5, metrics.getBody().getAvg());
+        assertEquals(200.0, metrics.getBody().getMax());
+        assertEquals(100.0, metrics.getBody().getMin());
+    }
+
+    @Test
+    void testRestart_LoadsSnapshotThenNewerRecords() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        MetricsService before = new MetricsService();
+        MetricsPersistence persistence = start(before);
+        before.addSpeedMeasurement(request(10L, now - 30 * MINUTE, 100.0));
+        before.addSpeedMeasurement(request(20L, now - 20 * MINUTE, 80.0));
+        persistence.snapshot();
+        before.addSpeedMeasurement(request(10L, now - 15 * MINUTE, 200.0));
+        before.addSpeedMeasurement(request(10L, now, 150.0));
+        persistence.stop();
+
+        // Act
+        MetricsService after = new MetricsService();
+        start(after).stop();
+
+        // Assert
+        assertEquals(137.5, after.getMetrics(10L).getBody().getAvg());
+        assertEquals(80.0, after.getMetrics(20L).getBody().getAvg());
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(1, files("wal-").size());
+    }
+
+    @Test
+    void testRestart_RestoresRegisteredLines() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        MetricsService before = new MetricsService();
+        MetricsPersistence persistence = start(before);
+        before.registerLine(91L);
+        before.addSpeedMeasurement(request(91L, now - 10 * MINUTE, 100.0));
+        persistence.snapshot();
+        before.registerLine(92L);
+        before.addSpeedMeasurement(request(92L, now, 120.0));
+        before.addSpeedMeasurement(request(20L, now, 80.0));
+        before.deregisterLine(20L);
+        persistence.stop();
+
+        // Act
+        MetricsService after = new MetricsService();
+        start(after).stop();
+
+        // Assert
+        assertEquals(100.0, after.getMetrics(91L).getBody().getAvg());
+        assertEquals(120.0, after.getMetrics(92L).getBody().getAvg());
+        assertEquals(HttpStatus.NOT_FOUND, after.getMetrics(20L).getStatusCode());
+        assertTrue(after.getLines().getBody().containsAll(List.of(10L, 91L, 92L)));
+        assertFalse(after.getLines().getBody().contains(20L));
+    }
+
+    @Test
+    void testReplay_SkipsTornRecord() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        try (MeasurementJournal journal = new MeasurementJournal(directory, 1024)) {
+            journal.append(10L, List.of(request(10L, now - 2 * MINUTE, 100.0), request(10L, now - MINUTE, 50.0),
+                    request(10L, now, 200.0)));
+        }
+        Path segment = files("wal-").get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // the second record lost its last bytes
+            channel.write(ByteBuffer.wrap(new byte[8]), MeasurementJournal.RECORD_BYTES + 24);
+        }
+
+        // Act
+        MetricsService service = new MetricsService();
+        start(service).stop();
+
+        // Assert
+        assertEquals(100.0, service.getMetrics(10L).getBody().getMin());
+        assertEquals(200.0, service.getMetrics(10L).getBody().getMax());
+    }
+
+    @Test
+    void testAppend_ConcurrentWritersAcrossSegments() throws Exception {
+        // Arrange, segments of 32 records so batches straddle them while another thread flushes
+        int writers = 8;
+        int batches = 200;
+        MeasurementJournal journal = new MeasurementJournal(directory, 1024);
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            long lineId = 100L + w;
+            threads[w] = new Thread(() -> {
+                for (int b = 0; b < batches; b++) {
+                    journal.append(lineId, List.of(request(lineId, 2L * b, 1.0), request(lineId, 2L * b + 1, 1.0)));
+                }
+            });
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread flusher = new Thread(() -> {
+            while (!done.get()) {
+                journal.flush();
+            }
+        });
+
+        // Act
+        flusher.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        flusher.join();
+        journal.close();
+        Map<Long, List<Long>> timestamps = new HashMap<>();
+        MeasurementJournal.replay(directory, 0,
+                (lineId, timestamp, speed) -> timestamps.computeIfAbsent(lineId, k -> new ArrayList<>()).add(timestamp),
+                (lineId, registered) -> { });
+
+        // Assert
+        assertEquals(writers, timestamps.size());
+        for (List<Long> line : timestamps.values()) {
+            assertEquals(2 * batches, line.size());
+            for (int i = 0; i < line.size(); i++) {
+                assertEquals(i, line.get(i));
+            }
+        }
+    }
+
+    private MetricsPersistence start(MetricsService service) throws IOException {
+        MetricsPersistence persistence = new MetricsPersistence(service, directory.toString(), 1 << 16, 10, 60000);
+        persistence.start();
+        return persistence;
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private MeasurementRequest request(Long lineId, long timestamp, double speed) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setTimestamp(timestamp);
+        request.setSpeed(speed);
+        return request;
+    }
+}
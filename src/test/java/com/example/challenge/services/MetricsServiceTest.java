@@ -1,9 +1,12 @@
 package com.example.challenge.services;
 
+import com.example.challenge.domain.MeasurementWindow;
 import com.example.challenge.domain.RollingMetrics;
-import com.example.challenge.dto.AggregatedMetricsResponse;
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.ImportResponse;
 import com.example.challenge.dto.MeasurementRequest;
 import com.example.challenge.dto.SpeedMetricsResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -12,9 +15,19 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.NavigableMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -40,14 +53,14 @@ class MetricsServiceTest {
 //        request.setSpeed(100.0);
 //
 //        NavigableMap<Long, SpeedMeasurement> measurements = new TreeMap<>();
-//        when(rollingMetricsMock.recalculateMetrics(any(NavigableMap.class))).thenReturn(true);
+//        when(rollingMetricsMock.recalculateMetrics(any(MeasurementWindow.class))).thenReturn(true);
 //
 //        // Act
 //        ResponseEntity<Void> response = metricsService.addSpeedMeasurement(request);
 //
 //        // Assert
 //        assertEquals(HttpStatus.CREATED, response.getStatusCode());
-//        verify(rollingMetricsMock, times(1)).recalculateMetrics(any(NavigableMap.class));
+//        verify(rollingMetricsMock, times(1)).recalculateMetrics(any(MeasurementWindow.class));
 //    }
 
     @Test
@@ -63,24 +76,20 @@ class MetricsServiceTest {
 
         // Assert
         assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
-        verify(rollingMetricsMock, never()).recalculateMetrics(any(NavigableMap.class));
+        verify(rollingMetricsMock, never()).recalculateMetrics(any(MeasurementWindow.class));
     }
 
     @Test
     void testGetMetrics_Success() {    // Arrange
         Long lineId = 10L;
+        long now = System.currentTimeMillis();
         
         // Create an expected response with predefined values
         SpeedMetricsResponse expectedResponse = new SpeedMetricsResponse(150.0, 200.0, 100.0);
 
-        // Create a mock for RollingMetrics and configure its return values
-        RollingMetrics rollingMetricsMock = mock(RollingMetrics.class);
-        when(rollingMetricsMock.getWeightedAverage()).thenReturn(150.0);
-        when(rollingMetricsMock.getMax()).thenReturn(200.0);
-        when(rollingMetricsMock.getMin()).thenReturn(100.0);
-
-        // Populate metricsMap in the MetricsService with the mocked RollingMetrics instance
-        metricsService.metricsMap.put(lineId, rollingMetricsMock);
+        // Store two samples weighted 30 minutes each in the 60 minutes window
+        metricsService.addSpeedMeasurement(measurementRequest(lineId, now - 30 * 60 * 1000, 100.0));
+        metricsService.addSpeedMeasurement(measurementRequest(lineId, now, 200.0));
 
         // Act
         ResponseEntity<SpeedMetricsResponse> response = metricsService.getMetrics(lineId);
@@ -88,11 +97,6 @@ class MetricsServiceTest {
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals(expectedResponse, response.getBody());
-
-        // Verify that the mocked methods were called exactly once
-        verify(rollingMetricsMock, times(1)).getWeightedAverage();
-        verify(rollingMetricsMock, times(1)).getMax();
-        verify(rollingMetricsMock, times(1)).getMin();
     }
 
     @Test
@@ -112,39 +116,279 @@ class MetricsServiceTest {
     void testGetAllMetrics() {
         // Arrange
         Long lineId = 10L;
-        RollingMetrics rollingMetrics = mock(RollingMetrics.class);
-        when(rollingMetrics.getWeightedAverage()).thenReturn(120.0);
-        when(rollingMetrics.getMax()).thenReturn(150.0);
-        when(rollingMetrics.getMin()).thenReturn(90.0);
-
-        // Populate metricsMap with the mocked RollingMetrics instance
-        metricsService.metricsMap.put(lineId, rollingMetrics);
-
-        // Expected aggregated response
-        AggregatedMetricsResponse expectedResponse = new AggregatedMetricsResponse(lineId, 120.0, 150.0, 90.0);
+        long now = System.currentTimeMillis();
+        metricsService.addSpeedMeasurement(measurementRequest(lineId, now - 30 * 60 * 1000, 90.0));
+        metricsService.addSpeedMeasurement(measurementRequest(lineId, now, 150.0));
 
         // Act
-        ResponseEntity<List<AggregatedMetricsResponse>> response = metricsService.getAllMetrics();
+        ResponseEntity<byte[]> response = metricsService.getAllMetricsJson(null);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(1, response.getBody().size());
-        assertEquals(expectedResponse, response.getBody().get(0));
-        verify(rollingMetrics, times(1)).getWeightedAverage();
-        verify(rollingMetrics, times(1)).getMax();
-        verify(rollingMetrics, times(1)).getMin();}
+        assertEquals("[{\"lineId\":10,\"avg\":120.0,\"max\":150.0,\"min\":90.0}]",
+                new String(response.getBody(), StandardCharsets.UTF_8));
+    }
 
     @Test
-    void testRemoveOldEntriesScheduled() {
+    void testRemoveOldEntriesScheduled() throws InterruptedException {
         // Arrange
-        // Initialize olderEntries and lineData for this test
+        // Store a measurement that leaves the window in 50 milliseconds
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(10L);
+        request.setTimestamp(System.currentTimeMillis() - 60 * 60 * 1000 + 50);
+        request.setSpeed(100.0);
+        metricsService.addToLineWindow(10L, List.of(request));
         metricsService.removeOldEntriesSheduled();
+        assertEquals(HttpStatus.OK, metricsService.getMetrics(10L).getStatusCode());
 
         // Act
+        TimeUnit.MILLISECONDS.sleep(250);
         metricsService.removeOldEntriesSheduled();
 
         // Assert
-        verify(rollingMetricsMock, atLeastOnce()).recalculateMetrics(any(NavigableMap.class));
+        assertEquals(1, metricsService.getExpiryWheel().getExpiredTimers());
+        assertNull(metricsService.publishedSnapshot(10L));
+    }
+
+    @Test
+    void testGetMetrics_PerWindow() {
+        // Arrange
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(30L, List.of(
+                measurementRequest(30L, now - 30 * 60 * 1000, 100.0),
+                measurementRequest(30L, now - 3 * 60 * 1000, 200.0),
+                measurementRequest(30L, now, 150.0)));
+
+        // Act
+        ResponseEntity<SpeedMetricsResponse> oneMinute = metricsService.getMetrics(30L, "1m");
+        ResponseEntity<SpeedMetricsResponse> fiveMinutes = metricsService.getMetrics(30L, "5m");
+        ResponseEntity<SpeedMetricsResponse> unknownWindow = metricsService.getMetrics(30L, "7m");
+        ResponseEntity<Map<String, SpeedMetricsResponse>> windows = metricsService.getWindowMetrics(30L);
+
+        // Assert
+        assertEquals(150.0, oneMinute.getBody().getAvg());
+        assertEquals(200.0, fiveMinutes.getBody().getMax());
+        assertEquals(150.0, fiveMinutes.getBody().getMin());
+        assertEquals(HttpStatus.BAD_REQUEST, unknownWindow.getStatusCode());
+        assertEquals(List.of("1m", "5m", "15m", "60m"), List.copyOf(windows.getBody().keySet()));
+        assertEquals(100.0, windows.getBody().get("60m").getMin());
+    }
+
+    @Test
+    void testGetRangeMetrics() {
+        // Arrange
+        long now = System.currentTimeMillis();
+        long start = now - 40 * 60 * 1000;
+        metricsService.addToLineWindow(80L, List.of(
+                measurementRequest(80L, start, 100.0),
+                measurementRequest(80L, start + 10 * 60 * 1000, 200.0),
+                measurementRequest(80L, start + 20 * 60 * 1000, 50.0)));
+        ResponseEntity<SpeedMetricsResponse> before = metricsService.getRangeMetrics(80L,
+                String.valueOf(start + 5 * 60 * 1000), String.valueOf(start + 15 * 60 * 1000));
+
+        // Act: the index built by the first query follows later samples
+        metricsService.addToLineWindow(80L, List.of(measurementRequest(80L, start + 30 * 60 * 1000, 300.0)));
+        ResponseEntity<SpeedMetricsResponse> after = metricsService.getRangeMetrics(80L,
+                Instant.ofEpochMilli(start + 20 * 60 * 1000).toString(), null);
+        ResponseEntity<SpeedMetricsResponse> reversed = metricsService.getRangeMetrics(80L, String.valueOf(now), String.valueOf(start));
+        ResponseEntity<SpeedMetricsResponse> invalid = metricsService.getRangeMetrics(80L, "yesterday", null);
+        ResponseEntity<SpeedMetricsResponse> future = metricsService.getRangeMetrics(80L, String.valueOf(now + 60_000), null);
+
+        // Assert
+        // 200 over the first five minutes, 50 over the next five
+        assertEquals(125.0, before.getBody().getAvg());
+        assertEquals(200.0, before.getBody().getMax());
+        assertEquals(50.0, before.getBody().getMin());
+        assertEquals(300.0, after.getBody().getAvg());
+        assertEquals(50.0, after.getBody().getMin());
+        assertEquals(HttpStatus.BAD_REQUEST, reversed.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, future.getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, metricsService.getRangeMetrics(99L, null, null).getStatusCode());
+    }
+
+    @Test
+    void testGetMetrics_Percentiles() {
+        // Arrange
+        long now = System.currentTimeMillis();
+        List<MeasurementRequest> measurements = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            measurements.add(measurementRequest(40L, now - (100 - i) * 1000, i));
+        }
+        metricsService.addToLineWindow(40L, measurements);
+
+        // Act
+        ResponseEntity<SpeedMetricsResponse> response = metricsService.getMetrics(40L, null, "50,99,100");
+        ResponseEntity<SpeedMetricsResponse> oneMinute = metricsService.getMetrics(40L, "1m", "50");
+        ResponseEntity<SpeedMetricsResponse> invalid = metricsService.getMetrics(40L, null, "0,abc");
+        ResponseEntity<SpeedMetricsResponse> unknownLine = metricsService.getMetrics(99L, null, "50");
+
+        // Assert
+        Map<String, Double> percentiles = response.getBody().getPercentiles();
+        assertEquals(List.of("p50", "p99", "p100"), List.copyOf(percentiles.keySet()));
+        assertEquals(50.0, percentiles.get("p50"), 0.5);
+        assertEquals(99.0, percentiles.get("p99"), 1.0);
+        assertEquals(100.0, percentiles.get("p100"));
+        assertEquals(70.0, oneMinute.getBody().getPercentiles().get("p50"), 0.7);
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, unknownLine.getStatusCode());
+    }
+
+    @Test
+    void testGetAllMetricsJson_CachedUntilALineChanges() {
+        // Arrange
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(10L, List.of(measurementRequest(10L, now, 100.0)));
+        ResponseEntity<byte[]> first = metricsService.getAllMetricsJson(null);
+        String etag = first.getHeaders().getETag();
+
+        // Act
+        ResponseEntity<byte[]> unchanged = metricsService.getAllMetricsJson(etag);
+        ResponseEntity<byte[]> again = metricsService.getAllMetricsJson(null);
+        metricsService.addToLineWindow(20L, List.of(measurementRequest(20L, now, 80.0)));
+        ResponseEntity<byte[]> changed = metricsService.getAllMetricsJson(etag);
+
+        // Assert
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertEquals("[{\"lineId\":10,\"avg\":100.0,\"max\":100.0,\"min\":100.0}]", new String(first.getBody()));
+        assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+        assertSame(first.getBody(), again.getBody());
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+    }
+
+    @Test
+    void testMeters_IngestAndWindowSize() {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metricsService.setMeterRegistry(registry);
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(20L);
+        request.setTimestamp(System.currentTimeMillis());
+        request.setSpeed(100.0);
+
+        // Act
+        metricsService.addSpeedMeasurement(request);
+        request.setLineId(99L);
+        metricsService.addSpeedMeasurement(request);
+
+        // Assert
+        assertEquals(1, registry.get("linespeed.ingest").tag("status", "201").timer().count());
+        assertEquals(1, registry.get("linespeed.ingest").tag("status", "404").timer().count());
+        assertEquals(1, registry.get("linespeed.lock.wait").timer().count());
+        assertEquals(1.0, registry.get("linespeed.window.samples").tag("lineId", "20").gauge().value());
+    }
+
+    @Test
+    void testAddSpeedMeasurements_NullElement() {
+        // Act
+        ResponseEntity<BatchMeasurementResponse> response = metricsService.addSpeedMeasurements(Arrays.asList(
+                measurementRequest(20L, System.currentTimeMillis(), 100.0),
+                null));
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new int[] {201, 400}, response.getBody().getStatuses());
+        assertEquals(1, response.getBody().getCreated());
+    }
+
+    @Test
+    void testAddSpeedMeasurements_ReorderToleranceAndDuplicates() {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metricsService.setMeterRegistry(registry);
+        metricsService.setReordering("10s", "reject");
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(50L, List.of(
+                measurementRequest(50L, now - 20_000, 100.0),
+                measurementRequest(50L, now, 200.0)));
+
+        // Act
+        ResponseEntity<BatchMeasurementResponse> response = metricsService.addSpeedMeasurements(List.of(
+                measurementRequest(50L, now - 5_000, 50.0),
+                measurementRequest(50L, now - 15_000, 10.0),
+                measurementRequest(50L, now, 300.0)));
+
+        // Assert
+        assertArrayEquals(new int[] {201, 204, 409}, response.getBody().getStatuses());
+        SpeedMetricsResponse metrics = metricsService.getMetrics(50L).getBody();
+        assertEquals(50.0, metrics.getMin());
+        assertEquals(200.0, metrics.getMax());
+        assertEquals(1.0, registry.get("linespeed.ingest.reordered").counter().count());
+        assertEquals(1.0, registry.get("linespeed.ingest.duplicates").counter().count());
+        assertEquals(1.0, registry.get("linespeed.ingest.rejected").tag("reason", "too_late").counter().count());
+        assertEquals(1.0, registry.get("linespeed.ingest.rejected").tag("reason", "duplicate").counter().count());
+        assertEquals(0, registry.get("linespeed.recalculation").timer().count());
+    }
+
+    @Test
+    void testAddSpeedMeasurement_DuplicatePolicies() {
+        // Arrange
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(60L, List.of(measurementRequest(60L, now, 100.0)));
+        metricsService.addToLineWindow(70L, List.of(measurementRequest(70L, now, 100.0)));
+
+        // Act
+        metricsService.addSpeedMeasurement(measurementRequest(60L, now, 150.0));
+        metricsService.setReordering("", "keep-first");
+        ResponseEntity<Void> kept = metricsService.addSpeedMeasurement(measurementRequest(70L, now, 150.0));
+
+        // Assert
+        assertEquals(150.0, metricsService.getMetrics(60L).getBody().getMax());
+        assertEquals(HttpStatus.CREATED, kept.getStatusCode());
+        assertEquals(100.0, metricsService.getMetrics(70L).getBody().getMax());
+    }
+
+    @Test
+    void testAddSpeedMeasurement_ReplaceAdjustsIncrementally() {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metricsService.setMeterRegistry(registry);
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(60L, List.of(
+                measurementRequest(60L, now - 30 * 60 * 1000, 100.0),
+                measurementRequest(60L, now, 200.0)));
+
+        // Act
+        ResponseEntity<Void> response = metricsService.addSpeedMeasurement(measurementRequest(60L, now - 30 * 60 * 1000, 50.0));
+
+        // Assert
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        SpeedMetricsResponse metrics = metricsService.getMetrics(60L).getBody();
+        assertEquals(125.0, metrics.getAvg());
+        assertEquals(50.0, metrics.getMin());
+        assertEquals(1.0, registry.get("linespeed.ingest.duplicates").counter().count());
+        assertEquals(0, registry.get("linespeed.recalculation").timer().count());
+    }
+
+    @Test
+    void testImportMeasurements_FollowsDuplicatePolicy() throws Exception {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metricsService.setMeterRegistry(registry);
+        metricsService.setReordering("", "reject");
+        long now = System.currentTimeMillis();
+        metricsService.addToLineWindow(70L, List.of(measurementRequest(70L, now, 100.0)));
+        String csv = "70," + now + ",300.0\n70," + (now - 60_000) + ",80.0\n";
+
+        // Act
+        ResponseEntity<ImportResponse> response = metricsService.importMeasurements(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)), true);
+
+        // Assert
+        assertEquals(1, response.getBody().getImported());
+        assertEquals(1, response.getBody().getRejected());
+        assertEquals(100.0, metricsService.getMetrics(70L).getBody().getMax());
+        assertEquals(80.0, metricsService.getMetrics(70L).getBody().getMin());
+        assertEquals(1.0, registry.get("linespeed.ingest.rejected").tag("reason", "duplicate").counter().count());
+    }
+
+    private MeasurementRequest measurementRequest(Long lineId, long timestamp, double speed) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setTimestamp(timestamp);
+        request.setSpeed(speed);
+        return request;
     }
 
 }
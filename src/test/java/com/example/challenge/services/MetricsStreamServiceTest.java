@@ -0,0 +1,146 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.AggregatedMetricsResponse;
+import com.example.challenge.dto.MeasurementRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsStreamServiceTest {
+
+    @Test
+    void testDispatch_CoalescesUpdatesToTheLatestMetrics() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        MetricsService metricsService = new MetricsService();
+        MetricsStreamService streamService = new MetricsStreamService(metricsService, 1000, 10, 5000, 0, 1);
+        RecordingEmitter emitter = new RecordingEmitter(null);
+        MetricsStreamService.Subscriber subscriber = streamService.subscribe(emitter, List.of(10L), 60_000);
+        metricsService.addToLineWindow(20L, List.of(request(20L, now, 50.0)));
+        metricsService.addToLineWindow(10L, List.of(request(10L, now - 2000, 100.0)));
+        metricsService.addToLineWindow(10L, List.of(request(10L, now - 1000, 200.0)));
+
+        // Act
+        streamService.dispatch();
+        emitter.awaitFirstSend();
+        //within the interval of the first push, the change waits for the next one
+        metricsService.addToLineWindow(10L, List.of(request(10L, now, 300.0)));
+        streamService.dispatch();
+        Thread.sleep(50);
+
+        // Assert
+        assertEquals(1, emitter.events.size());
+        List<?> metrics = emitter.events.get(0);
+        assertEquals(1, metrics.size());
+        AggregatedMetricsResponse line = (AggregatedMetricsResponse) metrics.get(0);
+        assertEquals(10L, line.getLineId());
+        assertEquals(200.0, line.getMax());
+        assertEquals(1, streamService.getSubscriberCount());
+        assertEquals(0, subscriber.inFlightSince);
+    }
+
+    @Test
+    void testDispatch_DropsSlowSubscriberWithoutBlockingIngest() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        MetricsService metricsService = new MetricsService();
+        MetricsStreamService streamService = new MetricsStreamService(metricsService, 1000, 1, 50, 0, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(release);
+        streamService.subscribe(slow, null, 1);
+        metricsService.addToLineWindow(10L, List.of(request(10L, now, 100.0)));
+        streamService.dispatch();
+        slow.awaitFirstSend();
+
+        // Act
+        long start = System.nanoTime();
+        metricsService.addToLineWindow(10L, List.of(request(10L, now + 1, 120.0)));
+        long ingestMillis = (System.nanoTime() - start) / 1_000_000;
+        Thread.sleep(100);
+        streamService.dispatch();
+        boolean completedWhileBlocked = slow.completed;
+        release.countDown();
+
+        // Assert
+        assertTrue(ingestMillis < 50);
+        assertEquals(0, streamService.getSubscriberCount());
+        assertEquals(1, streamService.getDroppedCount());
+        assertFalse(completedWhileBlocked);
+        assertTrue(slow.awaitCompletion());
+    }
+
+    @Test
+    void testSubscribe_UnknownLineOrInterval() {
+        // Arrange
+        MetricsStreamService streamService = new MetricsStreamService(new MetricsService(), 1000, 100, 5000, 0, 1);
+
+        // Act & Assert
+        assertEquals(HttpStatus.NOT_FOUND, streamService.subscribe(List.of(10L, 99L), null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, streamService.subscribe(List.of(10L), "10ms").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, streamService.subscribe(List.of(10L), "soon").getStatusCode());
+        assertEquals(HttpStatus.OK, streamService.subscribe(List.of(10L), "500ms").getStatusCode());
+        assertEquals(1, streamService.getSubscriberCount());
+    }
+
+    private MeasurementRequest request(Long lineId, long timestamp, double speed) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setTimestamp(timestamp);
+        request.setSpeed(speed);
+        return request;
+    }
+
+    // records the data of the events, optionally blocking every send like a client that stopped reading
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<List<?>> events = new ArrayList<>();
+        private final CountDownLatch sent = new CountDownLatch(1);
+        private final CountDownLatch completion = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private volatile boolean completed = false;
+
+        RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            for (ResponseBodyEmitter.DataWithMediaType data : builder.build()) {
+                if (data.getData() instanceof List) {
+                    synchronized (events) {
+                        events.add((List<?>) data.getData());
+                    }
+                }
+            }
+            sent.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+            completion.countDown();
+        }
+
+        void awaitFirstSend() throws InterruptedException {
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+        }
+
+        boolean awaitCompletion() throws InterruptedException {
+            return completion.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
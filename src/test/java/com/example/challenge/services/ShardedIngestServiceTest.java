@@ -0,0 +1,140 @@
+package com.example.challenge.services;
+
+import com.example.challenge.dto.BatchMeasurementResponse;
+import com.example.challenge.dto.MeasurementRequest;
+import com.example.challenge.dto.SpeedMetricsResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardedIngestServiceTest {
+
+    private final MetricsService metricsService = new MetricsService();
+
+    private ShardedIngestService shardedIngestService;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        shardedIngestService.stop();
+    }
+
+    @Test
+    void testAddSpeedMeasurement_AcceptedAndStoredByWorker() throws InterruptedException {
+        // Arrange
+        shardedIngestService = new ShardedIngestService(metricsService, 2, 16, 8);
+        shardedIngestService.start();
+
+        // Act
+        ResponseEntity<Void> response = shardedIngestService.addSpeedMeasurement(request(10L, System.currentTimeMillis()));
+
+        // Assert
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        ResponseEntity<SpeedMetricsResponse> metrics = metricsService.getMetrics(10L);
+        for (int i = 0; i < 100 && metrics.getStatusCode() != HttpStatus.OK; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            metrics = metricsService.getMetrics(10L);
+        }
+        assertEquals(HttpStatus.OK, metrics.getStatusCode());
+        assertEquals(120.0, metrics.getBody().getAvg());
+    }
+
+    @Test
+    void testAddSpeedMeasurement_QueueFull() {
+        // Arrange, workers are not started so the single slot queue stays full
+        shardedIngestService = new ShardedIngestService(metricsService, 1, 1, 8);
+        shardedIngestService.addSpeedMeasurement(request(10L, System.currentTimeMillis()));
+
+        // Act
+        ResponseEntity<Void> response = shardedIngestService.addSpeedMeasurement(request(10L, System.currentTimeMillis()));
+
+        // Assert
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+    }
+
+    @Test
+    void testAddSpeedMeasurement_ValidatedBeforeQueueing() {
+        // Arrange
+        shardedIngestService = new ShardedIngestService(metricsService, 1, 1, 8);
+
+        // Act
+        ResponseEntity<Void> unknownLine = shardedIngestService.addSpeedMeasurement(request(99L, System.currentTimeMillis()));
+        ResponseEntity<Void> outdated = shardedIngestService.addSpeedMeasurement(request(10L, System.currentTimeMillis() - 65 * 60 * 1000));
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, unknownLine.getStatusCode());
+        assertEquals(HttpStatus.NO_CONTENT, outdated.getStatusCode());
+        assertEquals(0, shardedIngestService.pendingMeasurements());
+    }
+
+    @Test
+    void testAddSpeedMeasurements_BatchQueuedOnShards() {
+        // Arrange, workers are not started so the batch stays queued
+        shardedIngestService = new ShardedIngestService(metricsService, 2, 16, 8);
+        long now = System.currentTimeMillis();
+
+        // Act
+        ResponseEntity<BatchMeasurementResponse> response = shardedIngestService.addSpeedMeasurements(
+                Arrays.asList(request(10L, now), request(20L, now), request(99L, now), null));
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new int[] {202, 202, 404, 400}, response.getBody().getStatuses());
+        assertEquals(2, response.getBody().getAccepted());
+        assertEquals(2, shardedIngestService.pendingMeasurements());
+        assertEquals(HttpStatus.NOT_FOUND, metricsService.getMetrics(10L).getStatusCode());
+    }
+
+    @Test
+    void testStop_StoresQueuedMeasurements() throws InterruptedException {
+        // Arrange, workers are not started so the measurements stay queued
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metricsService.setMeterRegistry(registry);
+        shardedIngestService = new ShardedIngestService(metricsService, 2, 16, 8);
+        shardedIngestService.addSpeedMeasurement(request(10L, System.currentTimeMillis()));
+        shardedIngestService.addSpeedMeasurement(request(20L, System.currentTimeMillis()));
+
+        // Act
+        shardedIngestService.stop();
+        ResponseEntity<Void> afterStop = shardedIngestService.addSpeedMeasurement(request(10L, System.currentTimeMillis()));
+
+        // Assert
+        assertEquals(0, shardedIngestService.pendingMeasurements());
+        assertEquals(HttpStatus.OK, metricsService.getMetrics(10L).getStatusCode());
+        assertEquals(HttpStatus.OK, metricsService.getMetrics(20L).getStatusCode());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, afterStop.getStatusCode());
+        assertEquals(2, registry.get("linespeed.ingest").tag("status", "202").timer().count());
+        assertEquals(1, registry.get("linespeed.ingest").tag("status", "503").timer().count());
+    }
+
+    @Test
+    void testStop_CountsMeasurementsOfDeregisteredLines() throws InterruptedException {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metricsService.setMeterRegistry(registry);
+        shardedIngestService = new ShardedIngestService(metricsService, 1, 16, 8);
+        shardedIngestService.addSpeedMeasurement(request(30L, System.currentTimeMillis()));
+        metricsService.deregisterLine(30L);
+
+        // Act
+        shardedIngestService.stop();
+
+        // Assert
+        assertEquals(1.0, registry.get("linespeed.ingest.rejected").tag("reason", "unknown_line").counter().count());
+    }
+
+    private MeasurementRequest request(Long lineId, long timestamp) {
+        MeasurementRequest request = new MeasurementRequest();
+        request.setLineId(lineId);
+        request.setSpeed(120.0);
+        request.setTimestamp(timestamp);
+        return request;
+    }
+}